@@ -0,0 +1,115 @@
+package net.tralfamadore.dbUtils.benchmarks;
+
+import net.tralfamadore.dbUtils.DatabaseUtils;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * The embedded H2 database the benchmarks run against.
+ *
+ * The "bench" config (bench.db.properties) points at an in-memory database, and Hibernate creates the entity
+ * tables when the session factory is built.  {@link #seed()} then fills listing, listing_detail, photo, agent and
+ * address with {@link #LISTINGS} listings, once per JVM.  Benchmarks select the first n listings by id, so every
+ * result size reads the same rows.
+ *
+ * @author wreh
+ */
+public class BenchmarkDatabase {
+    /** The config name */
+    public static final String CONFIG = "bench";
+    /** The number of listings */
+    public static final int LISTINGS = 10_000;
+    /** The number of photos per listing */
+    public static final int PHOTOS_PER_LISTING = 3;
+    /** Rows per insert batch */
+    private static final int BATCH_SIZE = 1000;
+    /** Whether the database has been seeded */
+    private static boolean seeded = false;
+
+    /**
+     * Seed the database, if it hasn't been already.
+     */
+    public static synchronized void seed() {
+        if(seeded)
+            return;
+        new DatabaseUtils(CONFIG).transactionCallback(databaseUtils -> databaseUtils.connectionCallback(connection -> {
+            try(PreparedStatement agent = connection.prepareStatement(
+                    "insert into agent (id, first_name, last_name, contact_number, email) values (?, ?, ?, ?, ?)");
+                PreparedStatement address = connection.prepareStatement(
+                        "insert into address (id, street, city, state, zip_code) values (?, ?, ?, ?, ?)");
+                PreparedStatement listing = connection.prepareStatement(
+                        "insert into listing (id, price, house_type, bathrooms, bedrooms, square_feet, main_photo, " +
+                                "agent_id, address_id) values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                PreparedStatement listingDetail = connection.prepareStatement(
+                        "insert into listing_detail (id, listing_id, overview, master_bedroom, full_bathrooms, " +
+                                "half_bathrooms, dining_kitchen, dining_room, stories, exterior, parking, status, " +
+                                "school_district, style, year_built) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                PreparedStatement photo = connection.prepareStatement(
+                        "insert into photo (id, listing_id, name) values (?, ?, ?)")) {
+                for(long id = 1; id <= LISTINGS; id++) {
+                    agent.setLong(1, id);
+                    agent.setString(2, "First" + id);
+                    agent.setString(3, "Last" + id);
+                    agent.setString(4, String.format("555-%07d", id));
+                    agent.setString(5, "agent" + id + "@example.com");
+                    agent.addBatch();
+
+                    address.setLong(1, id);
+                    address.setString(2, id + " Queen Street");
+                    address.setString(3, "Springfield");
+                    address.setString(4, "IL");
+                    address.setString(5, String.format("%05d", id % 100_000));
+                    address.addBatch();
+
+                    listing.setLong(1, id);
+                    listing.setInt(2, 100_000 + (int) (id * 37 % 900_000));
+                    listing.setString(3, id % 3 == 0 ? "Condo" : "Single Family");
+                    listing.setDouble(4, 1 + id % 4 * 0.5);
+                    listing.setInt(5, 1 + (int) (id % 5));
+                    listing.setInt(6, 800 + (int) (id * 13 % 3000));
+                    listing.setString(7, "photo" + id + "-1.jpg");
+                    listing.setLong(8, id);
+                    listing.setLong(9, id);
+                    listing.addBatch();
+
+                    listingDetail.setLong(1, id);
+                    listingDetail.setLong(2, id);
+                    listingDetail.setString(3, "A lovely home, listing number " + id);
+                    listingDetail.setString(4, "Upstairs");
+                    listingDetail.setInt(5, 1 + (int) (id % 3));
+                    listingDetail.setInt(6, (int) (id % 2));
+                    listingDetail.setInt(7, 1);
+                    listingDetail.setInt(8, 1);
+                    listingDetail.setInt(9, 1 + (int) (id % 3));
+                    listingDetail.setString(10, "Brick");
+                    listingDetail.setString(11, "Garage");
+                    listingDetail.setString(12, "Active");
+                    listingDetail.setString(13, "District " + id % 20);
+                    listingDetail.setString(14, "Colonial");
+                    listingDetail.setInt(15, 1900 + (int) (id % 120));
+                    listingDetail.addBatch();
+
+                    for(int i = 1; i <= PHOTOS_PER_LISTING; i++) {
+                        photo.setLong(1, (id - 1) * PHOTOS_PER_LISTING + i);
+                        photo.setLong(2, id);
+                        photo.setString(3, "photo" + id + "-" + i + ".jpg");
+                        photo.addBatch();
+                    }
+
+                    if(id % BATCH_SIZE == 0 || id == LISTINGS) {
+                        agent.executeBatch();
+                        address.executeBatch();
+                        listing.executeBatch();
+                        listingDetail.executeBatch();
+                        photo.executeBatch();
+                    }
+                }
+                return null;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        seeded = true;
+    }
+}
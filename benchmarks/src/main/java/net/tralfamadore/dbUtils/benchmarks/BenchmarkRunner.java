@@ -0,0 +1,29 @@
+package net.tralfamadore.dbUtils.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with allocation profiling, the same as <code>java -jar benchmarks.jar -prof gc</code>.
+ *
+ * @author wreh
+ */
+public class BenchmarkRunner {
+    /**
+     * Run the benchmarks.
+     * @param args Regular expressions for the benchmarks to include; all of them if there are none.
+     * @throws RunnerException When a benchmark fails.
+     */
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder options = new OptionsBuilder();
+        if(args.length == 0)
+            options.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+        for(String include : args)
+            options.include(include);
+        Options built = options.addProfiler(GCProfiler.class).build();
+        new Runner(built).run();
+    }
+}
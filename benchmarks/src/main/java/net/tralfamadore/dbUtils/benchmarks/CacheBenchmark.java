@@ -0,0 +1,68 @@
+package net.tralfamadore.dbUtils.benchmarks;
+
+import net.tralfamadore.dbUtils.DatabaseUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The result cache: hits on one key, misses on a new key every call (so the cost of loading, weighing and
+ * evicting is included), and the same query with no caching for comparison.
+ *
+ * @author wreh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+    /** The listing query; the second bind variable only makes the cache key unique */
+    private static final String SQL = "select * from listing where id <= ? and id > ? order by id";
+    /** The number of rows to read */
+    @Param({"10", "1000"})
+    public int rows;
+    /** Makes each miss a new cache key */
+    private final AtomicLong missKey = new AtomicLong();
+
+    /**
+     * Seed the database and load the entry the hit benchmark reads.
+     */
+    @Setup
+    public void setup() {
+        BenchmarkDatabase.seed();
+        DatabaseUtils.getResultCache().invalidateAll();
+        hit();
+    }
+
+    @Benchmark
+    public List<Map<String,Object>> hit() {
+        return new DatabaseUtils(BenchmarkDatabase.CONFIG).sql(SQL).bindVars(rows, 0).cache(1, TimeUnit.HOURS)
+                .selectMapList();
+    }
+
+    @Benchmark
+    public List<Map<String,Object>> miss() {
+        return new DatabaseUtils(BenchmarkDatabase.CONFIG).sql(SQL).bindVars(rows, -missKey.incrementAndGet())
+                .cache(1, TimeUnit.HOURS).selectMapList();
+    }
+
+    @Benchmark
+    public List<Map<String,Object>> nocache() {
+        return new DatabaseUtils(BenchmarkDatabase.CONFIG).sql(SQL).bindVars(rows, 0).nocache().selectMapList();
+    }
+}
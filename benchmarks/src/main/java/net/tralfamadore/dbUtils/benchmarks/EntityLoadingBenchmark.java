@@ -0,0 +1,82 @@
+package net.tralfamadore.dbUtils.benchmarks;
+
+import net.tralfamadore.dbUtils.DatabaseUtils;
+import net.tralfamadore.dbUtils.entity.Listing;
+import net.tralfamadore.dbUtils.entity.Photo;
+import net.tralfamadore.dbUtils.entity.generated.ListingBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Entity loading: listings (with their eager agent, address, details and photos) and photos loaded through
+ * Hibernate, against the same listing rows mapped to plain beans.
+ *
+ * @author wreh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntityLoadingBenchmark {
+    /** The listing query */
+    private static final String LISTING_SQL = "select * from listing where id <= ? order by id";
+    /** The photo query */
+    private static final String PHOTO_SQL = "select * from photo where listing_id <= ? order by id";
+    /** The number of listings to read */
+    @Param({"10", "100", "1000"})
+    public int rows;
+
+    /**
+     * Seed the database.
+     */
+    @Setup
+    public void setup() {
+        BenchmarkDatabase.seed();
+    }
+
+    /**
+     * Get an uncached query.
+     * @param sql The sql.
+     * @return The query.
+     */
+    private DatabaseUtils query(String sql) {
+        return new DatabaseUtils(BenchmarkDatabase.CONFIG).sql(sql).bindVar(rows).nocache();
+    }
+
+    @Benchmark
+    public List<Listing> listingEntities() {
+        return query(LISTING_SQL).selectList(Listing.class);
+    }
+
+    @Benchmark
+    public long streamListingEntities() {
+        try(Stream<Listing> stream = query(LISTING_SQL).stream(Listing.class)) {
+            return stream.count();
+        }
+    }
+
+    @Benchmark
+    public List<ListingBase> listingBeans() {
+        return query(LISTING_SQL).selectList(ListingBase.class);
+    }
+
+    @Benchmark
+    public List<Photo> photoEntities() {
+        return query(PHOTO_SQL).selectList(Photo.class);
+    }
+}
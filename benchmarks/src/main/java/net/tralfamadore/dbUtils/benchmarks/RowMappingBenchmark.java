@@ -0,0 +1,77 @@
+package net.tralfamadore.dbUtils.benchmarks;
+
+import net.tralfamadore.dbUtils.DatabaseUtils;
+import net.tralfamadore.dbUtils.entity.generated.ListingBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Row mapping: the same listing rows read as Object[] rows, maps, beans and a stream, without the result cache.
+ *
+ * @author wreh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RowMappingBenchmark {
+    /** The listing query */
+    private static final String SQL = "select * from listing where id <= ? order by id";
+    /** The number of rows to read */
+    @Param({"10", "100", "1000", "10000"})
+    public int rows;
+
+    /**
+     * Seed the database.
+     */
+    @Setup
+    public void setup() {
+        BenchmarkDatabase.seed();
+    }
+
+    /**
+     * Get an uncached query for the listings.
+     * @return The query.
+     */
+    private DatabaseUtils query() {
+        return new DatabaseUtils(BenchmarkDatabase.CONFIG).sql(SQL).bindVar(rows).nocache();
+    }
+
+    @Benchmark
+    public List<Object[]> selectList() {
+        return query().selectList();
+    }
+
+    @Benchmark
+    public List<Map<String,Object>> selectMapList() {
+        return query().selectMapList();
+    }
+
+    @Benchmark
+    public List<ListingBase> selectBeanList() {
+        return query().selectList(ListingBase.class);
+    }
+
+    @Benchmark
+    public long streamMaps() {
+        try(Stream<Map<String,Object>> stream = query().streamMaps()) {
+            return stream.count();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package net.tralfamadore.dbUtils.benchmarks;
+
+import net.tralfamadore.Tuple3;
+import net.tralfamadore.dbUtils.DatabaseUtils;
+import net.tralfamadore.dbUtils.TupleQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuple binding: three listing columns read through selectTupleList, through TupleQuery on a result set callback,
+ * and as plain Object[] rows for comparison.
+ *
+ * @author wreh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TupleBenchmark {
+    /** The listing query */
+    private static final String SQL = "select id, price, house_type from listing where id <= ? order by id";
+    /** The number of rows to read */
+    @Param({"10", "100", "1000", "10000"})
+    public int rows;
+
+    /**
+     * Seed the database.
+     */
+    @Setup
+    public void setup() {
+        BenchmarkDatabase.seed();
+    }
+
+    /**
+     * Get an uncached query for the listing columns.
+     * @return The query.
+     */
+    private DatabaseUtils query() {
+        return new DatabaseUtils(BenchmarkDatabase.CONFIG).sql(SQL).bindVar(rows).nocache();
+    }
+
+    @Benchmark
+    public List<Tuple3<Long,Integer,String>> selectTupleList() {
+        return query().selectTupleList(Long.class, Integer.class, String.class);
+    }
+
+    @Benchmark
+    public List<Tuple3<Long,Integer,String>> tupleQuery() {
+        return query().resultSetCallback(resultSet ->
+                TupleQuery.selectList(resultSet, Long.class, Integer.class, String.class));
+    }
+
+    @Benchmark
+    public List<Object[]> selectList() {
+        return query().selectList();
+    }
+}
@@ -0,0 +1,311 @@
+package net.tralfamadore.dbUtils;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.TimeMilliVector;
+import org.apache.arrow.vector.TimeStampMilliVector;
+import org.apache.arrow.vector.TinyIntVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a result set as an Apache Arrow IPC file.
+ *
+ * The Arrow schema is built once from the {@link ResultSetMetaData}, and each column gets a writer that reads the
+ * value with the typed jdbc getter and sets it straight into the column's vector, so numbers and dates are never
+ * turned into text.  Rows are written in record batches of {@link CsvExportSettings#getRecordBatchSize()} rows, and
+ * the vectors are reused from batch to batch.  Types with no direct Arrow equivalent are written as utf8 strings.
+ *
+ * Timestamps are written as wall clock time (a timestamp with no time zone), dates as days since the epoch and times
+ * as milliseconds since midnight.
+ *
+ * @author wreh
+ */
+class ArrowExporter {
+    /** The largest decimal precision an Arrow decimal vector holds */
+    private static final int MAX_DECIMAL_PRECISION = 38;
+    /** The export settings */
+    private final CsvExportSettings settings;
+
+    /**
+     * Create a new ArrowExporter.
+     * @param settings The export settings.
+     */
+    ArrowExporter(CsvExportSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Write a result set to a channel, which is closed when the file is complete.
+     * @param resultSet The result set.
+     * @param columnNames The field names, one per column.
+     * @param channel The channel to write to.
+     * @return The number of rows written.
+     * @throws SQLException On a jdbc error.
+     * @throws IOException On a write error.
+     */
+    long write(ResultSet resultSet, List<String> columnNames, WritableByteChannel channel)
+            throws SQLException, IOException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        List<Field> fields = new ArrayList<>(columnNames.size());
+        for(int i = 1; i <= columnNames.size(); i++)
+            fields.add(new Field(columnNames.get(i - 1), FieldType.nullable(arrowType(metaData, i)), null));
+
+        try(BufferAllocator allocator = new RootAllocator();
+            VectorSchemaRoot root = VectorSchemaRoot.create(new Schema(fields), allocator);
+            ArrowFileWriter writer = new ArrowFileWriter(root, null, channel)) {
+            List<ColumnWriter> columnWriters = new ArrayList<>(fields.size());
+            for(int i = 0; i < fields.size(); i++)
+                columnWriters.add(columnWriter(root, i));
+
+            int batchSize = settings.getRecordBatchSize();
+            long rowCount = 0;
+            int row = 0;
+            writer.start();
+            root.allocateNew();
+            while(resultSet.next()) {
+                for(ColumnWriter columnWriter : columnWriters)
+                    columnWriter.write(resultSet, row);
+                rowCount++;
+                if(++row == batchSize) {
+                    root.setRowCount(row);
+                    writer.writeBatch();
+                    root.allocateNew();
+                    row = 0;
+                }
+            }
+            if(row > 0 || rowCount == 0) {
+                root.setRowCount(row);
+                writer.writeBatch();
+            }
+            writer.end();
+            return rowCount;
+        }
+    }
+
+    /**
+     * Map a column's jdbc type to an Arrow type.
+     * @param metaData The result set metadata.
+     * @param column The column, starting at 1.
+     * @return The Arrow type.
+     * @throws SQLException On a jdbc error.
+     */
+    static ArrowType arrowType(ResultSetMetaData metaData, int column) throws SQLException {
+        boolean signed = metaData.isSigned(column);
+        switch(metaData.getColumnType(column)) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return ArrowType.Bool.INSTANCE;
+            case Types.TINYINT:
+                return new ArrowType.Int(signed ? 8 : 16, true);
+            case Types.SMALLINT:
+                return new ArrowType.Int(signed ? 16 : 32, true);
+            case Types.INTEGER:
+                return new ArrowType.Int(signed ? 32 : 64, true);
+            case Types.BIGINT:
+                return signed ? new ArrowType.Int(64, true) : new ArrowType.Decimal(20, 0, 128);
+            case Types.REAL:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                int precision = metaData.getPrecision(column);
+                int scale = metaData.getScale(column);
+                if(precision > 0 && precision <= MAX_DECIMAL_PRECISION && scale >= 0 && scale <= precision)
+                    return new ArrowType.Decimal(precision, scale, 128);
+                return ArrowType.Utf8.INSTANCE;
+            case Types.DATE:
+                return new ArrowType.Date(DateUnit.DAY);
+            case Types.TIME:
+                return new ArrowType.Time(TimeUnit.MILLISECOND, 32);
+            case Types.TIMESTAMP:
+                return new ArrowType.Timestamp(TimeUnit.MILLISECOND, null);
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return ArrowType.Binary.INSTANCE;
+            default:
+                return ArrowType.Utf8.INSTANCE;
+        }
+    }
+
+    /**
+     * Create the writer for a column, from its vector's type.
+     * @param root The vectors.
+     * @param index The column index, starting at 0.
+     * @return The column writer.
+     */
+    private static ColumnWriter columnWriter(VectorSchemaRoot root, int index) {
+        int column = index + 1;
+        Object vector = root.getVector(index);
+        if(vector instanceof BitVector) {
+            BitVector bitVector = (BitVector) vector;
+            return (resultSet, row) -> {
+                boolean value = resultSet.getBoolean(column);
+                if(resultSet.wasNull())
+                    bitVector.setNull(row);
+                else
+                    bitVector.setSafe(row, value ? 1 : 0);
+            };
+        } else if(vector instanceof TinyIntVector) {
+            TinyIntVector tinyIntVector = (TinyIntVector) vector;
+            return (resultSet, row) -> {
+                byte value = resultSet.getByte(column);
+                if(resultSet.wasNull())
+                    tinyIntVector.setNull(row);
+                else
+                    tinyIntVector.setSafe(row, value);
+            };
+        } else if(vector instanceof SmallIntVector) {
+            SmallIntVector smallIntVector = (SmallIntVector) vector;
+            return (resultSet, row) -> {
+                short value = resultSet.getShort(column);
+                if(resultSet.wasNull())
+                    smallIntVector.setNull(row);
+                else
+                    smallIntVector.setSafe(row, value);
+            };
+        } else if(vector instanceof IntVector) {
+            IntVector intVector = (IntVector) vector;
+            return (resultSet, row) -> {
+                int value = resultSet.getInt(column);
+                if(resultSet.wasNull())
+                    intVector.setNull(row);
+                else
+                    intVector.setSafe(row, value);
+            };
+        } else if(vector instanceof BigIntVector) {
+            BigIntVector bigIntVector = (BigIntVector) vector;
+            return (resultSet, row) -> {
+                long value = resultSet.getLong(column);
+                if(resultSet.wasNull())
+                    bigIntVector.setNull(row);
+                else
+                    bigIntVector.setSafe(row, value);
+            };
+        } else if(vector instanceof Float4Vector) {
+            Float4Vector float4Vector = (Float4Vector) vector;
+            return (resultSet, row) -> {
+                float value = resultSet.getFloat(column);
+                if(resultSet.wasNull())
+                    float4Vector.setNull(row);
+                else
+                    float4Vector.setSafe(row, value);
+            };
+        } else if(vector instanceof Float8Vector) {
+            Float8Vector float8Vector = (Float8Vector) vector;
+            return (resultSet, row) -> {
+                double value = resultSet.getDouble(column);
+                if(resultSet.wasNull())
+                    float8Vector.setNull(row);
+                else
+                    float8Vector.setSafe(row, value);
+            };
+        } else if(vector instanceof DecimalVector) {
+            DecimalVector decimalVector = (DecimalVector) vector;
+            int scale = decimalVector.getScale();
+            return (resultSet, row) -> {
+                BigDecimal value = resultSet.getBigDecimal(column);
+                if(value == null)
+                    decimalVector.setNull(row);
+                else
+                    decimalVector.setSafe(row, value.setScale(scale, RoundingMode.HALF_UP));
+            };
+        } else if(vector instanceof DateDayVector) {
+            DateDayVector dateDayVector = (DateDayVector) vector;
+            return (resultSet, row) -> {
+                Date value = resultSet.getDate(column);
+                if(value == null)
+                    dateDayVector.setNull(row);
+                else
+                    dateDayVector.setSafe(row, (int) value.toLocalDate().toEpochDay());
+            };
+        } else if(vector instanceof TimeMilliVector) {
+            TimeMilliVector timeMilliVector = (TimeMilliVector) vector;
+            return (resultSet, row) -> {
+                Time value = resultSet.getTime(column);
+                if(value == null)
+                    timeMilliVector.setNull(row);
+                else
+                    timeMilliVector.setSafe(row, (int) (value.toLocalTime().toNanoOfDay() / 1_000_000));
+            };
+        } else if(vector instanceof TimeStampMilliVector) {
+            TimeStampMilliVector timeStampMilliVector = (TimeStampMilliVector) vector;
+            return (resultSet, row) -> {
+                Timestamp value = resultSet.getTimestamp(column);
+                if(value == null)
+                    timeStampMilliVector.setNull(row);
+                else
+                    timeStampMilliVector.setSafe(row, value.toLocalDateTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+            };
+        } else if(vector instanceof VarBinaryVector) {
+            VarBinaryVector varBinaryVector = (VarBinaryVector) vector;
+            return (resultSet, row) -> {
+                byte[] value = resultSet.getBytes(column);
+                if(value == null)
+                    varBinaryVector.setNull(row);
+                else
+                    varBinaryVector.setSafe(row, value);
+            };
+        } else {
+            VarCharVector varCharVector = (VarCharVector) vector;
+            return (resultSet, row) -> {
+                String value = resultSet.getString(column);
+                if(value == null)
+                    varCharVector.setNull(row);
+                else
+                    varCharVector.setSafe(row, value.getBytes(StandardCharsets.UTF_8));
+            };
+        }
+    }
+
+    /**
+     * Copies one column of the current row into its vector.
+     */
+    @FunctionalInterface
+    private interface ColumnWriter {
+        /**
+         * Copy the column's value.
+         * @param resultSet The result set, on the current row.
+         * @param row The row's index in the record batch.
+         * @throws SQLException On a jdbc error.
+         */
+        void write(ResultSet resultSet, int row) throws SQLException;
+    }
+}
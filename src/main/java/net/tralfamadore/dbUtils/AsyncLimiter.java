@@ -0,0 +1,137 @@
+package net.tralfamadore.dbUtils;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caps the number of tasks for one config that run at once, without a thread blocking for each one that waits.  A
+ * task takes a permit before it is handed to the executor; tasks over the cap are queued, and a finishing task
+ * passes its permit to the next one in the queue, so a saturated config never ties up the threads of an executor
+ * it shares with other configs.
+ *
+ * @author wreh
+ */
+class AsyncLimiter {
+    /** The logger */
+    private static final Logger logger = Logger.getLogger(AsyncLimiter.class.getName());
+    /** The maximum number of tasks running at once */
+    private final int maximum;
+    /** The tasks waiting for a permit, with the executor each one goes to */
+    private final Queue<Pending> waiting = new ArrayDeque<>();
+    /** The number of permits taken */
+    private int running;
+
+    /**
+     * Create a new AsyncLimiter.
+     * @param maximum The maximum number of tasks running at once.
+     */
+    AsyncLimiter(int maximum) {
+        if(maximum < 1)
+            throw new IllegalArgumentException("maximum must be at least 1");
+        this.maximum = maximum;
+    }
+
+    /**
+     * Get an executor that runs tasks on another one, within the cap.
+     * @param executor The executor to run the tasks on.
+     * @return The capped executor.
+     */
+    Executor on(Executor executor) {
+        return task -> execute(task, executor);
+    }
+
+    /**
+     * Run a task on an executor once a permit is free.
+     * @param task The task.
+     * @param executor The executor to run it on.
+     * @throws RejectedExecutionException When a permit is free but the executor won't take the task.
+     */
+    void execute(Runnable task, Executor executor) {
+        Pending pending = new Pending(task, executor);
+        synchronized(this) {
+            if(running >= maximum) {
+                waiting.add(pending);
+                return;
+            }
+            running++;
+        }
+        try {
+            executor.execute(pending);
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the number of tasks waiting for a permit.
+     * @return The number of waiting tasks.
+     */
+    synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * Pass a finished task's permit to the next waiting task, or give it back.  A waiting task whose executor won't
+     * take it any more runs on the calling thread, since nobody is left to hear that it was rejected.
+     */
+    private void release() {
+        while(true) {
+            Pending next;
+            synchronized(this) {
+                next = waiting.poll();
+                if(next == null) {
+                    running--;
+                    return;
+                }
+            }
+            try {
+                next.executor.execute(next);
+                return;
+            } catch (RejectedExecutionException e) {
+                logger.warning("Async executor rejected a queued task, running it on the calling thread: " + e);
+            }
+            try {
+                next.task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Queued async task failed", e);
+            }
+        }
+    }
+
+    /**
+     * A task that holds a permit while it runs and releases it when it's done.
+     */
+    private final class Pending implements Runnable {
+        /** The task */
+        private final Runnable task;
+        /** The executor to run it on */
+        private final Executor executor;
+
+        /**
+         * Create a new Pending.
+         * @param task The task.
+         * @param executor The executor to run it on.
+         */
+        Pending(Runnable task, Executor executor) {
+            this.task = task;
+            this.executor = executor;
+        }
+
+        /**
+         * Run the task and release its permit.  See {@link Runnable#run()}
+         */
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                release();
+            }
+        }
+    }
+}
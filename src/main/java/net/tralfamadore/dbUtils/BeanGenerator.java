@@ -40,6 +40,15 @@ public class BeanGenerator {
         return this;
     }
 
+    /**
+     * Load the table descriptions of the schema set with {@link #schemaName(String)} from a snapshot file, once, so
+     * each {@link #createBean(String)} finds its table in the metadata cache.  Set the schema name first.
+     */
+    public BeanGenerator schemaSnapshot(File schemaSnapshot) {
+        new DatabaseUtils().loadSchemaSnapshot(schemaName, schemaSnapshot);
+        return this;
+    }
+
     public BeanGenerator packageName(String packageName) {
         this.packageName = packageName;
         return this;
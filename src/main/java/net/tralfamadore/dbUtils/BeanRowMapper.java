@@ -0,0 +1,394 @@
+package net.tralfamadore.dbUtils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.primitives.Primitives;
+
+import javax.persistence.Column;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Maps rows to plain beans (POJOs, {@link javax.persistence.MappedSuperclass} types, anything that isn't a managed
+ * entity) without going through Hibernate.
+ *
+ * The mapping plan for a (class, column set) pair is built once and cached: each column is matched to a property by
+ * its {@link Column} name, its field name or its setter name, ignoring case and underscores, and gets a typed column
+ * reader and a setter compiled with {@link LambdaMetafactory}.  Mapping a row is then a constructor call plus one read
+ * and one set per column, with no reflection.  Columns that don't match a property are ignored, and null values are
+ * skipped for primitive properties.
+ *
+ * @author wreh
+ */
+public final class BeanRowMapper<T> implements RowMapper<T> {
+    /** The maximum number of mapping plans per class */
+    private static final int MAXIMUM_PLANS_PER_CLASS = 1_000;
+    /**
+     * Mapping plans by class, then by column labels and indexes.  Kept in a {@link ClassValue} rather than keyed by
+     * class in one map, so a plan doesn't keep its bean class (and its class loader) from being unloaded.
+     */
+    private static final ClassValue<Cache<List<Object>,BeanRowMapper<?>>> plans =
+            new ClassValue<Cache<List<Object>,BeanRowMapper<?>>>() {
+                @Override
+                protected Cache<List<Object>,BeanRowMapper<?>> computeValue(Class<?> type) {
+                    return Caffeine.newBuilder().maximumSize(MAXIMUM_PLANS_PER_CLASS).build();
+                }
+            };
+    /** Column readers by property type */
+    private static final Map<Class<?>,ColumnReader> readers = new HashMap<>();
+
+    static {
+        readers.put(String.class, ResultSet::getString);
+        readers.put(Long.class, (resultSet, column) -> nullable(resultSet, resultSet.getLong(column)));
+        readers.put(Integer.class, (resultSet, column) -> nullable(resultSet, resultSet.getInt(column)));
+        readers.put(Short.class, (resultSet, column) -> nullable(resultSet, resultSet.getShort(column)));
+        readers.put(Byte.class, (resultSet, column) -> nullable(resultSet, resultSet.getByte(column)));
+        readers.put(Double.class, (resultSet, column) -> nullable(resultSet, resultSet.getDouble(column)));
+        readers.put(Float.class, (resultSet, column) -> nullable(resultSet, resultSet.getFloat(column)));
+        readers.put(Boolean.class, (resultSet, column) -> nullable(resultSet, resultSet.getBoolean(column)));
+        readers.put(BigDecimal.class, ResultSet::getBigDecimal);
+        readers.put(BigInteger.class, (resultSet, column) -> {
+            BigDecimal value = resultSet.getBigDecimal(column);
+            return value == null ? null : value.toBigInteger();
+        });
+        readers.put(byte[].class, ResultSet::getBytes);
+        readers.put(Date.class, ResultSet::getDate);
+        readers.put(Time.class, ResultSet::getTime);
+        readers.put(Timestamp.class, ResultSet::getTimestamp);
+        readers.put(java.util.Date.class, ResultSet::getTimestamp);
+        readers.put(LocalDate.class, (resultSet, column) -> {
+            Date value = resultSet.getDate(column);
+            return value == null ? null : value.toLocalDate();
+        });
+        readers.put(LocalTime.class, (resultSet, column) -> {
+            Time value = resultSet.getTime(column);
+            return value == null ? null : value.toLocalTime();
+        });
+        readers.put(LocalDateTime.class, (resultSet, column) -> {
+            Timestamp value = resultSet.getTimestamp(column);
+            return value == null ? null : value.toLocalDateTime();
+        });
+        readers.put(Instant.class, (resultSet, column) -> {
+            Timestamp value = resultSet.getTimestamp(column);
+            return value == null ? null : value.toInstant();
+        });
+    }
+
+    /** Creates a new bean */
+    private final Supplier<T> constructor;
+    /** The jdbc column index of each mapped column */
+    private final int[] columns;
+    /** The reader for each mapped column */
+    private final ColumnReader[] columnReaders;
+    /** The setter for each mapped column */
+    private final BiConsumer<Object,Object>[] setters;
+    /** Whether each mapped column's property is primitive, so nulls must be skipped */
+    private final boolean[] primitives;
+
+    /**
+     * Create a new BeanRowMapper.
+     * @param type The bean class.
+     * @param rowSchema The columns of the result.
+     */
+    @SuppressWarnings("unchecked")
+    private BeanRowMapper(Class<T> type, RowSchema rowSchema) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            constructor = constructor(lookup, type);
+            Map<String,Property> properties = properties(type);
+
+            int[] columns = new int[rowSchema.size()];
+            ColumnReader[] columnReaders = new ColumnReader[rowSchema.size()];
+            BiConsumer<Object,Object>[] setters = setters(rowSchema.size());
+            boolean[] primitives = new boolean[rowSchema.size()];
+            int mapped = 0;
+            for(int i = 0; i < rowSchema.size(); i++) {
+                Property property = properties.get(normalize(rowSchema.label(i)));
+                if(property == null)
+                    continue;
+                columns[mapped] = rowSchema.columnIndex(i);
+                columnReaders[mapped] = reader(property.type);
+                setters[mapped] = property.setter(lookup);
+                primitives[mapped] = property.type.isPrimitive();
+                mapped++;
+            }
+            this.columns = Arrays.copyOf(columns, mapped);
+            this.columnReaders = Arrays.copyOf(columnReaders, mapped);
+            this.setters = Arrays.copyOf(setters, mapped);
+            this.primitives = Arrays.copyOf(primitives, mapped);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException("Can't map rows to " + type.getName(), t);
+        }
+    }
+
+    /**
+     * Get the row mapper for a bean class and the columns of a result, building its mapping plan on first use.
+     * @param type The bean class.  It must have a no argument constructor.
+     * @param rowSchema The columns of the result.
+     * @param <T> The bean type.
+     * @return The row mapper.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BeanRowMapper<T> of(Class<T> type, RowSchema rowSchema) {
+        // the plan reads by jdbc column index, so results with the same labels at other indexes (e.g. a repeated
+        // column) need a plan of their own
+        Object[] key = new Object[rowSchema.size() * 2];
+        for(int i = 0; i < rowSchema.size(); i++) {
+            key[i * 2] = rowSchema.label(i);
+            key[i * 2 + 1] = rowSchema.columnIndex(i);
+        }
+        return (BeanRowMapper<T>) plans.get(type).get(Arrays.asList(key), k -> new BeanRowMapper<>(type, rowSchema));
+    }
+
+    @Override
+    public T apply(ResultSet resultSet) throws SQLException {
+        T bean = constructor.get();
+        for(int i = 0; i < columns.length; i++) {
+            Object value = columnReaders[i].read(resultSet, columns[i]);
+            if(value != null || !primitives[i])
+                setters[i].accept(bean, value);
+        }
+        return bean;
+    }
+
+    /**
+     * Check whether a class is read as a single column value rather than mapped as a bean.
+     * @param type The class.
+     * @return True for primitives, arrays, enums and the java.* value types.
+     */
+    public static boolean isScalar(Class<?> type) {
+        return type.isPrimitive() || type.isArray() || type.isEnum() || type.getName().startsWith("java.");
+    }
+
+    /**
+     * Compile a bean's no argument constructor.
+     * @param lookup The lookup.
+     * @param type The bean class.
+     * @param <T> The bean type.
+     * @return A supplier of new beans.
+     * @throws Throwable When there is no accessible no argument constructor.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Supplier<T> constructor(MethodHandles.Lookup lookup, Class<T> type) throws Throwable {
+        MethodHandle handle = lookup.findConstructor(type, MethodType.methodType(void.class));
+        try {
+            CallSite callSite = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), handle, MethodType.methodType(type));
+            return (Supplier<T>) callSite.getTarget().invoke();
+        } catch (Throwable t) {
+            // e.g. the class isn't visible from this class loader; fall back to calling the handle
+            MethodHandle generic = handle.asType(MethodType.methodType(Object.class));
+            return () -> {
+                try {
+                    return (T) generic.invokeExact();
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            };
+        }
+    }
+
+    /**
+     * Find the settable properties of a bean class, by normalized column and property name.  Properties with
+     * types that have no column reader (associations, collections...) are left out.
+     * @param type The bean class.
+     * @return The properties.
+     */
+    private static Map<String,Property> properties(Class<?> type) {
+        Map<String,Property> properties = new HashMap<>();
+        Map<String,String> columnNames = new HashMap<>();
+        for(Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for(Field field : c.getDeclaredFields()) {
+                if(Modifier.isStatic(field.getModifiers()) || !hasReader(field.getType()))
+                    continue;
+                Column column = field.getAnnotation(Column.class);
+                if(column != null && !column.name().isEmpty())
+                    columnNames.putIfAbsent(field.getName(), column.name());
+                properties.putIfAbsent(normalize(field.getName()), new Property(field));
+            }
+        }
+        for(Method method : type.getMethods()) {
+            if(Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 1 ||
+                    !method.getName().startsWith("set") || method.getName().length() == 3 ||
+                    !hasReader(method.getParameterTypes()[0]))
+                continue;
+            properties.put(normalize(method.getName().substring(3)), new Property(method));
+        }
+        for(Map.Entry<String,String> columnName : columnNames.entrySet()) {
+            Property property = properties.get(normalize(columnName.getKey()));
+            if(property != null)
+                properties.put(normalize(columnName.getValue()), property);
+        }
+        return properties;
+    }
+
+    /**
+     * Normalize a column or property name for matching: lower case, without underscores.
+     * @param name The name.
+     * @return The normalized name.
+     */
+    private static String normalize(String name) {
+        return name.replace("_", "").toLowerCase();
+    }
+
+    /**
+     * Check whether there is a column reader for a property type.
+     * @param type The property type.
+     * @return True if columns can be read as the type.
+     */
+    private static boolean hasReader(Class<?> type) {
+        return type.isEnum() || readers.containsKey(Primitives.wrap(type));
+    }
+
+    /**
+     * Get the column reader for a property type.
+     * @param type The property type.
+     * @return The column reader.
+     */
+    private static ColumnReader reader(Class<?> type) {
+        if(type.isEnum()) {
+            Map<String,Object> constants = new HashMap<>();
+            for(Object constant : type.getEnumConstants())
+                constants.put(((Enum<?>) constant).name(), constant);
+            return (resultSet, column) -> {
+                String value = resultSet.getString(column);
+                if(value == null)
+                    return null;
+                Object constant = constants.get(value);
+                if(constant == null)
+                    throw new IllegalArgumentException("No enum constant " + type.getName() + "." + value);
+                return constant;
+            };
+        }
+        return readers.get(Primitives.wrap(type));
+    }
+
+    /**
+     * Create an array for the setters of a plan.
+     * @param size The number of setters.
+     * @return The array.
+     */
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object,Object>[] setters(int size) {
+        return (BiConsumer<Object,Object>[]) new BiConsumer<?,?>[size];
+    }
+
+    /**
+     * Return a primitive column value, or null if the column was sql NULL.
+     * @param resultSet The result set the value was just read from.
+     * @param value The value.
+     * @return The value, or null.
+     * @throws SQLException On a jdbc error.
+     */
+    private static Object nullable(ResultSet resultSet, Object value) throws SQLException {
+        return resultSet.wasNull() ? null : value;
+    }
+
+    /**
+     * Reads a column as a particular java type.
+     */
+    @FunctionalInterface
+    private interface ColumnReader {
+        /**
+         * Read a column of the current row.
+         * @param resultSet The result set.
+         * @param column The jdbc column index.
+         * @return The value, or null for sql NULL.
+         * @throws SQLException On a jdbc error.
+         */
+        Object read(ResultSet resultSet, int column) throws SQLException;
+    }
+
+    /**
+     * A settable bean property, either a public setter or a field.
+     */
+    private static class Property {
+        /** The property type */
+        private final Class<?> type;
+        /** The setter, if there is one */
+        private final Method setter;
+        /** The field, if there is no setter */
+        private final Field field;
+
+        /**
+         * Create a new Property set through a setter.
+         * @param setter The setter.
+         */
+        Property(Method setter) {
+            this.type = setter.getParameterTypes()[0];
+            this.setter = setter;
+            this.field = null;
+        }
+
+        /**
+         * Create a new Property set directly on a field.
+         * @param field The field.
+         */
+        Property(Field field) {
+            this.type = field.getType();
+            this.setter = null;
+            this.field = field;
+        }
+
+        /**
+         * Compile the property's setter.
+         * @param lookup The lookup.
+         * @return A setter taking the bean and the (boxed) value.
+         * @throws Throwable When the setter or field isn't accessible.
+         */
+        @SuppressWarnings("unchecked")
+        BiConsumer<Object,Object> setter(MethodHandles.Lookup lookup) throws Throwable {
+            MethodHandle handle;
+            if(setter != null) {
+                handle = lookup.unreflect(setter);
+                try {
+                    CallSite callSite = LambdaMetafactory.metafactory(lookup, "accept",
+                            MethodType.methodType(BiConsumer.class),
+                            MethodType.methodType(void.class, Object.class, Object.class), handle,
+                            MethodType.methodType(void.class, setter.getDeclaringClass(), Primitives.wrap(type)));
+                    return (BiConsumer<Object,Object>) callSite.getTarget().invoke();
+                } catch (Throwable t) {
+                    // fall through to calling the handle
+                }
+            } else {
+                field.setAccessible(true);
+                handle = lookup.unreflectSetter(field);
+            }
+            MethodHandle generic = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            return (bean, value) -> {
+                try {
+                    generic.invokeExact(bean, value);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package net.tralfamadore.dbUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a bulk store or insert: how many entities were written, in how many jdbc batches, and how long it
+ * took.
+ *
+ * @author wreh
+ */
+public class BulkResult {
+    /** The number of entities written */
+    private final long entityCount;
+    /** The number of batches (flushes) the entities were written in */
+    private final long batchCount;
+    /** The elapsed time in nanoseconds */
+    private final long elapsedNanos;
+
+    /**
+     * Create a new BulkResult.
+     * @param entityCount The number of entities written.
+     * @param batchCount The number of batches the entities were written in.
+     * @param elapsedNanos The elapsed time in nanoseconds.
+     */
+    public BulkResult(long entityCount, long batchCount, long elapsedNanos) {
+        this.entityCount = entityCount;
+        this.batchCount = batchCount;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Get the number of entities written.
+     * @return The entity count.
+     */
+    public long getEntityCount() {
+        return entityCount;
+    }
+
+    /**
+     * Get the number of batches the entities were written in.
+     * @return The batch count.
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Get the elapsed time.
+     * @param timeUnit The time unit to return.
+     * @return The elapsed time.
+     */
+    public long getElapsed(TimeUnit timeUnit) {
+        return timeUnit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the throughput.
+     * @return The number of entities written per second.
+     */
+    public double getEntitiesPerSecond() {
+        return elapsedNanos == 0 ? 0 : entityCount * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * See {@link Object#toString()}
+     * @return String representation of the bulk result.
+     */
+    @Override
+    public String toString() {
+        return "BulkResult{" +
+                "entityCount=" + entityCount +
+                ", batchCount=" + batchCount +
+                ", elapsedMillis=" + getElapsed(TimeUnit.MILLISECONDS) +
+                ", entitiesPerSecond=" + String.format("%.1f", getEntitiesPerSecond()) +
+                '}';
+    }
+}
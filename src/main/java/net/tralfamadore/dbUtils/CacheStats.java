@@ -0,0 +1,74 @@
+package net.tralfamadore.dbUtils;
+
+/**
+ * A snapshot of a cache's counters: the {@link ResultCache} counts query results, the {@link StatementCache}
+ * prepared statements.
+ *
+ * @author wreh
+ */
+public class CacheStats {
+    /** The number of lookups that found an entry */
+    private final long hitCount;
+    /** The number of lookups that found no entry */
+    private final long missCount;
+    /** The number of entries evicted to make room or because they expired */
+    private final long evictionCount;
+
+    /**
+     * Create a new CacheStats.
+     * @param hitCount The number of lookups that found an entry.
+     * @param missCount The number of lookups that found no entry.
+     * @param evictionCount The number of entries evicted to make room or because they expired.
+     */
+    public CacheStats(long hitCount, long missCount, long evictionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+    }
+
+    /**
+     * Get the number of lookups that found an entry.
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of lookups that found no entry.
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Get the number of entries evicted to make room or because they expired.
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Get the ratio of hits to lookups.
+     * @return The hit rate, or 1.0 if there have been no lookups.
+     */
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * See {@link Object#toString()}
+     * @return String representation of the cache statistics.
+     */
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                '}';
+    }
+}
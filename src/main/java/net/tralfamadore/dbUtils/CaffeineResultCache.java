@@ -0,0 +1,261 @@
+package net.tralfamadore.dbUtils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Scheduler;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * The default {@link ResultCache}, backed by a Caffeine cache.
+ *
+ * The cache is bounded by weight, where the weight of a list result is its row count and the weight of any other
+ * result is 1.  Entries are evicted with Caffeine's W-TinyLFU policy when the bound is reached, and expired entries
+ * are removed by a background scheduler rather than lingering until they are next read.
+ *
+ * Loads through {@link #get(Object, long, long, TimeUnit, Supplier)} are coalesced: while a key is being loaded,
+ * other callers for that key wait for the same result instead of running the query again.  Entries cached with a
+ * stale time stay in the cache for their time to live plus the stale time, and a read in that window returns the
+ * old value and starts one background refresh, on the executor the caller gives or a small pool of daemon threads.
+ *
+ * A load that is running when its key is invalidated (by {@link #invalidate(Object)},
+ * {@link #invalidateTables(Collection)} or {@link #invalidateAll()}) still returns its result to the callers already
+ * waiting for it, but the result isn't cached, and later callers start a new load instead of joining it.  Rows read
+ * before a write can't be put back in the cache after the write has invalidated them.
+ *
+ * @author wreh
+ */
+public class CaffeineResultCache implements ResultCache {
+    /** The default maximum weight (roughly the number of cached rows) */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 100_000;
+    /** The scheduler used to remove expired entries */
+    private static final ScheduledExecutorService expiryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "dbUtils-result-cache-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** The executor used for background refreshes of stale entries when the caller doesn't give one */
+    private static final ExecutorService defaultRefreshExecutor = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2), r -> {
+        Thread thread = new Thread(r, "dbUtils-result-cache-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** The underlying cache */
+    private final Cache<Object,CachedResult> cache;
+    /** Loads in progress, by key */
+    private final ConcurrentMap<Object,Load> loading = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new CaffeineResultCache with the default maximum weight.
+     */
+    public CaffeineResultCache() {
+        this(DEFAULT_MAXIMUM_WEIGHT);
+    }
+
+    /**
+     * Create a new CaffeineResultCache.
+     * @param maximumWeight The maximum total weight of the cache, roughly the number of cached rows.
+     */
+    public CaffeineResultCache(long maximumWeight) {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher(CaffeineResultCache::weigh)
+                .expireAfter(new Expiry<Object,CachedResult>() {
+                    @Override
+                    public long expireAfterCreate(Object key, CachedResult value, long currentTime) {
+                        return value.getTimeToLiveNanos() + value.getStaleNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Object key, CachedResult value, long currentTime, long currentDuration) {
+                        return value.getTimeToLiveNanos() + value.getStaleNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(Object key, CachedResult value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .scheduler(Scheduler.forScheduledExecutorService(expiryExecutor))
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public CachedResult get(Object key) {
+        CachedResult cachedResult = cache.getIfPresent(key);
+        return cachedResult == null || cachedResult.isStale() ? null : cachedResult;
+    }
+
+    @Override
+    public void put(Object key, Object value, long cacheTime, TimeUnit cacheTimeUnit) {
+        cache.put(key, new CachedResult(value, cacheTimeUnit.toNanos(cacheTime)));
+    }
+
+    @Override
+    public <T> T get(Object key, long cacheTime, long staleTime, TimeUnit cacheTimeUnit, Supplier<T> loader) {
+        return get(key, cacheTime, staleTime, cacheTimeUnit, loader, defaultRefreshExecutor);
+    }
+
+    @Override
+    public <T> T get(Object key, long cacheTime, long staleTime, TimeUnit cacheTimeUnit, Supplier<T> loader,
+                     Executor refreshExecutor) {
+        CachedResult cachedResult = cache.getIfPresent(key);
+        if(cachedResult != null) {
+            if(cachedResult.isStale())
+                load(key, cacheTime, staleTime, cacheTimeUnit, loader, refreshExecutor);
+            return cachedResult.getValue();
+        }
+        try {
+            return load(key, cacheTime, staleTime, cacheTimeUnit, loader, null).join().getValue();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if(e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Load a result, or join the load that is already in progress for the key.
+     * @param key The cache key.
+     * @param cacheTime The amount of time units to cache for.
+     * @param staleTime The amount of time units to serve an expired result for while it is refreshed.
+     * @param cacheTimeUnit The time unit (millis, seconds, etc) to use.
+     * @param loader Loads the result.
+     * @param refreshExecutor The executor to load on, or null to load on the calling thread.
+     * @return A future for the loaded result.
+     */
+    private CompletableFuture<CachedResult> load(Object key, long cacheTime, long staleTime, TimeUnit cacheTimeUnit,
+                                                 Supplier<?> loader, Executor refreshExecutor) {
+        Load load = new Load();
+        Load inProgress = loading.putIfAbsent(key, load);
+        if(inProgress != null)
+            return inProgress.future;
+
+        Runnable task = () -> {
+            try {
+                CachedResult cachedResult = cache.asMap().get(key);
+                // another caller may have finished loading between our cache miss and claiming the key
+                if(cachedResult == null || cachedResult.isStale()) {
+                    cachedResult = new CachedResult(loader.get(), cacheTimeUnit.toNanos(cacheTime),
+                            cacheTimeUnit.toNanos(staleTime));
+                    if(!load.invalidated) {
+                        cache.put(key, cachedResult);
+                        // invalidated between the check and the put
+                        if(load.invalidated)
+                            cache.asMap().remove(key, cachedResult);
+                    }
+                }
+                load.future.complete(cachedResult);
+            } catch (Throwable t) {
+                load.future.completeExceptionally(t);
+            } finally {
+                loading.remove(key, load);
+            }
+        };
+        if(refreshExecutor == null) {
+            task.run();
+            return load.future;
+        }
+        try {
+            refreshExecutor.execute(task);
+        } catch (RuntimeException e) {
+            loading.remove(key, load);
+            load.future.completeExceptionally(e);
+        }
+        return load.future;
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        Load load = loading.remove(key);
+        if(load != null)
+            load.invalidated = true;
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void invalidateTables(Collection<String> tableNames) {
+        cancelLoads(key -> readsAny(key, tableNames));
+        cache.asMap().keySet().removeIf(key -> readsAny(key, tableNames));
+    }
+
+    @Override
+    public void invalidateAll() {
+        cancelLoads(key -> true);
+        cache.invalidateAll();
+    }
+
+    /**
+     * Mark the loads in progress for some keys as invalidated, so their results aren't cached, and forget them, so
+     * later callers start new loads.  Must run before the keys are removed from the cache.
+     * @param keys Selects the keys.
+     */
+    private void cancelLoads(Predicate<Object> keys) {
+        loading.entrySet().removeIf(entry -> {
+            if(!keys.test(entry.getKey()))
+                return false;
+            entry.getValue().invalidated = true;
+            return true;
+        });
+    }
+
+    /**
+     * Check whether a key may read any of some tables.
+     * @param key The cache key.
+     * @param tableNames The lower case table names.
+     * @return True if the key reads any of the tables, or isn't a {@link QueryCacheKey} so its tables aren't known.
+     */
+    private static boolean readsAny(Object key, Collection<String> tableNames) {
+        return !(key instanceof QueryCacheKey) || ((QueryCacheKey) key).readsAny(tableNames);
+    }
+
+    @Override
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    @Override
+    public CacheStats stats() {
+        com.github.benmanes.caffeine.cache.stats.CacheStats stats = cache.stats();
+        return new CacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+    /**
+     * A load in progress.
+     */
+    private static final class Load {
+        /** Completed with the loaded result */
+        private final CompletableFuture<CachedResult> future = new CompletableFuture<>();
+        /** Set when the key is invalidated while it loads, so the result isn't cached */
+        private volatile boolean invalidated;
+    }
+
+    /**
+     * Weigh a cached result.
+     * @param key The cache key.
+     * @param cachedResult The cached result.
+     * @return The row count for collection results, 1 for anything else.
+     */
+    private static int weigh(Object key, CachedResult cachedResult) {
+        Object value = cachedResult.getValue();
+        if(value instanceof Collection)
+            return Math.max(1, ((Collection<?>) value).size());
+        return 1;
+    }
+}
@@ -0,0 +1,190 @@
+package net.tralfamadore.dbUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Settings for the streaming csv and Arrow exports in {@link CsvUtils}.
+ *
+ * @author wreh
+ */
+public class CsvExportSettings {
+    /**
+     * How to compress the csv output.
+     */
+    public enum Compression {
+        /** Plain csv */
+        NONE,
+        /** Gzip */
+        GZIP,
+        /** Zstandard, which needs com.github.luben:zstd-jni on the classpath */
+        ZSTD;
+
+        /**
+         * Wrap an output stream in a compressing stream.
+         * @param outputStream The stream to write the compressed output to.
+         * @param bufferSize The compressor's buffer size.
+         * @return The compressing stream, or the stream itself for {@link #NONE}.
+         * @throws IOException When the compressing stream can't be created.
+         */
+        OutputStream wrap(OutputStream outputStream, int bufferSize) throws IOException {
+            switch(this) {
+                case GZIP:
+                    return new GZIPOutputStream(outputStream, bufferSize);
+                case ZSTD:
+                    try {
+                        return (OutputStream) Class.forName("com.github.luben.zstd.ZstdOutputStream")
+                                .getConstructor(OutputStream.class).newInstance(outputStream);
+                    } catch (ClassNotFoundException e) {
+                        throw new IllegalStateException("zstd compression needs com.github.luben:zstd-jni on the classpath", e);
+                    } catch (InvocationTargetException e) {
+                        if(e.getCause() instanceof IOException)
+                            throw (IOException) e.getCause();
+                        throw new RuntimeException(e.getCause());
+                    } catch (ReflectiveOperationException e) {
+                        throw new RuntimeException(e);
+                    }
+                default:
+                    return outputStream;
+            }
+        }
+    }
+
+    /** The default output buffer size */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 18;
+    /** The default number of rows per Arrow record batch */
+    public static final int DEFAULT_RECORD_BATCH_SIZE = 1 << 16;
+    /** The jdbc fetch size, or null for the driver appropriate default */
+    private Integer fetchSize;
+    /** The output buffer size in bytes */
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    /** How to compress the output */
+    private Compression compression = Compression.NONE;
+    /** The number of key ranges a parallel export is split into */
+    private int partitions = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    /** Whether a parallel export's part files are concatenated into one file */
+    private boolean mergeParts = true;
+    /** The number of rows per Arrow record batch */
+    private int recordBatchSize = DEFAULT_RECORD_BATCH_SIZE;
+
+    /**
+     * Get the jdbc fetch size.
+     * @return The fetch size, or null for the driver appropriate default.
+     */
+    public Integer getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Set the jdbc fetch size.  If it isn't set, MySQL connections stream one row at a time and other databases use
+     * {@link DatabaseUtils#DEFAULT_FETCH_SIZE}.
+     * @param fetchSize The number of rows to fetch per round trip.
+     * @return The calling object.
+     */
+    public CsvExportSettings fetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * Get the output buffer size.
+     * @return The buffer size in bytes.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Set the output buffer size.  Output is written to the target in chunks of this size.
+     * @param bufferSize The buffer size in bytes.
+     * @return The calling object.
+     */
+    public CsvExportSettings bufferSize(int bufferSize) {
+        if(bufferSize < 1)
+            throw new IllegalArgumentException("bufferSize must be at least 1");
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Get how to compress the output.
+     * @return The compression.
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Set how to compress the output.
+     * @param compression The compression.
+     * @return The calling object.
+     */
+    public CsvExportSettings compression(Compression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Get the number of key ranges a parallel export is split into.
+     * @return The number of partitions.
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Set the number of key ranges a parallel export is split into.  Each range is exported on a thread and
+     * connection of its own.  Defaults to the number of processors, up to 4.
+     * @param partitions The number of partitions.
+     * @return The calling object.
+     */
+    public CsvExportSettings partitions(int partitions) {
+        if(partitions < 1)
+            throw new IllegalArgumentException("partitions must be at least 1");
+        this.partitions = partitions;
+        return this;
+    }
+
+    /**
+     * Check whether a parallel export's part files are concatenated into one file.
+     * @return True to concatenate the parts, false to keep them as a multi-part output.
+     */
+    public boolean isMergeParts() {
+        return mergeParts;
+    }
+
+    /**
+     * Set whether a parallel export's part files are concatenated into one file.  Concatenated gzip and zstd parts
+     * are still a valid compressed file.
+     * @param mergeParts True to concatenate the parts, false to keep them as a multi-part output, each with its own
+     *                   header row.
+     * @return The calling object.
+     */
+    public CsvExportSettings mergeParts(boolean mergeParts) {
+        this.mergeParts = mergeParts;
+        return this;
+    }
+
+    /**
+     * Get the number of rows per Arrow record batch.
+     * @return The record batch size.
+     */
+    public int getRecordBatchSize() {
+        return recordBatchSize;
+    }
+
+    /**
+     * Set the number of rows per Arrow record batch.  Each batch's vectors are held in memory until the batch is
+     * written, so very wide rows call for smaller batches.
+     * @param recordBatchSize The record batch size.
+     * @return The calling object.
+     */
+    public CsvExportSettings recordBatchSize(int recordBatchSize) {
+        if(recordBatchSize < 1)
+            throw new IllegalArgumentException("recordBatchSize must be at least 1");
+        this.recordBatchSize = recordBatchSize;
+        return this;
+    }
+}
@@ -0,0 +1,236 @@
+package net.tralfamadore.dbUtils;
+
+import com.univocity.parsers.csv.CsvParser;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A parallel csv import: the calling thread parses the file into batches of rows and puts them on a bounded queue,
+ * and writer threads, each with a session, connection and transaction of its own, take batches off the queue and
+ * insert them with a {@link CsvInserter}.  When the queue is full the parser waits, so a slow database holds back
+ * parsing instead of filling memory.
+ *
+ * With {@link CsvImportSettings.FailurePolicy#ABORT} the first failure stops the parser and every writer, and no
+ * writer commits: each one waits until all the writers are done and commits only if none of them failed.  Rows
+ * committed earlier because of a commit interval stay in the table.  With
+ * {@link CsvImportSettings.FailurePolicy#SKIP_BATCH} failed batches are rolled back, logged and reported, and the
+ * import carries on.
+ *
+ * @author wreh
+ */
+class CsvImportPipeline {
+    /** Tells a writer there are no more batches */
+    private static final RowBatch END = new RowBatch(Collections.emptyList(), 0);
+    /** Numbers the writer threads across imports */
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+    /** Opens the writers' sessions */
+    private final SessionFactory sessionFactory;
+    /** The table to insert into */
+    private final String tableName;
+    /** The column names, in csv order */
+    private final List<String> columns;
+    /** The import settings */
+    private final CsvImportSettings settings;
+    /** Batches waiting for a writer */
+    private final BlockingQueue<RowBatch> queue;
+    /** The first failure, which aborts the import */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    /** Counted down by each writer when it has no more batches to insert */
+    private final CountDownLatch writersDone;
+
+    /**
+     * Create a new CsvImportPipeline.
+     * @param sessionFactory Opens the writers' sessions.
+     * @param tableName The table to insert into.
+     * @param columns The column names, in csv order.
+     * @param settings The import settings.
+     */
+    CsvImportPipeline(SessionFactory sessionFactory, String tableName, List<String> columns, CsvImportSettings settings) {
+        this.sessionFactory = sessionFactory;
+        this.tableName = tableName;
+        this.columns = columns;
+        this.settings = settings;
+        this.queue = new ArrayBlockingQueue<>(settings.getQueueCapacity());
+        this.writersDone = new CountDownLatch(settings.getWriterThreads());
+    }
+
+    /**
+     * Run the import.
+     * @param firstRow The first data row, already parsed.
+     * @param csvParser The parser, positioned after the first row.
+     * @param start When the import started, from {@link System#nanoTime()}.
+     * @return The combined result of the writers.
+     */
+    CsvImportResult run(String[] firstRow, CsvParser csvParser, long start) {
+        ExecutorService writers = Executors.newFixedThreadPool(settings.getWriterThreads(), r -> {
+            Thread thread = new Thread(r, "dbUtils-csv-writer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<CsvImportResult>> results = new ArrayList<>();
+            for(int i = 0; i < settings.getWriterThreads(); i++)
+                results.add(writers.submit(this::write));
+
+            parse(firstRow, csvParser);
+
+            long rowCount = 0;
+            long batchCount = 0;
+            List<CsvImportResult.BatchError> batchErrors = new ArrayList<>();
+            for(Future<CsvImportResult> future : results) {
+                try {
+                    CsvImportResult result = future.get();
+                    rowCount += result.getRowCount();
+                    batchCount += result.getBatchCount();
+                    batchErrors.addAll(result.getBatchErrors());
+                } catch (ExecutionException e) {
+                    failure.compareAndSet(null, e.getCause());
+                }
+            }
+            if(failure.get() != null)
+                throw new RuntimeException("Csv import into " + tableName + " failed", failure.get());
+            batchErrors.sort(Comparator.comparingLong(CsvImportResult.BatchError::getFirstRow));
+            return new CsvImportResult(rowCount, batchCount, System.nanoTime() - start, batchErrors);
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            writers.shutdownNow();
+        }
+    }
+
+    /**
+     * Parse the rows into batches and queue them, then queue an end marker for each writer.  Stops early if the
+     * import fails.
+     * @param firstRow The first data row, already parsed.
+     * @param csvParser The parser, positioned after the first row.
+     * @throws InterruptedException When interrupted while waiting for room on the queue.
+     */
+    private void parse(String[] firstRow, CsvParser csvParser) throws InterruptedException {
+        List<Object[]> rows = new ArrayList<>(settings.getBatchSize());
+        long rowNumber = 1;
+        try {
+            for(String[] row = firstRow; row != null && failure.get() == null; row = csvParser.parseNext()) {
+                rows.add(row);
+                if(rows.size() == settings.getBatchSize()) {
+                    put(new RowBatch(rows, rowNumber));
+                    rowNumber += rows.size();
+                    rows = new ArrayList<>(settings.getBatchSize());
+                }
+            }
+            if(!rows.isEmpty())
+                put(new RowBatch(rows, rowNumber));
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+        for(int i = 0; i < settings.getWriterThreads(); i++)
+            put(END);
+    }
+
+    /**
+     * Put a batch on the queue, waiting for room unless the import has failed.
+     * @param batch The batch.
+     * @throws InterruptedException When interrupted while waiting.
+     */
+    private void put(RowBatch batch) throws InterruptedException {
+        while(!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if(failure.get() != null && batch != END)
+                return;
+        }
+    }
+
+    /**
+     * A writer: insert batches from the queue until the end marker, then commit if the import hasn't failed.
+     * @return The writer's result.
+     */
+    private CsvImportResult write() {
+        Session session = sessionFactory.openSession();
+        AtomicBoolean ended = new AtomicBoolean();
+        boolean done = false;
+        try {
+            session.beginTransaction();
+            CsvImportResult result = session.doReturningWork(connection -> {
+                try(CsvInserter inserter = new CsvInserter(connection, tableName, columns, settings)) {
+                    for(RowBatch batch = queue.take(); batch != END; batch = queue.take()) {
+                        if(failure.get() == null)
+                            inserter.insertBatch(batch.rows, batch.firstRow);
+                    }
+                    ended.set(true);
+                    return inserter.result(0);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            });
+            writersDone.countDown();
+            done = true;
+            writersDone.await();
+            if(failure.get() == null)
+                session.getTransaction().commit();
+            return result;
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+            if(!ended.get())
+                drain();
+            throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+        } finally {
+            if(!done)
+                writersDone.countDown();
+            if(session.getTransaction().isActive())
+                session.getTransaction().rollback();
+            session.close();
+        }
+    }
+
+    /**
+     * After a writer fails before its end marker, keep taking batches off the queue until the end marker, so the
+     * parser is never left waiting for room.  A writer that fails later, closing its inserter or committing, has
+     * already taken its end marker and mustn't wait for another.
+     */
+    private void drain() {
+        try {
+            //noinspection StatementWithEmptyBody
+            while(queue.take() != END) {
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A batch of parsed rows.
+     */
+    private static class RowBatch {
+        /** The rows */
+        private final List<Object[]> rows;
+        /** The number of the first row in the file, starting at 1 */
+        private final long firstRow;
+
+        /**
+         * Create a new RowBatch.
+         * @param rows The rows.
+         * @param firstRow The number of the first row in the file, starting at 1.
+         */
+        RowBatch(List<Object[]> rows, long firstRow) {
+            this.rows = rows;
+            this.firstRow = firstRow;
+        }
+    }
+}
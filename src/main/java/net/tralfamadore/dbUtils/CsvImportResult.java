@@ -0,0 +1,152 @@
+package net.tralfamadore.dbUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a csv import: how many rows were inserted, in how many batches, how long it took, and which
+ * batches failed.
+ *
+ * @author wreh
+ */
+public class CsvImportResult {
+    /** The number of rows inserted */
+    private final long rowCount;
+    /** The number of batches executed, including failed ones */
+    private final long batchCount;
+    /** The elapsed time in nanoseconds */
+    private final long elapsedNanos;
+    /** The batches that failed */
+    private final List<BatchError> batchErrors;
+
+    /**
+     * Create a new CsvImportResult.
+     * @param rowCount The number of rows inserted.
+     * @param batchCount The number of batches executed, including failed ones.
+     * @param elapsedNanos The elapsed time in nanoseconds.
+     * @param batchErrors The batches that failed.
+     */
+    public CsvImportResult(long rowCount, long batchCount, long elapsedNanos, List<BatchError> batchErrors) {
+        this.rowCount = rowCount;
+        this.batchCount = batchCount;
+        this.elapsedNanos = elapsedNanos;
+        this.batchErrors = Collections.unmodifiableList(batchErrors);
+    }
+
+    /**
+     * Get the number of rows inserted.
+     * @return The row count.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the number of batches executed, including failed ones.
+     * @return The batch count.
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Get the elapsed time.
+     * @param timeUnit The time unit to return.
+     * @return The elapsed time.
+     */
+    public long getElapsed(TimeUnit timeUnit) {
+        return timeUnit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the throughput.
+     * @return The number of rows inserted per second.
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rowCount * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * Get the batches that failed.
+     * @return The batch errors, empty if every batch succeeded.
+     */
+    public List<BatchError> getBatchErrors() {
+        return batchErrors;
+    }
+
+    /**
+     * See {@link Object#toString()}
+     * @return String representation of the import result.
+     */
+    @Override
+    public String toString() {
+        return "CsvImportResult{" +
+                "rowCount=" + rowCount +
+                ", batchCount=" + batchCount +
+                ", elapsedMillis=" + getElapsed(TimeUnit.MILLISECONDS) +
+                ", rowsPerSecond=" + String.format("%.1f", getRowsPerSecond()) +
+                ", batchErrors=" + batchErrors.size() +
+                '}';
+    }
+
+    /**
+     * A batch of rows that failed to insert.
+     */
+    public static class BatchError {
+        /** The number of the batch's first data row in the file, starting at 1 */
+        private final long firstRow;
+        /** The number of rows in the batch */
+        private final int rowCount;
+        /** Why the batch failed */
+        private final Exception cause;
+
+        /**
+         * Create a new BatchError.
+         * @param firstRow The number of the batch's first data row in the file, starting at 1.
+         * @param rowCount The number of rows in the batch.
+         * @param cause Why the batch failed.
+         */
+        public BatchError(long firstRow, int rowCount, Exception cause) {
+            this.firstRow = firstRow;
+            this.rowCount = rowCount;
+            this.cause = cause;
+        }
+
+        /**
+         * Get the number of the batch's first data row in the file.
+         * @return The first row number, starting at 1.
+         */
+        public long getFirstRow() {
+            return firstRow;
+        }
+
+        /**
+         * Get the number of rows in the batch.
+         * @return The row count.
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Get why the batch failed.
+         * @return The exception.
+         */
+        public Exception getCause() {
+            return cause;
+        }
+
+        /**
+         * See {@link Object#toString()}
+         * @return String representation of the batch error.
+         */
+        @Override
+        public String toString() {
+            return "BatchError{" +
+                    "rows=" + firstRow + "-" + (firstRow + rowCount - 1) +
+                    ", cause=" + cause +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package net.tralfamadore.dbUtils;
+
+/**
+ * Settings for {@link CsvUtils#insertFromCsv(String, java.io.File, java.util.List, CsvImportSettings)} and
+ * {@link CsvUtils#insertFromCsvParallel(String, java.io.File, java.util.List, CsvImportSettings)}.
+ *
+ * @author wreh
+ */
+public class CsvImportSettings {
+    /**
+     * What to do when a batch of rows fails to insert.
+     */
+    public enum FailurePolicy {
+        /** Stop the import and throw */
+        ABORT,
+        /** Roll the batch back, record it in the result and carry on with the next batch */
+        SKIP_BATCH
+    }
+
+    /** The default number of rows per jdbc batch */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    /** The number of rows per jdbc batch */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    /** The number of rows per insert statement */
+    private int rowsPerStatement = 1;
+    /** Commit every this many rows, or 0 to leave committing to the caller's transaction */
+    private int commitInterval = 0;
+    /** What to do when a batch fails */
+    private FailurePolicy failurePolicy = FailurePolicy.ABORT;
+    /** The number of writer threads for parallel imports */
+    private int writerThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    /** The number of parsed batches that can wait for a writer, or 0 for twice the writer threads */
+    private int queueCapacity = 0;
+
+    /**
+     * Get the number of rows per jdbc batch.
+     * @return The batch size.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of rows per jdbc batch.
+     * @param batchSize The batch size.
+     * @return The calling object.
+     */
+    public CsvImportSettings batchSize(int batchSize) {
+        if(batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Get the number of rows per insert statement.
+     * @return The rows per statement.
+     */
+    public int getRowsPerStatement() {
+        return rowsPerStatement;
+    }
+
+    /**
+     * Set the number of rows per insert statement.  More than 1 rewrites the insert to a multi-row
+     * <code>values (...), (...)</code> list, which cuts round trips on drivers that don't rewrite batches themselves.
+     * @param rowsPerStatement The rows per statement.
+     * @return The calling object.
+     */
+    public CsvImportSettings rowsPerStatement(int rowsPerStatement) {
+        if(rowsPerStatement < 1)
+            throw new IllegalArgumentException("rowsPerStatement must be at least 1");
+        this.rowsPerStatement = rowsPerStatement;
+        return this;
+    }
+
+    /**
+     * Get the number of rows between commits.
+     * @return The commit interval, or 0 if the import doesn't commit.
+     */
+    public int getCommitInterval() {
+        return commitInterval;
+    }
+
+    /**
+     * Commit every <code>commitInterval</code> rows (rounded up to a whole batch), so a long import doesn't hold
+     * one huge transaction.  Rows committed this way stay in the table if the import later fails.
+     * @param commitInterval The commit interval, or 0 to leave committing to the caller's transaction.
+     * @return The calling object.
+     */
+    public CsvImportSettings commitInterval(int commitInterval) {
+        if(commitInterval < 0)
+            throw new IllegalArgumentException("commitInterval can't be negative");
+        this.commitInterval = commitInterval;
+        return this;
+    }
+
+    /**
+     * Get what to do when a batch fails.
+     * @return The failure policy.
+     */
+    public FailurePolicy getFailurePolicy() {
+        return failurePolicy;
+    }
+
+    /**
+     * Set what to do when a batch fails.
+     * @param failurePolicy The failure policy.
+     * @return The calling object.
+     */
+    public CsvImportSettings failurePolicy(FailurePolicy failurePolicy) {
+        this.failurePolicy = failurePolicy;
+        return this;
+    }
+
+    /**
+     * Get the number of writer threads for parallel imports.
+     * @return The number of writer threads.
+     */
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    /**
+     * Set the number of writer threads for parallel imports.  Each writer uses a connection and transaction of its
+     * own.  Defaults to the number of processors, up to 4.
+     * @param writerThreads The number of writer threads.
+     * @return The calling object.
+     */
+    public CsvImportSettings writerThreads(int writerThreads) {
+        if(writerThreads < 1)
+            throw new IllegalArgumentException("writerThreads must be at least 1");
+        this.writerThreads = writerThreads;
+        return this;
+    }
+
+    /**
+     * Get the number of parsed batches that can wait for a writer in a parallel import.
+     * @return The queue capacity.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity > 0 ? queueCapacity : 2 * writerThreads;
+    }
+
+    /**
+     * Set the number of parsed batches that can wait for a writer in a parallel import.  When the queue is full the
+     * parser waits, so memory use is bounded by roughly (queue capacity + writer threads) batches.
+     * @param queueCapacity The queue capacity, or 0 for twice the number of writer threads.
+     * @return The calling object.
+     */
+    public CsvImportSettings queueCapacity(int queueCapacity) {
+        if(queueCapacity < 0)
+            throw new IllegalArgumentException("queueCapacity can't be negative");
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+}
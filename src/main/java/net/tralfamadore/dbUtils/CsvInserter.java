@@ -0,0 +1,235 @@
+package net.tralfamadore.dbUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Inserts csv rows into a table in jdbc batches on one connection.
+ *
+ * The insert statements are prepared once, from the column list, and reused for every batch.  With more than one
+ * row per statement, full groups of rows go through a multi-row insert and any remainder through the single row
+ * insert.  Batches that fail are handled according to the {@link CsvImportSettings.FailurePolicy}: skipped batches
+ * are rolled back to a savepoint (when the connection isn't in auto commit mode) and recorded.  In auto commit mode
+ * there is nothing to roll back to and the multi-row part of a batch is committed before the remainder runs, so the
+ * two parts are inserted, counted and skipped separately.
+ *
+ * @author wreh
+ */
+class CsvInserter implements AutoCloseable {
+    /** The logger, for skipped batches */
+    private static final Logger logger = Logger.getLogger(CsvInserter.class.getName());
+    /** The connection */
+    private final Connection connection;
+    /** The import settings */
+    private final CsvImportSettings settings;
+    /** The number of columns per row */
+    private final int columnCount;
+    /** The single row insert */
+    private final PreparedStatement statement;
+    /** The multi-row insert, or null if there is one row per statement */
+    private final PreparedStatement multiRowStatement;
+    /** Rows added but not yet inserted */
+    private final List<Object[]> pending = new ArrayList<>();
+    /** The number of rows added */
+    private long rowsAdded;
+    /** The number of rows inserted */
+    private long rowsInserted;
+    /** The number of batches executed */
+    private long batchCount;
+    /** The number of rows inserted since the last commit */
+    private long rowsSinceCommit;
+    /** The batches that failed */
+    private final List<CsvImportResult.BatchError> batchErrors = new ArrayList<>();
+
+    /**
+     * Create a new CsvInserter.
+     * @param connection The connection.
+     * @param tableName The table to insert into.
+     * @param columns The column names, in csv order.
+     * @param settings The import settings.
+     * @throws SQLException When the statements can't be prepared.
+     */
+    CsvInserter(Connection connection, String tableName, List<String> columns, CsvImportSettings settings)
+            throws SQLException {
+        this.connection = connection;
+        this.settings = settings;
+        this.columnCount = columns.size();
+        this.statement = connection.prepareStatement(insertSql(tableName, columns, 1));
+        try {
+            this.multiRowStatement = settings.getRowsPerStatement() > 1 ?
+                    connection.prepareStatement(insertSql(tableName, columns, settings.getRowsPerStatement())) : null;
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Build an insert statement.
+     * @param tableName The table to insert into.
+     * @param columns The column names.
+     * @param rows The number of rows in the values list.
+     * @return The sql.
+     */
+    static String insertSql(String tableName, List<String> columns, int rows) {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("insert into ").append(tableName).append("(");
+        stringBuilder.append(String.join(", ", columns));
+        stringBuilder.append(") values ");
+        for(int row = 0; row < rows; row++) {
+            if(row > 0)
+                stringBuilder.append(", ");
+            stringBuilder.append("(");
+            for (int i = 0; i < columns.size() - 1; i++)
+                stringBuilder.append("?,");
+            stringBuilder.append("?)");
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Add a row, inserting the pending rows once there is a full batch.
+     * @param row The column values.  Missing trailing values are inserted as null.
+     * @throws SQLException When a batch fails and the failure policy is to abort.
+     */
+    void add(Object[] row) throws SQLException {
+        pending.add(row);
+        rowsAdded++;
+        if(pending.size() >= settings.getBatchSize())
+            flush();
+    }
+
+    /**
+     * Insert the pending rows.
+     * @throws SQLException When the batch fails and the failure policy is to abort.
+     */
+    void flush() throws SQLException {
+        if(pending.isEmpty())
+            return;
+        try {
+            insertBatch(pending, rowsAdded - pending.size() + 1);
+        } finally {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Insert a batch of rows, then commit if the commit interval has been reached.
+     * @param rows The rows.
+     * @param firstRow The number of the first row in the file, for error reporting.
+     * @throws SQLException When the batch fails and the failure policy is to abort.
+     */
+    void insertBatch(List<Object[]> rows, long firstRow) throws SQLException {
+        boolean skip = settings.getFailurePolicy() == CsvImportSettings.FailurePolicy.SKIP_BATCH;
+        int split = multiRowStatement != null ? rows.size() - rows.size() % settings.getRowsPerStatement() : 0;
+        batchCount++;
+        if(skip && split > 0 && split < rows.size() && connection.getAutoCommit()) {
+            insertRows(rows.subList(0, split), firstRow, true);
+            insertRows(rows.subList(split, rows.size()), firstRow + split, true);
+        } else {
+            insertRows(rows, firstRow, skip);
+        }
+        if(settings.getCommitInterval() > 0 && rowsSinceCommit >= settings.getCommitInterval() &&
+                !connection.getAutoCommit()) {
+            connection.commit();
+            rowsSinceCommit = 0;
+        }
+    }
+
+    /**
+     * Insert rows, rolling them back to a savepoint and recording them if they fail and are to be skipped.
+     * @param rows The rows.
+     * @param firstRow The number of the first row in the file, for error reporting.
+     * @param skip True to skip the rows if they fail, false to throw.
+     * @throws SQLException When the rows fail and aren't to be skipped.
+     */
+    private void insertRows(List<Object[]> rows, long firstRow, boolean skip) throws SQLException {
+        Savepoint savepoint = skip && !connection.getAutoCommit() ? connection.setSavepoint() : null;
+        try {
+            executeBatch(rows);
+        } catch (SQLException e) {
+            statement.clearBatch();
+            if(multiRowStatement != null)
+                multiRowStatement.clearBatch();
+            if(!skip)
+                throw new SQLException("Insert of rows " + firstRow + "-" + (firstRow + rows.size() - 1) + " failed", e);
+            if(savepoint != null)
+                connection.rollback(savepoint);
+            CsvImportResult.BatchError batchError = new CsvImportResult.BatchError(firstRow, rows.size(), e);
+            logger.log(Level.WARNING, "Skipped csv " + batchError, e);
+            batchErrors.add(batchError);
+            return;
+        }
+        if(savepoint != null)
+            connection.releaseSavepoint(savepoint);
+        rowsInserted += rows.size();
+        rowsSinceCommit += rows.size();
+    }
+
+    /**
+     * Bind and execute the rows as jdbc batches.
+     * @param rows The rows.
+     * @throws SQLException On a jdbc error.
+     */
+    private void executeBatch(List<Object[]> rows) throws SQLException {
+        int i = 0;
+        if(multiRowStatement != null) {
+            int rowsPerStatement = settings.getRowsPerStatement();
+            for(; i + rowsPerStatement <= rows.size(); i += rowsPerStatement) {
+                for(int row = 0; row < rowsPerStatement; row++)
+                    bind(multiRowStatement, rows.get(i + row), row * columnCount);
+                multiRowStatement.addBatch();
+            }
+            if(i > 0)
+                multiRowStatement.executeBatch();
+        }
+        if(i < rows.size()) {
+            for(; i < rows.size(); i++) {
+                bind(statement, rows.get(i), 0);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Bind a row's values.
+     * @param preparedStatement The statement.
+     * @param row The column values.
+     * @param offset The number of parameters before the row's.
+     * @throws SQLException On a jdbc error.
+     */
+    private void bind(PreparedStatement preparedStatement, Object[] row, int offset) throws SQLException {
+        for(int column = 0; column < columnCount; column++)
+            preparedStatement.setObject(offset + column + 1, column < row.length ? row[column] : null);
+    }
+
+    /**
+     * Get the outcome so far.
+     * @param elapsedNanos The elapsed time in nanoseconds.
+     * @return The import result.
+     */
+    CsvImportResult result(long elapsedNanos) {
+        return new CsvImportResult(rowsInserted, batchCount, elapsedNanos, new ArrayList<>(batchErrors));
+    }
+
+    /**
+     * Close the statements.  Pending rows are not inserted; call {@link #flush()} first.
+     * @throws SQLException On a jdbc error.
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            statement.close();
+        } finally {
+            if(multiRowStatement != null)
+                multiRowStatement.close();
+        }
+    }
+}
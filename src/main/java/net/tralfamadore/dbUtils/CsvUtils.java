@@ -1,26 +1,46 @@
 package net.tralfamadore.dbUtils;
 
-import com.univocity.parsers.common.ParsingContext;
-import com.univocity.parsers.common.processor.ObjectRowProcessor;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 import com.univocity.parsers.csv.CsvWriter;
 import com.univocity.parsers.csv.CsvWriterSettings;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class: CsvUtils
@@ -30,6 +50,11 @@ import java.util.List;
  */
 @Repository
 public class CsvUtils {
+    /**
+     * Numbers the parallel export threads
+     */
+    private static final AtomicInteger exporterNumber = new AtomicInteger();
+
     /**
      * The entity manager
      */
@@ -65,59 +90,337 @@ public class CsvUtils {
      */
     @Transactional
     public File csvFromQuery(String query, List<Object> bindVars, String fileName, List<ColumnNameProcessor> columnNameProcessors) {
+        File file = new File(fileName);
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            csvFromQuery(query, bindVars, channel, columnNameProcessors, new CsvExportSettings());
+            return file;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stream the results of a query as csv to a channel.  The channel is written to but not closed.
+     *
+     * @param query                The query to execute.
+     * @param bindVars             The bind variables for the query.
+     * @param channel              The channel to write to.
+     * @param columnNameProcessors Processors that turn the column names into csv headers.
+     * @param settings             The fetch size, buffer size and compression.
+     * @return The number of rows written.
+     */
+    @Transactional
+    public long csvFromQuery(String query, List<Object> bindVars, WritableByteChannel channel,
+                             List<ColumnNameProcessor> columnNameProcessors, CsvExportSettings settings) {
+        return csvFromQuery(query, bindVars, Channels.newOutputStream(channel), columnNameProcessors, settings);
+    }
+
+    /**
+     * Stream the results of a query as csv to an output stream.  Rows are fetched with the settings' fetch size
+     * (by default row by row on MySQL, so the driver doesn't buffer the whole result) and written as they arrive.
+     * The stream is written to but not closed.
+     *
+     * @param query                The query to execute.
+     * @param bindVars             The bind variables for the query.
+     * @param outputStream         The stream to write to.
+     * @param columnNameProcessors Processors that turn the column names into csv headers.
+     * @param settings             The fetch size, buffer size and compression.
+     * @return The number of rows written.
+     */
+    @Transactional
+    public long csvFromQuery(String query, List<Object> bindVars, OutputStream outputStream,
+                             List<ColumnNameProcessor> columnNameProcessors, CsvExportSettings settings) {
+        return streamQuery(query, bindVars, settings, resultSet ->
+                csvFromResultSet(resultSet, outputStream, columnNameProcessors, settings));
+    }
+
+    /**
+     * Create an Apache Arrow IPC file from the results of a query.  Arrow is an optional dependency:
+     * org.apache.arrow:arrow-vector and arrow-memory-netty must be on the classpath.
+     *
+     * @param query                The query to execute.
+     * @param bindVars             The bind variables for the query.
+     * @param fileName             The file to write to.
+     * @param columnNameProcessors Processors that turn the column names into field names.
+     * @param settings             The fetch size and record batch size.
+     * @return The Arrow file.
+     */
+    @Transactional
+    public File arrowFromQuery(String query, List<Object> bindVars, String fileName,
+                               List<ColumnNameProcessor> columnNameProcessors, CsvExportSettings settings) {
+        File file = new File(fileName);
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            arrowFromQuery(query, bindVars, channel, columnNameProcessors, settings);
+            return file;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stream the results of a query to a channel as an Apache Arrow IPC file.  Rows are fetched as for
+     * {@link #csvFromQuery(String, List, OutputStream, List, CsvExportSettings)}, and written column by column into
+     * typed vectors, one record batch at a time.  The channel is written to but not closed.
+     *
+     * @param query                The query to execute.
+     * @param bindVars             The bind variables for the query.
+     * @param channel              The channel to write to.
+     * @param columnNameProcessors Processors that turn the column names into field names.
+     * @param settings             The fetch size and record batch size.
+     * @return The number of rows written.
+     */
+    @Transactional
+    public long arrowFromQuery(String query, List<Object> bindVars, WritableByteChannel channel,
+                               List<ColumnNameProcessor> columnNameProcessors, CsvExportSettings settings) {
+        requireArrow();
+        return streamQuery(query, bindVars, settings, resultSet ->
+                arrowFromResultSet(resultSet, channel, columnNameProcessors, settings));
+    }
+
+    /**
+     * Run a query on a forward only statement with the settings' fetch size, and pass the result set to a callback.
+     *
+     * @param query    The query to execute.
+     * @param bindVars The bind variables for the query.
+     * @param settings The fetch size.
+     * @param callback Writes the result set.
+     * @param <T>      The callback's return type.
+     * @return The callback's return value.
+     */
+    private <T> T streamQuery(String query, List<Object> bindVars, CsvExportSettings settings,
+                              ResultSetCallback<T> callback) {
         Session session = em.unwrap(Session.class);
 
         return session.doReturningWork(connection -> {
-            PreparedStatement statement = connection.prepareStatement(query);
-            int i = 1;
-            for (Object var : bindVars)
-                statement.setObject(i++, var);
-            ResultSet resultSet = statement.executeQuery();
-            return csvFromResultSet(resultSet, fileName, columnNameProcessors);
+            try(PreparedStatement statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(settings.getFetchSize() != null ? settings.getFetchSize() :
+                        DatabaseUtils.streamingFetchSize(connection));
+                int i = 1;
+                for (Object var : bindVars)
+                    statement.setObject(i++, var);
+                try(ResultSet resultSet = statement.executeQuery()) {
+                    return callback.apply(resultSet);
+                }
+            }
         });
     }
 
+    /**
+     * Insert the rows of a csv file into a table, in batches of {@link CsvImportSettings#DEFAULT_BATCH_SIZE} rows.
+     * The header row, run through the column name processors, gives the column names.
+     *
+     * @param tableName            The table to insert into.
+     * @param csvFile              The csv file.
+     * @param columnNameProcessors Processors that turn the csv headers into column names.
+     * @return The number of rows inserted, the throughput and any failed batches.
+     */
+    @Transactional
+    public CsvImportResult insertFromCsv(String tableName, File csvFile, List<ColumnNameProcessor> columnNameProcessors) {
+        return insertFromCsv(tableName, csvFile, columnNameProcessors, new CsvImportSettings());
+    }
+
+    /**
+     * Insert the rows of a csv file into a table.  The insert statement is built once from the header row (run
+     * through the column name processors) and executed in jdbc batches as the file is parsed.
+     *
+     * @param tableName            The table to insert into.
+     * @param csvFile              The csv file.
+     * @param columnNameProcessors Processors that turn the csv headers into column names.
+     * @param settings             The batch size, rows per statement, commit interval and failure policy.
+     * @return The number of rows inserted, the throughput and any failed batches.
+     */
     @Transactional
-    public void insertFromCsv(String tableName, File csvFile, List<ColumnNameProcessor> columnNameProcessors) {
+    public CsvImportResult insertFromCsv(String tableName, File csvFile, List<ColumnNameProcessor> columnNameProcessors,
+                                         CsvImportSettings settings) {
         Session session = em.unwrap(Session.class);
 
-        session.doWork(connection -> {
-            ObjectRowProcessor rowProcessor = new ObjectRowProcessor() {
-                @Override
-                public void rowProcessed(Object[] row, ParsingContext context) {
-                    String[] headers = context.headers();
-                    List<String> translatedHeaders = new ArrayList<>();
-                    for(String header : headers) {
-                        header = processColumnName(header, columnNameProcessors);
-                        translatedHeaders.add(header);
-                    }
-                    StringBuilder stringBuilder = new StringBuilder();
-                    stringBuilder.append("insert into ").append(tableName).append("(");
-                    stringBuilder.append(String.join(", ", translatedHeaders));
-                    stringBuilder.append(") values (");
-                    for (int i = 0; i < headers.length - 1; i++)
-                        stringBuilder.append("?,");
-                    stringBuilder.append("?)");
-                    try {
-                        PreparedStatement statement = connection.prepareStatement(stringBuilder.toString());
-                        int i = 1;
-                        for (Object column : row) {
-                            statement.setObject(i++, column);
-                        }
-                        statement.executeUpdate();
-                    } catch (SQLException e) {
-                        throw new RuntimeException(e);
-                    }
+        return session.doReturningWork(connection ->
+                insertRows(connection, tableName, csvFile, columnNameProcessors, settings));
+    }
+
+    /**
+     * Load a csv file into a table as fast as the database allows.  On MySQL the file is streamed to the server with
+     * <code>LOAD DATA LOCAL INFILE</code> (the connection must allow local infile, which Connector/J 5.1 does by
+     * default); the header row, run through the column name processors, gives the column list, and empty fields are
+     * loaded as NULL, as the insert path does.  On other databases, or if the driver's statement can't be unwrapped,
+     * the rows are inserted in batches as by {@link #insertFromCsv(String, File, List, CsvImportSettings)}.
+     *
+     * The file is expected to be UTF-8 with the default csv format: comma separated, double quote enclosed, quotes
+     * escaped by doubling them.
+     *
+     * @param tableName            The table to load into.
+     * @param csvFile              The csv file.
+     * @param columnNameProcessors Processors that turn the csv headers into column names.
+     * @param settings             The settings for the batched insert fallback.
+     * @return The number of rows loaded and the throughput.
+     */
+    @Transactional
+    public CsvImportResult loadFromCsv(String tableName, File csvFile, List<ColumnNameProcessor> columnNameProcessors,
+                                       CsvImportSettings settings) {
+        Session session = em.unwrap(Session.class);
+
+        return session.doReturningWork(connection -> {
+            if(!"MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName()))
+                return insertRows(connection, tableName, csvFile, columnNameProcessors, settings);
+            try(Statement statement = connection.createStatement()) {
+                if(!statement.isWrapperFor(com.mysql.jdbc.Statement.class))
+                    return insertRows(connection, tableName, csvFile, columnNameProcessors, settings);
+
+                long start = System.nanoTime();
+                CsvParser csvParser = new CsvParser(csvParserSettings());
+                csvParser.beginParsing(csvFile);
+                String[] headers;
+                try {
+                    if(csvParser.parseNext() == null)
+                        return new CsvImportResult(0, 0, System.nanoTime() - start, new ArrayList<>());
+                    headers = csvParser.getContext().headers();
+                } finally {
+                    csvParser.stopParsing();
+                }
+                String sql = loadDataSql(tableName, columnNames(headers, columnNameProcessors), lineSeparator(csvFile));
+                try(InputStream inputStream = new BufferedInputStream(new FileInputStream(csvFile), 1 << 16)) {
+                    statement.unwrap(com.mysql.jdbc.Statement.class).setLocalInfileInputStream(inputStream);
+                    long rowCount = statement.executeUpdate(sql);
+                    return new CsvImportResult(rowCount, 1, System.nanoTime() - start, new ArrayList<>());
                 }
-            };
-            CsvParserSettings csvParserSettings = new CsvParserSettings();
-            csvParserSettings.setProcessor(rowProcessor);
-            csvParserSettings.setHeaderExtractionEnabled(true);
-            CsvParser csvParser = new CsvParser(csvParserSettings);
-            csvParser.parse(csvFile);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         });
     }
 
+    /**
+     * Build a <code>LOAD DATA LOCAL INFILE</code> statement for a csv file with a header row.  Each field is read
+     * into a user variable so empty fields can be loaded as NULL.
+     *
+     * @param tableName     The table to load into.
+     * @param columns       The column names, in csv order.
+     * @param lineSeparator The file's line separator.
+     * @return The sql.
+     */
+    static String loadDataSql(String tableName, List<String> columns, String lineSeparator) {
+        List<String> variables = new ArrayList<>();
+        List<String> assignments = new ArrayList<>();
+        for(int i = 0; i < columns.size(); i++) {
+            variables.add("@v" + i);
+            assignments.add(columns.get(i) + " = nullif(@v" + i + ", '')");
+        }
+        return "load data local infile 'csv' into table " + tableName + " character set utf8mb4" +
+                " fields terminated by ',' optionally enclosed by '\"' escaped by ''" +
+                " lines terminated by '" + lineSeparator.replace("\r", "\\r").replace("\n", "\\n") + "'" +
+                " ignore 1 lines (" + String.join(", ", variables) + ") set " + String.join(", ", assignments);
+    }
+
+    /**
+     * Find the line separator of a file from its first line.
+     *
+     * @param file The file.
+     * @return "\r\n" if the first line ends with it, otherwise "\n".
+     * @throws IOException When the file can't be read.
+     */
+    private static String lineSeparator(File file) throws IOException {
+        try(InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            int previous = -1;
+            for(int b = inputStream.read(); b != -1; b = inputStream.read()) {
+                if(b == '\n')
+                    return previous == '\r' ? "\r\n" : "\n";
+                previous = b;
+            }
+            return "\n";
+        }
+    }
+
+    /**
+     * Insert the rows of a csv file in batches on a connection.
+     *
+     * @param connection           The connection.
+     * @param tableName            The table to insert into.
+     * @param csvFile              The csv file.
+     * @param columnNameProcessors Processors that turn the csv headers into column names.
+     * @param settings             The import settings.
+     * @return The number of rows inserted, the throughput and any failed batches.
+     * @throws SQLException When a batch fails and the failure policy is to abort.
+     */
+    private CsvImportResult insertRows(Connection connection, String tableName, File csvFile,
+                                       List<ColumnNameProcessor> columnNameProcessors, CsvImportSettings settings)
+            throws SQLException {
+        long start = System.nanoTime();
+        CsvParser csvParser = new CsvParser(csvParserSettings());
+        csvParser.beginParsing(csvFile);
+        try {
+            String[] row = csvParser.parseNext();
+            if(row == null)
+                return new CsvImportResult(0, 0, System.nanoTime() - start, new ArrayList<>());
+            List<String> columns = columnNames(csvParser.getContext().headers(), columnNameProcessors);
+            try(CsvInserter inserter = new CsvInserter(connection, tableName, columns, settings)) {
+                for(; row != null; row = csvParser.parseNext())
+                    inserter.add(row);
+                inserter.flush();
+                return inserter.result(System.nanoTime() - start);
+            }
+        } finally {
+            csvParser.stopParsing();
+        }
+    }
+
+    /**
+     * Insert the rows of a csv file into a table on several threads.  This thread parses the file into batches and
+     * queues them for {@link CsvImportSettings#getWriterThreads()} writers, each inserting on a connection and
+     * transaction of its own, so parsing and inserting overlap.  The writers' transactions are separate from any
+     * transaction the caller has; see {@link CsvImportSettings.FailurePolicy} for what happens when a batch fails.
+     *
+     * @param tableName            The table to insert into.
+     * @param csvFile              The csv file.
+     * @param columnNameProcessors Processors that turn the csv headers into column names.
+     * @param settings             The batch size, writer threads, queue capacity, commit interval and failure policy.
+     * @return The number of rows inserted, the throughput and any failed batches.
+     */
+    public CsvImportResult insertFromCsvParallel(String tableName, File csvFile,
+                                                 List<ColumnNameProcessor> columnNameProcessors,
+                                                 CsvImportSettings settings) {
+        SessionFactory sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactory.class);
+        long start = System.nanoTime();
+        CsvParser csvParser = new CsvParser(csvParserSettings());
+        csvParser.beginParsing(csvFile);
+        try {
+            String[] row = csvParser.parseNext();
+            if(row == null)
+                return new CsvImportResult(0, 0, System.nanoTime() - start, new ArrayList<>());
+            List<String> columns = columnNames(csvParser.getContext().headers(), columnNameProcessors);
+            return new CsvImportPipeline(sessionFactory, tableName, columns, settings).run(row, csvParser, start);
+        } finally {
+            csvParser.stopParsing();
+        }
+    }
+
+    /**
+     * Get the csv parser settings for imports.
+     *
+     * @return Settings that take the column names from the header row.
+     */
+    private static CsvParserSettings csvParserSettings() {
+        CsvParserSettings csvParserSettings = new CsvParserSettings();
+        csvParserSettings.setHeaderExtractionEnabled(true);
+        return csvParserSettings;
+    }
+
+    /**
+     * Turn csv headers into column names.
+     *
+     * @param headers              The csv headers.
+     * @param columnNameProcessors Processors that turn the csv headers into column names.
+     * @return The column names.
+     */
+    private List<String> columnNames(String[] headers, List<ColumnNameProcessor> columnNameProcessors) {
+        List<String> translatedHeaders = new ArrayList<>();
+        for(String header : headers)
+            translatedHeaders.add(processColumnName(header, columnNameProcessors));
+        return translatedHeaders;
+    }
+
     private String processColumnName(String header, List<ColumnNameProcessor> columnNameProcessors) {
         for(ColumnNameProcessor columnNameProcessor : columnNameProcessors) {
             if(columnNameProcessor instanceof ExtendedColumnNameProcessor) {
@@ -143,37 +446,278 @@ public class CsvUtils {
      */
     public File csvFromResultSet(ResultSet resultSet, String fileName, List<ColumnNameProcessor> columnNameProcessors) {
         File file = new File(fileName);
-        FileWriter fileWriter = null;
-        CsvWriter csvWriter = null;
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            csvFromResultSet(resultSet, channel, columnNameProcessors, new CsvExportSettings());
+            return file;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write a result set as csv to a channel.  The channel is written to but not closed.
+     *
+     * @param resultSet            The result set.
+     * @param channel              The channel to write to.
+     * @param columnNameProcessors Processors that turn the column names into csv headers.
+     * @param settings             The buffer size and compression.
+     * @return The number of rows written.
+     */
+    public long csvFromResultSet(ResultSet resultSet, WritableByteChannel channel,
+                                 List<ColumnNameProcessor> columnNameProcessors, CsvExportSettings settings) {
+        return csvFromResultSet(resultSet, Channels.newOutputStream(channel), columnNameProcessors, settings);
+    }
+
+    /**
+     * Write a result set as csv to an output stream.  The output goes through a buffer of the settings' buffer size
+     * (and the compressor, if any), and one row array is reused for every row.  The stream is written to but not
+     * closed.
+     *
+     * @param resultSet            The result set.
+     * @param outputStream         The stream to write to.
+     * @param columnNameProcessors Processors that turn the column names into csv headers.
+     * @param settings             The buffer size and compression.
+     * @return The number of rows written.
+     */
+    public long csvFromResultSet(ResultSet resultSet, OutputStream outputStream,
+                                 List<ColumnNameProcessor> columnNameProcessors, CsvExportSettings settings) {
+        return csvFromResultSet(resultSet, outputStream, columnNameProcessors, settings, true);
+    }
+
+    /**
+     * Write a result set as csv to an output stream, which is written to but not closed.
+     *
+     * @param resultSet            The result set.
+     * @param outputStream         The stream to write to.
+     * @param columnNameProcessors Processors that turn the column names into csv headers.
+     * @param settings             The buffer size and compression.
+     * @param writeHeaders         Whether to write the header row.
+     * @return The number of rows written.
+     */
+    private long csvFromResultSet(ResultSet resultSet, OutputStream outputStream,
+                                  List<ColumnNameProcessor> columnNameProcessors, CsvExportSettings settings,
+                                  boolean writeHeaders) {
+        OutputStream target = new BufferedOutputStream(new NonClosingOutputStream(outputStream), settings.getBufferSize());
+        try(Writer writer = new OutputStreamWriter(settings.getCompression().wrap(target, settings.getBufferSize()),
+                StandardCharsets.UTF_8)) {
+            CsvWriter csvWriter = new CsvWriter(writer, new CsvWriterSettings());
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            int columnCount = metaData.getColumnCount();
+            List<String> headers = new ArrayList<>(columnCount);
+            for (int i = 1; i <= columnCount; i++)
+                headers.add(processColumnName(metaData.getColumnName(i), columnNameProcessors));
+            if(writeHeaders)
+                csvWriter.writeHeaders(headers);
+            Object[] row = new Object[columnCount];
+            long rowCount = 0;
+            while (resultSet.next()) {
+                for (int i = 0; i < columnCount; i++)
+                    row[i] = resultSet.getObject(i + 1);
+                csvWriter.writeRow(row);
+                rowCount++;
+            }
+            csvWriter.close();
+            return rowCount;
+        } catch (IOException | SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write a result set to a channel as an Apache Arrow IPC file.  The Arrow schema comes from the result set
+     * metadata, with the column names run through the column name processors, and values are copied with the typed
+     * jdbc getters into column vectors, so downstream readers can memory-map the file instead of parsing text.  The
+     * channel is written to but not closed.
+     *
+     * @param resultSet            The result set.
+     * @param channel              The channel to write to.
+     * @param columnNameProcessors Processors that turn the column names into field names.
+     * @param settings             The record batch size.
+     * @return The number of rows written.
+     */
+    public long arrowFromResultSet(ResultSet resultSet, WritableByteChannel channel,
+                                   List<ColumnNameProcessor> columnNameProcessors, CsvExportSettings settings) {
+        requireArrow();
         try {
-            fileWriter = new FileWriter(file);
-            csvWriter = new CsvWriter(fileWriter, new CsvWriterSettings());
-            List<String> headers = new ArrayList<>();
             ResultSetMetaData metaData = resultSet.getMetaData();
-            for (int i = 1; i <= metaData.getColumnCount(); i++) {
-                String header = metaData.getColumnName(i);
-                header = processColumnName(header, columnNameProcessors);
-                headers.add(header);
+            int columnCount = metaData.getColumnCount();
+            List<String> columnNames = new ArrayList<>(columnCount);
+            for (int i = 1; i <= columnCount; i++)
+                columnNames.add(processColumnName(metaData.getColumnName(i), columnNameProcessors));
+            WritableByteChannel target = Channels.newChannel(new NonClosingOutputStream(Channels.newOutputStream(channel)));
+            return new ArrowExporter(settings).write(resultSet, columnNames, target);
+        } catch (IOException | SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Check that Arrow, an optional dependency, is on the classpath.
+     * @throws IllegalStateException When it isn't.
+     */
+    private static void requireArrow() {
+        try {
+            Class.forName("org.apache.arrow.vector.VectorSchemaRoot", false, CsvUtils.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Arrow export needs org.apache.arrow:arrow-vector and " +
+                    "arrow-memory-netty on the classpath", e);
+        }
+    }
+
+    /**
+     * Export a table with a numeric key as csv, in parallel.  The key range is split into
+     * {@link CsvExportSettings#getPartitions()} chunks of about equal width, and each chunk is queried (in key order)
+     * on a thread and connection of its own and written to a part file named <code>fileName.part-N</code>.  The
+     * parts are then either concatenated into <code>fileName</code>, with a single header row, or kept as a
+     * multi-part output.
+     *
+     * @param tableName            The table to export.
+     * @param keyColumn            The numeric key column, usually the id.
+     * @param fileName             The file to write to.
+     * @param columnNameProcessors Processors that turn the column names into csv headers.
+     * @param settings             The partitions, whether to merge the parts, fetch size, buffer size and compression.
+     * @return The csv file, or the part files in key order if the parts aren't merged.
+     */
+    public List<File> csvFromTableParallel(String tableName, String keyColumn, String fileName,
+                                           List<ColumnNameProcessor> columnNameProcessors, CsvExportSettings settings) {
+        SessionFactory sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactory.class);
+        long[] keyRange;
+        try(Session session = sessionFactory.openSession()) {
+            keyRange = session.doReturningWork(connection -> {
+                try(PreparedStatement statement = connection.prepareStatement(
+                        "select min(" + keyColumn + "), max(" + keyColumn + ") from " + tableName);
+                    ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    return resultSet.getObject(1) == null ? null : new long[] {resultSet.getLong(1), resultSet.getLong(2)};
+                }
+            });
+        }
+        if(keyRange == null) {
+            File file = new File(fileName);
+            try(Session session = sessionFactory.openSession()) {
+                session.doWork(connection -> exportRange(connection, tableName, keyColumn, 0, -1, file,
+                        columnNameProcessors, settings, true));
             }
-            csvWriter.writeHeaders(headers);
-            while (resultSet.next()) {
-                List<Object> row = new ArrayList<>();
-                for (int i = 1; i <= metaData.getColumnCount(); i++) {
-                    row.add(resultSet.getObject(i));
+            return Collections.singletonList(file);
+        }
+
+        int partitions = (int) Math.min(settings.getPartitions(), keyRange[1] - keyRange[0] + 1);
+        BigInteger width = BigInteger.valueOf(keyRange[1]).subtract(BigInteger.valueOf(keyRange[0])).add(BigInteger.ONE);
+        List<File> parts = new ArrayList<>();
+        List<Future<Long>> results = new ArrayList<>();
+        ExecutorService exporters = Executors.newFixedThreadPool(partitions, r -> {
+            Thread thread = new Thread(r, "dbUtils-csv-exporter-" + exporterNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for(int i = 0; i < partitions; i++) {
+                long from = keyRange[0] + width.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(partitions)).longValue();
+                long to = keyRange[0] + width.multiply(BigInteger.valueOf(i + 1)).divide(BigInteger.valueOf(partitions)).longValue() - 1;
+                File part = new File(fileName + ".part-" + (i + 1));
+                boolean writeHeaders = i == 0 || !settings.isMergeParts();
+                parts.add(part);
+                results.add(exporters.submit(() -> {
+                    try(Session session = sessionFactory.openSession()) {
+                        return session.doReturningWork(connection -> exportRange(connection, tableName, keyColumn,
+                                from, to, part, columnNameProcessors, settings, writeHeaders));
+                    }
+                }));
+            }
+            for(Future<Long> result : results)
+                result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            parts.forEach(File::delete);
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            parts.forEach(File::delete);
+            throw new RuntimeException("Export of " + tableName + " failed", e.getCause());
+        } finally {
+            exporters.shutdownNow();
+        }
+
+        if(!settings.isMergeParts())
+            return parts;
+        File file = new File(fileName);
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for(File part : parts) {
+                try(FileChannel partChannel = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+                    long position = 0;
+                    long size = partChannel.size();
+                    while(position < size)
+                        position += partChannel.transferTo(position, size - position, channel);
                 }
-                csvWriter.writeRow(row);
             }
-            return file;
-        } catch (Exception e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
-            csvWriter.close();
-            try {
-                fileWriter.close();
-            } catch (IOException e) {
-                //noinspection ThrowFromFinallyBlock
-                throw new RuntimeException(e);
+            parts.forEach(File::delete);
+        }
+        return Collections.singletonList(file);
+    }
+
+    /**
+     * Export one key range of a table to a part file.
+     *
+     * @param connection           The connection.
+     * @param tableName            The table to export.
+     * @param keyColumn            The numeric key column.
+     * @param from                 The lowest key in the range.
+     * @param to                   The highest key in the range.
+     * @param part                 The part file.
+     * @param columnNameProcessors Processors that turn the column names into csv headers.
+     * @param settings             The fetch size, buffer size and compression.
+     * @param writeHeaders         Whether to write the header row.
+     * @return The number of rows written.
+     * @throws SQLException On a jdbc error.
+     */
+    private long exportRange(Connection connection, String tableName, String keyColumn, long from, long to, File part,
+                             List<ColumnNameProcessor> columnNameProcessors, CsvExportSettings settings,
+                             boolean writeHeaders) throws SQLException {
+        String query = "select * from " + tableName + " where " + keyColumn + " >= ? and " + keyColumn + " <= ? " +
+                "order by " + keyColumn;
+        try(PreparedStatement statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+            FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            statement.setFetchSize(settings.getFetchSize() != null ? settings.getFetchSize() :
+                    DatabaseUtils.streamingFetchSize(connection));
+            statement.setLong(1, from);
+            statement.setLong(2, to);
+            try(ResultSet resultSet = statement.executeQuery()) {
+                return csvFromResultSet(resultSet, Channels.newOutputStream(channel), columnNameProcessors, settings,
+                        writeHeaders);
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Passes writes through to a stream but only flushes it on close, so closing the csv writer and compressor, or
+     * the Arrow writer, doesn't close the caller's stream.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        /**
+         * Create a new NonClosingOutputStream.
+         *
+         * @param out The caller's stream.
+         */
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
         }
     }
 }
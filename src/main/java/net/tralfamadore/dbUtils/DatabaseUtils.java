@@ -1,49 +1,113 @@
 package net.tralfamadore.dbUtils;
 
-import com.google.common.reflect.ClassPath;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import net.tralfamadore.*;
+import org.hibernate.Hibernate;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Joinable;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.hibernate.resource.transaction.spi.TransactionStatus;
+import org.hibernate.type.AssociationType;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
 
 import javax.persistence.Entity;
-import javax.persistence.MappedSuperclass;
 import javax.persistence.Query;
-import java.io.IOException;
+import java.io.File;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Class: DbUtils
  * Created by billreh on 7/22/17.
  * @author wreh
  */
-public class DatabaseUtils {
+public class DatabaseUtils implements AutoCloseable {
+    /** The default jdbc fetch size for streamed queries */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    /** The default jdbc batch size, used when the config file doesn't set hibernate.jdbc.batch_size */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    /** The default maximum connection pool size, used when the config file doesn't set database.pool.maxSize */
+    public static final int DEFAULT_POOL_SIZE = 10;
+    /** The default size of MySQL's per connection server side statement cache */
+    public static final int DEFAULT_SERVER_STATEMENT_CACHE_SIZE = 250;
+    /** The connection provider for pooled configs */
+    private static final String POOL_PROVIDER = PooledConnectionProvider.class.getName();
     /** The query cache */
-    private static final Map<String,Tuple4<Long,Long,TimeUnit,Object>> cache = new HashMap<>();
-    /** The session factory */
-    private static Map<String,SessionFactory> sessionFactories = new HashMap<>();
+    private static volatile ResultCache resultCache = new CaffeineResultCache();
+    /** The table metadata cache */
+    private static volatile MetadataCache metadataCache = new MetadataCache();
+    /** The prepared statement cache */
+    private static volatile StatementCache statementCache = new StatementCache();
+    /** The executor async calls run on */
+    private static volatile Executor asyncExecutor = defaultAsyncExecutor();
+    /** The limiters capping the async calls and background refreshes running at once, by config */
+    private static final ConcurrentMap<String,AsyncLimiter> asyncLimiters = new ConcurrentHashMap<>();
+    /** The thread bound sessions, and their transactions, by config */
+    private static final ThreadLocal<Map<String,SessionState>> threadSessions = ThreadLocal.withInitial(HashMap::new);
+    /** The session factories by config, completed once each one is built */
+    private static final ConcurrentMap<String,CompletableFuture<SessionFactory>> sessionFactories = new ConcurrentHashMap<>();
+    /** Builds session factories for {@link #warmUp(Collection)} */
+    private static final ExecutorService bootstrapExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "dbUtils-bootstrap");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** The tables each entity class is loaded from, including the tables of its associations */
+    private static final Map<Class<?>,Set<String>> entityTables = new ConcurrentHashMap<>();
     /** The type of time unit to use for caching */
     private TimeUnit cacheTimeUnit;
     /** The number of time units to cache for */
     private long cacheTime;
+    /** The number of time units to serve an expired result for while it is refreshed */
+    private long staleTime;
     /** Set to tru to ignore cache */
     private boolean nocache = false;
     /** The sql */
     private String sql;
     /** THe bind variables for the sql */
     private List<Object> bindVars = new ArrayList<>();
-    /** The session */
-    private Session session;
-    /** Whether or not we're in a transaction */
-    private boolean inTransaction;
+    /** The session and its transaction, when they're held by this object rather than the thread */
+    private final SessionState state = new SessionState();
+    /** How long the session is kept */
+    private final SessionScope sessionScope;
     /** The config file */
     private String config;
+    /** The jdbc fetch size for streamed queries, or null for the driver appropriate default */
+    private Integer fetchSize;
+    /** The jdbc batch size for stores and inserts, or null for the config's hibernate.jdbc.batch_size */
+    private Integer batchSize;
 
     /**
      * Instantiate a new DatabaseUtils object for the default config.
@@ -57,47 +121,211 @@ public class DatabaseUtils {
      * @param config The config to use.  Should be the name of the config file minus the ".db.properties".
      */
     public DatabaseUtils(String config) {
+        this(config, SessionScope.PER_CALL);
+    }
+
+    /**
+     * Instantiate a new DatabaseUtils object for the given config and session scope.  Objects with a
+     * {@link SessionScope#PER_INSTANCE} scope hold a pooled connection and must be closed.
+     * @param config The config to use.  Should be the name of the config file minus the ".db.properties".
+     * @param sessionScope How long to keep a session.
+     */
+    public DatabaseUtils(String config, SessionScope sessionScope) {
         this.config = config;
+        this.sessionScope = Objects.requireNonNull(sessionScope);
     }
 
     /**
-     * Get the session factory.
+     * Get the session factory, building it on first use.  If another thread is already building it, wait for that
+     * thread instead of building a second one.
      * @param config The config for which to get the session factory.
      * @return The session factory.
      */
     private static SessionFactory sessionFactory(String config) {
-        if(!sessionFactories.containsKey(config))
-            bootstrap(config);
-        return sessionFactories.get(config);
+        CompletableFuture<SessionFactory> sessionFactory = sessionFactories.get(config);
+        if(sessionFactory == null)
+            sessionFactory = bootstrap(config, Thread.currentThread().getContextClassLoader());
+        try {
+            return sessionFactory.join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
     }
 
     /**
-     * Get the session.
+     * Get the session and transaction state: the thread's for the config if the scope is
+     * {@link SessionScope#THREAD_BOUND}, otherwise this object's own.
+     * @return The state.
+     */
+    private SessionState state() {
+        if(sessionScope == SessionScope.THREAD_BOUND)
+            return threadSessions.get().computeIfAbsent(config, key -> new SessionState());
+        return state;
+    }
+
+    /**
+     * Get the session, opening one if the scope's session isn't open yet.
      * @return The session.
      */
     private Session session() {
-        if(session == null)
-            session = sessionFactory(config).openSession();
-        return session;
+        SessionState state = state();
+        if(!isUsable(state.session))
+            state.session = sessionScope == SessionScope.PER_CALL
+                    ? sessionFactory(config).openSession() : openHeldSession();
+        return state.session;
     }
 
     /**
-     * Bootstrap the db connection.
-     * @param config The config to bootstrap for.
+     * Check whether this object is inside a transaction, either its own or, for the {@link SessionScope#THREAD_BOUND}
+     * scope, one begun by another object on the thread.  Calls inside a transaction join it: they neither commit nor
+     * release the session.
+     * @return True if in a transaction.
+     */
+    private boolean inTransaction() {
+        return state().inTransaction;
+    }
+
+    /**
+     * Open a session that keeps its connection until it's closed, instead of handing it back to the pool after each
+     * transaction.
+     * @return The session.
+     */
+    private Session openHeldSession() {
+        return sessionFactory(config).withOptions()
+                .connectionHandlingMode(PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_HOLD)
+                .openSession();
+    }
+
+    /**
+     * Check whether a session can still be used: it's open, and its session factory hasn't been shut down and
+     * replaced.
+     * @param session The session.  May be null.
+     * @return True if the session can be used.
+     */
+    private boolean isUsable(Session session) {
+        return session != null && session.isOpen() && session.getSessionFactory() == sessionFactory(config);
+    }
+
+    /**
+     * Release the session at the end of a call.  A per call session is closed; a longer lived session is cleared,
+     * so it doesn't grow with every entity loaded through it.  Nothing happens inside a transaction.
+     */
+    private void releaseSession() {
+        if(inTransaction())
+            return;
+        if(sessionScope == SessionScope.PER_CALL) {
+            closeSession();
+            return;
+        }
+        Session current = state().session;
+        if(current != null && current.isOpen())
+            current.clear();
+    }
+
+    /**
+     * Close the session, whatever the scope, so the next call opens a new one.  Used after a failed write, since a
+     * Hibernate session can't be trusted after an exception.
+     */
+    private void closeSession() {
+        SessionState state = state();
+        Session current = state.session;
+        state.session = null;
+        if(current != null && current.isOpen())
+            current.close();
+    }
+
+    /**
+     * Close this object's session and hand its connection back to the pool.  Only needed for the
+     * {@link SessionScope#PER_INSTANCE} scope; the object can still be used afterwards, and opens a new session if
+     * it is.  A thread bound session is left open for the thread's other objects.
      */
-    private static void bootstrap(String config) {
-        if(sessionFactories.containsKey(config))
+    @Override
+    public void close() {
+        if(sessionScope == SessionScope.THREAD_BOUND)
             return;
-        synchronized (Bootstrap.class) {
+        if(inTransaction())
+            throw new IllegalStateException("Can't close a DatabaseUtils object inside a transaction");
+        closeSession();
+    }
+
+    /**
+     * Close the calling thread's {@link SessionScope#THREAD_BOUND} sessions, for every config, and hand their
+     * connections back to the pool.  Call it when the thread's unit of work is done, for example at the end of a
+     * request.
+     */
+    public static void closeThreadSessions() {
+        Collection<SessionState> states = threadSessions.get().values();
+        if(states.stream().anyMatch(state -> state.inTransaction))
+            throw new IllegalStateException("Can't close the thread's sessions inside a transaction");
+        states.stream().map(state -> state.session).filter(session -> session != null && session.isOpen())
+                .forEach(Session::close);
+        threadSessions.remove();
+    }
+
+    /**
+     * Bootstrap the db connection.  Each config is built at most once: the first caller registers a future and builds
+     * the session factory on its own thread, and later callers get that future.  A failed build is removed, so the
+     * next caller tries again.  Different configs build in parallel.
+     * @param config The config to bootstrap for.
+     * @param classLoader The class loader to find the entity classes with.
+     * @return The session factory's future.
+     */
+    private static CompletableFuture<SessionFactory> bootstrap(String config, ClassLoader classLoader) {
+        CompletableFuture<SessionFactory> created = new CompletableFuture<>();
+        CompletableFuture<SessionFactory> existing = sessionFactories.putIfAbsent(config, created);
+        if(existing != null)
+            return existing;
+        try {
             Configuration cfg = readConfig(config);
-            hibernateAnnotatedClasses().forEach(cfg::addAnnotatedClass);
-            sessionFactories.put(config, cfg.buildSessionFactory(
+            boolean scanUnindexedRoots = ApplicationProperties.getInstance()
+                    .getProperty(config + ".db", "database.entities.scanUnindexedRoots")
+                    .map(Boolean::parseBoolean).orElse(false);
+            EntityIndex.hibernateAnnotatedClasses("net.tralfamadore", classLoader, scanUnindexedRoots)
+                    .forEach(cfg::addAnnotatedClass);
+            created.complete(cfg.buildSessionFactory(
                     new StandardServiceRegistryBuilder()
                             .applySettings(cfg.getProperties())
                             .build()));
+        } catch (Throwable t) {
+            sessionFactories.remove(config, created);
+            created.completeExceptionally(t);
+        }
+        return created;
+    }
+
+    /**
+     * Build the session factories for some configs in parallel and wait for them, so the first query for each one
+     * doesn't pay for bootstrapping.  Configs that are already built or being built aren't built again.
+     * @param configs The configs to build.
+     */
+    public static void warmUp(String... configs) {
+        try {
+            warmUp(Arrays.asList(configs)).join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
         }
     }
 
+    /**
+     * Start building the session factories for some configs, each on a thread of its own.  Application startup takes
+     * as long as the slowest config instead of the sum of them all.
+     * @param configs The configs to build.
+     * @return A future that completes when every session factory is built, or completes exceptionally with the first
+     * failure.
+     */
+    public static CompletableFuture<Void> warmUp(Collection<String> configs) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        CompletableFuture<?>[] builds = configs.stream()
+                .map(config -> CompletableFuture.supplyAsync(() -> bootstrap(config, classLoader), bootstrapExecutor)
+                        .thenCompose(Function.identity()))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(builds);
+    }
+
     /**
      * Read the config file.
      * @param config The config file name, minus the ".db.properties" at the end.
@@ -106,6 +334,7 @@ public class DatabaseUtils {
     private static Configuration readConfig(String config) {
         Configuration cfg = new Configuration();
         ApplicationProperties props = ApplicationProperties.getInstance();
+        String poolName = "dbUtils-" + config;
         config = config + ".db";
 
         Optional<Properties> oprops = props.getProperties(config);
@@ -127,34 +356,120 @@ public class DatabaseUtils {
                 cfg.setProperty(prop, properties.getProperty(prop));
         }));
 
+        if(cfg.getProperty("hibernate.jdbc.batch_size") == null)
+            cfg.setProperty("hibernate.jdbc.batch_size", String.valueOf(DEFAULT_BATCH_SIZE));
+        if(cfg.getProperty("hibernate.order_inserts") == null)
+            cfg.setProperty("hibernate.order_inserts", "true");
+        if(cfg.getProperty("hibernate.order_updates") == null)
+            cfg.setProperty("hibernate.order_updates", "true");
+
         cfg.setProperty("hibernate.connection.username", username.get());
         cfg.setProperty("hibernate.connection.password", password.get());
         cfg.setProperty("hibernate.connection.url", url.get());
 
+        configurePool(cfg, oprops.get(), poolName);
+
         return cfg;
     }
 
     /**
-     * Get a list of hibernate annotated classes.
-     * @return A list of hibernate annotated classes.
+     * Set up the connection pool from the config file's database.pool properties:
+     * <ul>
+     *     <li>database.pool.enabled - false to use the connection provider hibernate would otherwise pick</li>
+     *     <li>database.pool.minSize - the minimum number of idle connections</li>
+     *     <li>database.pool.maxSize - the maximum number of connections, {@link #DEFAULT_POOL_SIZE} by default</li>
+     *     <li>database.pool.acquisitionTimeoutMillis - how long to wait for a connection before failing</li>
+     *     <li>database.pool.validationTimeoutMillis - how long to wait for a connection to be validated</li>
+     *     <li>database.pool.testQuery - the query to validate connections with, for drivers without
+     *     {@link Connection#isValid(int)}</li>
+     *     <li>database.pool.idleTimeoutMillis - how long a connection can sit idle before it's closed</li>
+     *     <li>database.pool.maxLifetimeMillis - how long a connection can live before it's replaced</li>
+     *     <li>database.pool.leakDetectionThresholdMillis - how long a connection can be out of the pool before a
+     *     possible leak is logged</li>
+     *     <li>database.pool.serverStatementCacheSize - on MySQL, the number of server side prepared statements each
+     *     connection keeps, {@link #DEFAULT_SERVER_STATEMENT_CACHE_SIZE} by default, or 0 for client side statements</li>
+     * </ul>
+     * The pool is HikariCP, through {@link PooledConnectionProvider}.  A config that names its own
+     * hibernate.connection.provider_class keeps it.  Any hibernate.hikari property in the config file wins over the
+     * equivalent database.pool property.
+     * @param cfg The configuration.
+     * @param properties The config file's properties.
+     * @param poolName The pool name.
      */
-    private static synchronized List<Class<?>> hibernateAnnotatedClasses(){
-        List<Class <?>> hibernateAnnotatedClasses = new ArrayList<>();
+    private static void configurePool(Configuration cfg, Properties properties, String poolName) {
+        if(cfg.getProperty("hibernate.connection.provider_class") != null ||
+                !Boolean.parseBoolean(properties.getProperty("database.pool.enabled", "true")))
+            return;
 
-        ClassPath cp;
+        cfg.setProperty("hibernate.connection.provider_class", POOL_PROVIDER);
+        String driverClassName = properties.getProperty("database.driverClassName");
+        if(driverClassName != null && cfg.getProperty("hibernate.connection.driver_class") == null)
+            cfg.setProperty("hibernate.connection.driver_class", driverClassName);
+        poolProperty(cfg, "hibernate.hikari.poolName", poolName);
+        poolProperty(cfg, "hibernate.hikari.maximumPoolSize",
+                properties.getProperty("database.pool.maxSize", String.valueOf(DEFAULT_POOL_SIZE)));
+        poolProperty(cfg, "hibernate.hikari.minimumIdle", properties.getProperty("database.pool.minSize"));
+        poolProperty(cfg, "hibernate.hikari.connectionTimeout",
+                properties.getProperty("database.pool.acquisitionTimeoutMillis"));
+        poolProperty(cfg, "hibernate.hikari.validationTimeout",
+                properties.getProperty("database.pool.validationTimeoutMillis"));
+        poolProperty(cfg, "hibernate.hikari.connectionTestQuery", properties.getProperty("database.pool.testQuery"));
+        poolProperty(cfg, "hibernate.hikari.idleTimeout", properties.getProperty("database.pool.idleTimeoutMillis"));
+        poolProperty(cfg, "hibernate.hikari.maxLifetime", properties.getProperty("database.pool.maxLifetimeMillis"));
+        poolProperty(cfg, "hibernate.hikari.leakDetectionThreshold",
+                properties.getProperty("database.pool.leakDetectionThresholdMillis"));
+
+        String url = cfg.getProperty("hibernate.connection.url");
+        if(url == null || !url.startsWith("jdbc:mysql:"))
+            return;
+        String cacheSize = properties.getProperty("database.pool.serverStatementCacheSize",
+                String.valueOf(DEFAULT_SERVER_STATEMENT_CACHE_SIZE)).trim();
+        int serverStatementCacheSize;
         try {
-            cp = ClassPath.from(Thread.currentThread().getContextClassLoader());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            serverStatementCacheSize = Integer.parseInt(cacheSize);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Bad database.pool.serverStatementCacheSize: " + cacheSize, e);
         }
-        for(ClassPath.ClassInfo info : cp.getTopLevelClassesRecursive("net.tralfamadore")) {
-            Class clazz = info.load();
-            if (clazz.isAnnotationPresent(Entity.class) || clazz.isAnnotationPresent(MappedSuperclass.class)){
-                hibernateAnnotatedClasses.add(clazz);
-            }
+        if(serverStatementCacheSize > 0) {
+            poolProperty(cfg, "hibernate.hikari.dataSource.useServerPrepStmts", "true");
+            poolProperty(cfg, "hibernate.hikari.dataSource.cachePrepStmts", "true");
+            poolProperty(cfg, "hibernate.hikari.dataSource.prepStmtCacheSize", String.valueOf(serverStatementCacheSize));
+            poolProperty(cfg, "hibernate.hikari.dataSource.prepStmtCacheSqlLimit", "2048");
         }
+    }
 
-        return hibernateAnnotatedClasses;
+    /**
+     * Set a pool property unless it's unset in the config file or the config file already sets it.
+     * @param cfg The configuration.
+     * @param name The hibernate property name.
+     * @param value The value, or null.
+     */
+    private static void poolProperty(Configuration cfg, String name, String value) {
+        if(value != null && cfg.getProperty(name) == null)
+            cfg.setProperty(name, value.trim());
+    }
+
+    /**
+     * Get the connection pool statistics for a config.
+     * @param config The config.
+     * @return The pool statistics, or empty if the config hasn't been bootstrapped yet or doesn't use the built in
+     * pool.
+     */
+    public static Optional<PoolStats> getPoolStats(String config) {
+        CompletableFuture<SessionFactory> sessionFactory = sessionFactories.get(config);
+        if(sessionFactory == null || !sessionFactory.isDone() || sessionFactory.isCompletedExceptionally())
+            return Optional.empty();
+        ConnectionProvider connectionProvider = ((SessionFactoryImplementor) sessionFactory.join())
+                .getServiceRegistry().getService(ConnectionProvider.class);
+        if(connectionProvider == null || !connectionProvider.isUnwrappableAs(HikariDataSource.class))
+            return Optional.empty();
+        HikariDataSource dataSource = connectionProvider.unwrap(HikariDataSource.class);
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if(pool == null)
+            return Optional.empty();
+        return Optional.of(new PoolStats(dataSource.getPoolName(), pool.getActiveConnections(),
+                pool.getIdleConnections(), pool.getTotalConnections(), pool.getThreadsAwaitingConnection(),
+                dataSource.getMaximumPoolSize()));
     }
 
     /**
@@ -162,8 +477,15 @@ public class DatabaseUtils {
      * @param config Shut down the session factory for this config.
      */
     synchronized static public void shutdown(String config) {
-        sessionFactory(config).close();
-        sessionFactories.remove(config);
+        asyncLimiters.remove(config);
+        CompletableFuture<SessionFactory> sessionFactory = sessionFactories.remove(config);
+        if(sessionFactory == null)
+            return;
+        try {
+            sessionFactory.join().close();
+        } catch (CompletionException e) {
+            // it never started
+        }
     }
 
     /**
@@ -185,15 +507,74 @@ public class DatabaseUtils {
     }
 
     /**
-     * Get a {@link TableDescription} for the given table.
+     * Get a {@link TableDescription} for the given table.  Descriptions are cached in the {@link MetadataCache}, so
+     * the returned description is shared and mustn't be modified.
      * @param tableName The table name.
      * @param schemaName The schema name.
      * @return The {@link TableDescription} for the given table and schema names.
      */
     public TableDescription getTableDescription(String tableName, String schemaName) {
-        try (Session hibernateSession = session()) {
-            return hibernateSession.doReturningWork(connection -> TableDescription.getTableDescription(connection, tableName, schemaName));
+        return metadataCache.get(config, schemaName, tableName, TableDescription.class, () -> {
+            Session hibernateSession = session();
+            try {
+                return hibernateSession.doReturningWork(connection -> TableDescription.getTableDescription(connection, tableName, schemaName));
+            } finally {
+                releaseSession();
+            }
+        });
+    }
+
+    /**
+     * Get {@link TableDescription}s for every table and view in the connection's default schema.  See
+     * {@link #getTableDescriptions(String)}.
+     * @return The {@link TableDescription}s by table name.
+     */
+    public Map<String,TableDescription> getTableDescriptions() {
+        return getTableDescriptions(null);
+    }
+
+    /**
+     * Get {@link TableDescription}s for every table and view in a schema.  The whole schema is described in one pass
+     * over the meta data (see {@link TableDescription#getTableDescriptions(Connection, String)}) instead of four
+     * meta data queries per table, and each description is put in the {@link MetadataCache}, so later calls to
+     * {@link #getTableDescription(String, String)} for the same schema don't go to the database.
+     * @param schemaName The schema name.  Can be null for the connection's current schema.
+     * @return The {@link TableDescription}s by table name.
+     */
+    public Map<String,TableDescription> getTableDescriptions(String schemaName) {
+        Map<String,TableDescription> tableDescriptions;
+        Session hibernateSession = session();
+        try {
+            tableDescriptions = hibernateSession.doReturningWork(connection ->
+                    TableDescription.getTableDescriptions(connection, schemaName));
+        } finally {
+            releaseSession();
+        }
+        tableDescriptions.forEach((tableName, tableDescription) ->
+                metadataCache.put(config, schemaName, tableName, TableDescription.class, tableDescription));
+        return tableDescriptions;
+    }
+
+    /**
+     * Load a schema's {@link TableDescription}s from a snapshot file, re-describing only the tables that changed since
+     * the file was written (see {@link SchemaSnapshot#load(Connection, String, File)}), and put them in the
+     * {@link MetadataCache}.  Call it at startup so later calls to {@link #getTableDescription(String, String)} for
+     * the same schema don't go to the database.
+     * @param schemaName The schema name.  Can be null.
+     * @param snapshotFile The snapshot file.  Created if it doesn't exist.  Only used on MySQL.
+     * @return The snapshot.
+     */
+    public SchemaSnapshot loadSchemaSnapshot(String schemaName, File snapshotFile) {
+        SchemaSnapshot snapshot;
+        Session hibernateSession = session();
+        try {
+            snapshot = hibernateSession.doReturningWork(connection -> SchemaSnapshot.load(connection, schemaName, snapshotFile));
+        } finally {
+            releaseSession();
         }
+        snapshot.getTableDescriptions().forEach((tableName, tableDescription) ->
+                metadataCache.put(config, schemaName, tableName, TableDescription.class, tableDescription));
+        return snapshot;
     }
 
     /**
@@ -214,8 +595,11 @@ public class DatabaseUtils {
      * @return A list of table names that match the table name pattern.
      */
     public List<String> getTableNames(String schemaName, String tableNamePattern) {
-        try(Session hibernateSession = session()) {
+        Session hibernateSession = session();
+        try {
             return hibernateSession.doReturningWork(connection -> getTableNames(connection, tableNamePattern, schemaName));
+        } finally {
+            releaseSession();
         }
     }
 
@@ -226,8 +610,11 @@ public class DatabaseUtils {
      * @return A list of schema names.
      */
     public List<String> getSchemaNames(String schemaNamePattern) {
-        try(Session hibernateSession = session()) {
+        Session hibernateSession = session();
+        try {
             return hibernateSession.doReturningWork(connection -> getSchemaNames(connection, schemaNamePattern));
+        } finally {
+            releaseSession();
         }
     }
 
@@ -236,8 +623,11 @@ public class DatabaseUtils {
      * @return A list of all catalog names.
      */
     public List<String> getCatalogNames() {
-        try(Session hibernateSession = session()) {
+        Session hibernateSession = session();
+        try {
             return hibernateSession.doReturningWork(DatabaseUtils::getCatalogNames);
+        } finally {
+            releaseSession();
         }
     }
 
@@ -248,8 +638,21 @@ public class DatabaseUtils {
      * @return The calling object.
      */
     public DatabaseUtils cache(long cacheTime, TimeUnit cacheTimeUnit) {
+        return cache(cacheTime, 0, cacheTimeUnit);
+    }
+
+    /**
+     * Cache this query and its results.  Once the results expire they are still returned for up to
+     * <code>staleTime</code> while a single background query refreshes them.
+     * @param cacheTime The anount of time units to cache for.
+     * @param staleTime The amount of time units to serve expired results for while they are refreshed.
+     * @param cacheTimeUnit The time unit (millis, seconds, etc) to use.
+     * @return The calling object.
+     */
+    public DatabaseUtils cache(long cacheTime, long staleTime, TimeUnit cacheTimeUnit) {
         nocache = false;
         this.cacheTime = cacheTime;
+        this.staleTime = staleTime;
         this.cacheTimeUnit = cacheTimeUnit;
         return this;
     }
@@ -261,10 +664,64 @@ public class DatabaseUtils {
     public DatabaseUtils nocache() {
         nocache = true;
         cacheTime = 0;
+        staleTime = 0;
         cacheTimeUnit = null;
         return this;
     }
 
+    /**
+     * Get the query result cache shared by all DatabaseUtils instances.
+     * @return The query result cache.
+     */
+    public static ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Replace the query result cache shared by all DatabaseUtils instances.  Entries in the old cache are discarded.
+     * @param resultCache The new query result cache.
+     */
+    public static void setResultCache(ResultCache resultCache) {
+        ResultCache oldCache = DatabaseUtils.resultCache;
+        DatabaseUtils.resultCache = Objects.requireNonNull(resultCache);
+        oldCache.invalidateAll();
+    }
+
+    /**
+     * Get the prepared statement cache shared by all DatabaseUtils instances.
+     * @return The prepared statement cache.
+     */
+    public static StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Replace the prepared statement cache, for example to change its size.  Statements in the old cache are closed
+     * with their connections.
+     * @param statementCache The new prepared statement cache.
+     */
+    public static void setStatementCache(StatementCache statementCache) {
+        DatabaseUtils.statementCache = Objects.requireNonNull(statementCache);
+    }
+
+    /**
+     * Get the table metadata cache shared by all DatabaseUtils instances and the spring repositories.
+     * @return The table metadata cache.
+     */
+    public static MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Replace the table metadata cache.  Entries in the old cache are discarded.
+     * @param metadataCache The new table metadata cache.
+     */
+    public static void setMetadataCache(MetadataCache metadataCache) {
+        MetadataCache oldCache = DatabaseUtils.metadataCache;
+        DatabaseUtils.metadataCache = Objects.requireNonNull(metadataCache);
+        oldCache.invalidateAll();
+    }
+
     /**
      * Set the sql to use.
      * @param sql The sql to use.
@@ -304,30 +761,60 @@ public class DatabaseUtils {
         return bindVars(bindVars == null ? Collections.emptyList() : Arrays.asList(bindVars));
     }
 
+    /**
+     * Set the jdbc fetch size for streamed queries.  If it isn't set, MySQL connections stream one row at a time
+     * and other databases use {@link #DEFAULT_FETCH_SIZE}.
+     * @param fetchSize The number of rows to fetch per round trip.
+     * @return The calling object.
+     */
+    public DatabaseUtils fetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * Set the jdbc batch size for {@link #store(List)}, {@link #bulkStore(List)} and {@link #bulkInsert(List)}.  By
+     * default the config file's hibernate.jdbc.batch_size is used, or {@link #DEFAULT_BATCH_SIZE} if it doesn't set one.
+     * @param batchSize The number of entities per batch.
+     * @return The calling object.
+     */
+    public DatabaseUtils batchSize(int batchSize) {
+        if(batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        this.batchSize = batchSize;
+        return this;
+    }
+
     /**
      * Execute the sql.
      * @return The number of rows updated or inserted.
      */
     public int execute() {
         Throwable t = null;
+        boolean joined = inTransaction();
         try {
-            if (!inTransaction)
+            if(!joined)
                 session().beginTransaction();
             Query query = session().createNativeQuery(sql);
             for (int i = 0; i < bindVars.size(); i++) {
                 query.setParameter(i + 1, bindVars.get(i));
             }
+            tablesWritten(SqlTables.tables(sql));
             return query.executeUpdate();
         } catch (Exception e) {
             t = e;
-            if(!inTransaction)
+            if(!joined)
                 session().getTransaction().rollback();
             throw new RuntimeException(e);
         } finally {
-            if(!inTransaction) {
-                if(t == null)
+            if(!joined) {
+                if(t == null) {
                     session().getTransaction().commit();
-                session().close();
+                    releaseSession();
+                } else {
+                    closeSession();
+                }
+                invalidateWrittenTables();
             }
         }
     }
@@ -341,27 +828,123 @@ public class DatabaseUtils {
     }
 
     /**
-     * Insert or update a list of entity.
+     * Insert or update a list of entity.  The inserts and updates go out in jdbc batches as with
+     * {@link #bulkStore(List)}, but inside {@link #transactionCallback(TransactionCallback)} the session is only
+     * flushed, never cleared, so the entities stay managed for the rest of the transaction.  Outside a transaction
+     * the store runs in a transaction of its own and is cleared in batches like {@link #bulkStore(List)}.
+     * @param entities The list of entities to store.
+     */
+    public void store(List<?> entities) {
+        storeBatches(entities, !inTransaction());
+    }
+
+    /**
+     * Insert or update a list of entities in jdbc batches.  The session is flushed and cleared every batch size
+     * entities (see {@link #batchSize(int)}), so the statements go out in batches and the session doesn't grow with
+     * the size of the list.  Inside a transaction this means entities loaded earlier in the transaction are detached
+     * once more than a batch of entities has been stored.
+     *
+     * Inserts of entities whose ids are generated by an identity column can't be batched by Hibernate; they are
+     * still flushed and cleared in batches.
+     * @param entities The list of entities to store.
+     * @return The number of entities and batches and the throughput.
+     */
+    public BulkResult bulkStore(List<?> entities) {
+        return storeBatches(entities, true);
+    }
+
+    /**
+     * Insert or update a list of entities, flushing every batch size entities.
      * @param entities The list of entities to store.
+     * @param clear True to clear the session after each flush, false to keep the entities managed.
+     * @return The number of entities and batches and the throughput.
      */
-    public void store(List<Object> entities) {
+    private BulkResult storeBatches(List<?> entities, boolean clear) {
+        long start = System.nanoTime();
+        int batchSize = batchSize();
+        long batches = 0;
         Throwable t = null;
+        boolean joined = inTransaction();
         try {
-            if(!inTransaction)
+            if(!joined)
                 session().beginTransaction();
-            entities.forEach(session::saveOrUpdate);
+            session().setJdbcBatchSize(batchSize);
+            Set<Class<?>> types = new HashSet<>();
+            int count = 0;
+            for(Object entity : entities) {
+                session().saveOrUpdate(entity);
+                types.add(Hibernate.getClass(entity));
+                if(++count % batchSize == 0 && count < entities.size()) {
+                    session().flush();
+                    if(clear)
+                        session().clear();
+                    batches++;
+                }
+            }
+            if(count > 0) {
+                session().flush();
+                batches++;
+            }
+            types.forEach(type -> tablesWritten(entityTables(type)));
         } catch(Exception e) {
             t = e;
-            if(!inTransaction)
+            if(!joined)
                 session().getTransaction().rollback();
             throw new RuntimeException(e);
         } finally {
-            if(!inTransaction) {
-                if (t == null)
+            if(!joined) {
+                if (t == null) {
                     session().getTransaction().commit();
-                session().close();
+                    releaseSession();
+                } else {
+                    closeSession();
+                }
+                invalidateWrittenTables();
             }
         }
+        return new BulkResult(entities.size(), batches, System.nanoTime() - start);
+    }
+
+    /**
+     * Insert a list of new entities through a {@link StatelessSession}, in jdbc batches of the batch size (see
+     * {@link #batchSize(int)}).  Nothing is cached in a session and there is no dirty checking or cascading, so this
+     * is the fastest way to load many new rows; associated entities must be inserted separately.  The inserts run
+     * in a transaction of their own, even inside {@link #transactionCallback(TransactionCallback)}.
+     * @param entities The list of entities to insert.
+     * @return The number of entities and batches and the throughput.
+     */
+    public BulkResult bulkInsert(List<?> entities) {
+        long start = System.nanoTime();
+        int batchSize = batchSize();
+        Set<Class<?>> types = new HashSet<>();
+        StatelessSession statelessSession = sessionFactory(config).openStatelessSession();
+        try {
+            statelessSession.beginTransaction();
+            statelessSession.setJdbcBatchSize(batchSize);
+            for(Object entity : entities) {
+                statelessSession.insert(entity);
+                types.add(entity.getClass());
+            }
+            statelessSession.getTransaction().commit();
+        } catch(Exception e) {
+            if(statelessSession.getTransaction().isActive())
+                statelessSession.getTransaction().rollback();
+            throw new RuntimeException(e);
+        } finally {
+            statelessSession.close();
+            Set<String> tables = new HashSet<>();
+            boolean unknownTables = false;
+            for(Class<?> type : types) {
+                Set<String> typeTables = entityTables(type);
+                unknownTables |= typeTables.isEmpty();
+                tables.addAll(typeTables);
+            }
+            if(unknownTables)
+                resultCache.invalidateAll();
+            else if(!tables.isEmpty())
+                resultCache.invalidateTables(tables);
+        }
+        return new BulkResult(entities.size(), (entities.size() + batchSize - 1) / batchSize, System.nanoTime() - start);
     }
 
     /**
@@ -377,6 +960,7 @@ public class DatabaseUtils {
     public void commit() {
         if(session().getTransaction().isActive())
             session().getTransaction().commit();
+        invalidateWrittenTables();
     }
 
     /**
@@ -385,27 +969,63 @@ public class DatabaseUtils {
     public void rollback() {
         if(session().getTransaction().isActive())
             session().getTransaction().rollback();
+        invalidateWrittenTables();
     }
 
     /**
-     * Execute the callback within a transaction.
+     * Execute the callback within a transaction.  Inside a transaction already, including one begun by another
+     * {@link SessionScope#THREAD_BOUND} object on the thread, the callback joins it: the transaction is committed by
+     * the callback that began it, and if the joined callback fails it is marked to be rolled back instead.
      * @param transactionCallback The callback to execute.  Given an argument og DatabaseUtilities.
      * @return The return of transactionCallback.
      */
     public <T> T transactionCallback(TransactionCallback<T> transactionCallback) {
+        SessionState state = state();
+        if(state.inTransaction)
+            return joinTransaction(transactionCallback);
+        boolean failed = false;
         try {
-            inTransaction = true;
+            state.inTransaction = true;
             session().beginTransaction();
             return transactionCallback.apply(this);
         } catch (Exception e) {
+            failed = true;
             if(session().getTransaction().isActive())
                 session().getTransaction().rollback();
             throw new RuntimeException(e);
         } finally {
+            boolean ended = false;
+            try {
+                Transaction transaction = session().getTransaction();
+                if(transaction.getStatus() == TransactionStatus.MARKED_ROLLBACK)
+                    transaction.rollback();
+                else if(transaction.isActive())
+                    transaction.commit();
+                ended = true;
+            } finally {
+                // reset even if the commit failed, or a thread bound session would stay in a dead transaction
+                state.inTransaction = false;
+                if(failed || !ended)
+                    closeSession();
+                else
+                    releaseSession();
+                invalidateWrittenTables();
+            }
+        }
+    }
+
+    /**
+     * Run a callback in the transaction that's already active, leaving the commit to whoever began it.
+     * @param transactionCallback The callback to execute.
+     * @return The return of transactionCallback.
+     */
+    private <T> T joinTransaction(TransactionCallback<T> transactionCallback) {
+        try {
+            return transactionCallback.apply(this);
+        } catch (RuntimeException e) {
             if(session().getTransaction().isActive())
-                session().getTransaction().commit();
-            session().close();
-            inTransaction = false;
+                session().getTransaction().markRollbackOnly();
+            throw e;
         }
     }
 
@@ -417,14 +1037,10 @@ public class DatabaseUtils {
      */
     public <T> T resultSetCallback(ResultSetCallback<T> resultSetCallback) {
         try {
-            return session().doReturningWork(connection -> {
-                PreparedStatement preparedStatement = connection.prepareStatement(sql);
-                bindVariables(bindVars, preparedStatement);
-                ResultSet resultSet = preparedStatement.executeQuery();
-                return resultSetCallback.apply(resultSet);
-            });
+            return session().doReturningWork(connection ->
+                    statementCache.query(connection, sql, bindVars, resultSetCallback::apply));
         } finally {
-            session().close();
+            releaseSession();
         }
     }
 
@@ -435,29 +1051,432 @@ public class DatabaseUtils {
      * @return The return of connectionCallback.
      */
     public <T> T connectionCallback(ConnectionCallback<T> connectionCallback) {
+        try {
             return session().doReturningWork(connectionCallback::apply);
+        } finally {
+            releaseSession();
+        }
+    }
+
+    /**
+     * Select a list of rows as arrays of objects without blocking.  See {@link #async(Function)}.
+     * @return A future list of arrays of objects.
+     */
+    public CompletableFuture<List<Object[]>> selectListAsync() {
+        return async(DatabaseUtils::selectList);
+    }
+
+    /**
+     * Select a list of objects of type T without blocking.  See {@link #selectList(Class)} and
+     * {@link #async(Function)}.
+     * @param type The type class.
+     * @param <T> The type.
+     * @return A future List of objects of type T.
+     */
+    public <T> CompletableFuture<List<T>> selectListAsync(Class<T> type) {
+        return async(databaseUtils -> databaseUtils.selectList(type));
+    }
+
+    /**
+     * Select an object of type T without blocking.  See {@link #select(Class)} and {@link #async(Function)}.
+     * @param type The type class.
+     * @param <T> The type.
+     * @return A future optional object of type T.
+     */
+    public <T> CompletableFuture<Optional<T>> selectAsync(Class<T> type) {
+        return async(databaseUtils -> databaseUtils.select(type));
+    }
+
+    /**
+     * Select a result set as a map of column name to object values without blocking.  See {@link #async(Function)}.
+     * @return A future map of column name to object values.
+     */
+    public CompletableFuture<Optional<Map<String,Object>>> selectMapAsync() {
+        return async(DatabaseUtils::selectMap);
+    }
+
+    /**
+     * Select a list of maps of column name to object values without blocking.  See {@link #async(Function)}.
+     * @return A future list of maps of column name to object values.
+     */
+    public CompletableFuture<List<Map<String,Object>>> selectMapListAsync() {
+        return async(DatabaseUtils::selectMapList);
+    }
+
+    /**
+     * Execute the sql in a transaction of its own without blocking.  See {@link #async(Function)}.
+     * @return The future number of rows updated or inserted.
+     */
+    public CompletableFuture<Integer> executeAsync() {
+        return async(DatabaseUtils::execute);
+    }
+
+    /**
+     * Execute the result set callback without blocking.  See {@link #async(Function)}.
+     * @param resultSetCallback The callback to execute.
+     * @param <T> The type returned.
+     * @return The future return of resultSetCallback.
+     */
+    public <T> CompletableFuture<T> resultSetCallbackAsync(ResultSetCallback<T> resultSetCallback) {
+        return async(databaseUtils -> databaseUtils.resultSetCallback(resultSetCallback));
+    }
+
+    /**
+     * Run a call on the async executor (see {@link #setAsyncExecutor(Executor)}), so independent queries can be
+     * started together and the caller waits for the slowest of them instead of their sum.  The call runs on a copy
+     * of this object, with its own per call session, taken when the method is called, so this object can be given
+     * new sql and bind variables straight away.  No more calls per config run at once than the config's connection
+     * pool has connections; the rest are queued, without holding a thread, until one finishes.
+     * @param call The call to run.
+     * @param <T> The type returned.
+     * @return A future that completes with the call's result, or exceptionally with its exception.
+     */
+    private <T> CompletableFuture<T> async(Function<DatabaseUtils,T> call) {
+        if(inTransaction())
+            throw new IllegalStateException("Async calls can't join a transaction");
+        DatabaseUtils copy = copy();
+        Executor executor;
+        try {
+            executor = cappedExecutor(config);
+        } catch (RuntimeException e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return CompletableFuture.supplyAsync(() -> call.apply(copy), executor);
+    }
+
+    /**
+     * Get the async executor, capped to the calls a config can run at once, one per pooled connection.  Bootstraps
+     * the config if it hasn't been already, to read its pool size.
+     * @param config The config.
+     * @return The capped executor.
+     */
+    private static Executor cappedExecutor(String config) {
+        AsyncLimiter limiter = asyncLimiters.get(config);
+        if(limiter == null) {
+            sessionFactory(config);
+            int poolSize = getPoolStats(config).map(PoolStats::getMaximumPoolSize).orElse(DEFAULT_POOL_SIZE);
+            limiter = asyncLimiters.computeIfAbsent(config, key -> new AsyncLimiter(poolSize));
+        }
+        return limiter.on(asyncExecutor);
+    }
+
+    /**
+     * Get the executor async calls run on.
+     * @return The async executor.
+     */
+    public static Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Replace the executor async calls run on.  The default starts a virtual thread per call on a JDK that has them,
+     * and otherwise uses a pool of {@link #DEFAULT_POOL_SIZE} daemon threads.  The old executor isn't shut down.
+     * @param asyncExecutor The new async executor.
+     */
+    public static void setAsyncExecutor(Executor asyncExecutor) {
+        DatabaseUtils.asyncExecutor = Objects.requireNonNull(asyncExecutor);
+    }
+
+    /**
+     * Create the default async executor: virtual threads where the JDK has them, found by reflection since this
+     * library is built for Java 8, and otherwise a fixed pool of daemon threads.
+     * @return The default async executor.
+     */
+    private static Executor defaultAsyncExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            return Executors.newFixedThreadPool(DEFAULT_POOL_SIZE, r -> {
+                Thread thread = new Thread(r, "dbUtils-async-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Stream the rows of the query as arrays of objects.  Rows are fetched as the stream is consumed, on a session
+     * of their own; close the stream (try-with-resources) to release the statement and session.
+     * @return A lazily fetched stream of arrays of objects.
+     */
+    public Stream<Object[]> stream() {
+        return streamRows(rowSchema -> rowSchema::readArray);
+    }
+
+    /**
+     * Stream the rows of the query as maps of column name to object values.  Rows are fetched as the stream is
+     * consumed, on a session of their own; close the stream (try-with-resources) to release the statement and session.
+     * @return A lazily fetched stream of maps of column name to object values.
+     */
+    public Stream<Map<String,Object>> streamMaps() {
+        return streamRows(rowSchema -> rowSchema::readMap);
+    }
+
+    /**
+     * Stream the results of the query as objects of type T: entities, single column values or beans.  Rows are
+     * fetched as the stream is consumed, on a session of their own, and entities are cleared from the session every
+     * fetch size rows, just before the next row is fetched, so each entity stays attached (lazy associations
+     * included) while it is being consumed; close the stream (try-with-resources) to release the statement and
+     * session.
+     * @param type The type class.
+     * @param <T> The type.
+     * @return A lazily fetched stream of objects of type T.
+     */
+    public <T> Stream<T> stream(Class<T> type) {
+        if(!type.isAnnotationPresent(Entity.class)) {
+            return streamRows(rowSchema -> rowMapper(type, rowSchema));
+        }
+        if(sql == null) {
+            throw new RuntimeException("No sql set");
+        }
+        Session streamSession = sessionFactory(config).openSession();
+        try {
+            streamSession.beginTransaction();
+            int streamFetchSize = streamSession.doReturningWork(this::fetchSize);
+            NativeQuery<T> query = streamSession.createNativeQuery(sql, type);
+            for (int i = 0; i < bindVars.size(); i++) {
+                query.setParameter(i + 1, bindVars.get(i));
+            }
+            query.setFetchSize(streamFetchSize);
+            int clearInterval = streamFetchSize > 0 ? streamFetchSize : DEFAULT_FETCH_SIZE;
+            Stream<T> results = query.stream();
+            Iterator<T> iterator = results.iterator();
+            Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+                /** The number of entities handed out */
+                private long count;
+
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    // clear before fetching the next entity, never before the last one has been handed out
+                    if(count > 0 && count % clearInterval == 0)
+                        streamSession.clear();
+                    if(!iterator.hasNext())
+                        return false;
+                    count++;
+                    action.accept(iterator.next());
+                    return true;
+                }
+            };
+            return StreamSupport.stream(spliterator, false)
+                    .onClose(() -> {
+                        results.close();
+                        closeStream(streamSession, null);
+                    });
+        } catch (RuntimeException e) {
+            closeStream(streamSession, null);
+            throw e;
+        }
+    }
+
+    /**
+     * Run the query on a session of its own and stream its rows.
+     * @param rowMapper Creates the row mapper from the result's {@link RowSchema}.
+     * @param <T> The type of the mapped rows.
+     * @return A lazily fetched stream that releases the statement and session when it is closed.
+     */
+    private <T> Stream<T> streamRows(Function<RowSchema,RowMapper<T>> rowMapper) {
+        if(sql == null) {
+            throw new RuntimeException("No sql set");
+        }
+        Session streamSession = sessionFactory(config).openSession();
+        try {
+            streamSession.beginTransaction();
+            ResultSet resultSet = streamSession.doReturningWork(connection -> {
+                PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize(connection));
+                bindVariables(bindVars, statement);
+                return statement.executeQuery();
+            });
+            return StreamSupport.stream(new ResultSetSpliterator<>(resultSet, rowMapper), false)
+                    .onClose(() -> closeStream(streamSession, resultSet));
+        } catch (RuntimeException e) {
+            closeStream(streamSession, null);
+            throw e;
+        }
+    }
+
+    /**
+     * Get the fetch size to use for a streamed query.
+     * @param connection The {@link Connection}.
+     * @return The fetch size set with {@link #fetchSize(int)}, or Integer.MIN_VALUE (row by row streaming) for MySQL,
+     * or {@link #DEFAULT_FETCH_SIZE}.
+     * @throws SQLException When the connection meta data can't be read.
+     */
+    private int fetchSize(Connection connection) throws SQLException {
+        return fetchSize != null ? fetchSize : streamingFetchSize(connection);
+    }
+
+    /**
+     * Get the driver appropriate fetch size for streaming a large result.
+     * @param connection The {@link Connection}.
+     * @return Integer.MIN_VALUE (row by row streaming) for MySQL, or {@link #DEFAULT_FETCH_SIZE}.
+     * @throws SQLException When the connection meta data can't be read.
+     */
+    static int streamingFetchSize(Connection connection) throws SQLException {
+        if("MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName()))
+            return Integer.MIN_VALUE;
+        return DEFAULT_FETCH_SIZE;
+    }
+
+    /**
+     * Get the jdbc batch size to use for stores and inserts.
+     * @return The batch size set with {@link #batchSize(int)}, or the config's hibernate.jdbc.batch_size.
+     */
+    private int batchSize() {
+        if(batchSize != null)
+            return batchSize;
+        int configured = ((SessionFactoryImplementor) sessionFactory(config)).getSessionFactoryOptions().getJdbcBatchSize();
+        return configured > 0 ? configured : 1;
+    }
+
+    /**
+     * Get the row mapper for a type that isn't an entity: single column values for scalar types, a precompiled
+     * {@link BeanRowMapper} for anything else.
+     * @param type The type class.
+     * @param rowSchema The columns of the result.
+     * @param <T> The type.
+     * @return The row mapper.
+     */
+    private static <T> RowMapper<T> rowMapper(Class<T> type, RowSchema rowSchema) {
+        if(BeanRowMapper.isScalar(type)) {
+            //noinspection unchecked
+            return resultSet -> (T) resultSet.getObject(1);
+        }
+        return BeanRowMapper.of(type, rowSchema);
     }
 
     /**
-     * Feed a list of entity results through the callback.  If the callback returns false, stop.
+     * Release the resources behind a stream.  The session's transaction is only used to hold the connection, so it
+     * is rolled back.
+     * @param streamSession The session the stream runs on.
+     * @param resultSet The result set being streamed.  May be null.
+     */
+    private static void closeStream(Session streamSession, ResultSet resultSet) {
+        try {
+            if(resultSet != null) {
+                Statement statement = resultSet.getStatement();
+                resultSet.close();
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if(streamSession.getTransaction().isActive())
+                streamSession.getTransaction().rollback();
+            streamSession.close();
+        }
+    }
+
+    /**
+     * Feed a list of entity results through the callback.  If the callback returns false, stop.  Results are read
+     * from a forward-only cursor and the session is cleared periodically, so stopping early stops fetching and memory
+     * use doesn't grow with the size of the result.
      * @param type is the type of entity.
      * @param entityCallback is the entity callback.
      * @param <T> is the type.
      * @return true for success, false for failure.
      */
     public <T> boolean entityCallback(Class<T> type, EntityCallback<T> entityCallback) {
-        boolean passed = true;
+        return entityCallback(type, 1, entities -> entityCallback.apply(entities.get(0)));
+    }
 
-        List<T> entities = selectList(type);
+    /**
+     * Feed entity results through the callback in chunks of up to <code>chunkSize</code> entities.  If the callback
+     * returns false, stop.  Results are read from a forward-only cursor and the session is cleared periodically, so
+     * entities from earlier chunks are detached.
+     * @param type is the type of entity.
+     * @param chunkSize The maximum number of entities per chunk.
+     * @param entityChunkCallback is the callback.
+     * @param <T> is the type.
+     * @return true for success, false for failure.
+     */
+    public <T> boolean entityCallback(Class<T> type, int chunkSize, EntityChunkCallback<T> entityChunkCallback) {
+        if(chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+        if(!type.isAnnotationPresent(Entity.class)) {
+            try(Stream<T> results = stream(type)) {
+                return feedChunks(results.iterator(), chunkSize, entityChunkCallback, null, 0);
+            }
+        }
+        if(sql == null) {
+            throw new RuntimeException("No sql set");
+        }
+        Session scrollSession = sessionFactory(config).openSession();
+        try {
+            scrollSession.beginTransaction();
+            int scrollFetchSize = scrollSession.doReturningWork(this::fetchSize);
+            NativeQuery<T> query = scrollSession.createNativeQuery(sql, type);
+            for (int i = 0; i < bindVars.size(); i++) {
+                query.setParameter(i + 1, bindVars.get(i));
+            }
+            query.setFetchSize(scrollFetchSize);
+            query.setReadOnly(true);
+            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                Iterator<T> iterator = new Iterator<T>() {
+                    /** Whether the cursor has been advanced to a row that hasn't been returned yet */
+                    private Boolean advanced;
+
+                    @Override
+                    public boolean hasNext() {
+                        if(advanced == null)
+                            advanced = results.next();
+                        return advanced;
+                    }
 
-        for(T entity : entities) {
-            if(!entityCallback.apply(entity)) {
-                passed = false;
-                break;
+                    @Override
+                    public T next() {
+                        if(!hasNext())
+                            throw new NoSuchElementException();
+                        advanced = null;
+                        //noinspection unchecked
+                        return (T) results.get(0);
+                    }
+                };
+                int clearInterval = Math.max(chunkSize, scrollFetchSize > 0 ? scrollFetchSize : DEFAULT_FETCH_SIZE);
+                return feedChunks(iterator, chunkSize, entityChunkCallback, scrollSession, clearInterval);
+            } finally {
+                results.close();
             }
+        } finally {
+            if(scrollSession.getTransaction().isActive())
+                scrollSession.getTransaction().rollback();
+            scrollSession.close();
         }
+    }
 
-        return passed;
+    /**
+     * Feed results through a chunk callback.
+     * @param results The results.
+     * @param chunkSize The maximum number of results per chunk.
+     * @param entityChunkCallback The callback.
+     * @param scrollSession The session to clear periodically.  May be null.
+     * @param clearInterval Clear the session after at least this many results.
+     * @param <T> The type of the results.
+     * @return true if every chunk was fed to the callback, false if the callback stopped early.
+     */
+    private static <T> boolean feedChunks(Iterator<T> results, int chunkSize, EntityChunkCallback<T> entityChunkCallback,
+                                          Session scrollSession, int clearInterval) {
+        List<T> chunk = new ArrayList<>(chunkSize);
+        int sinceClear = 0;
+        while(results.hasNext()) {
+            chunk.add(results.next());
+            if(chunk.size() == chunkSize) {
+                if(!entityChunkCallback.apply(chunk))
+                    return false;
+                sinceClear += chunk.size();
+                chunk = new ArrayList<>(chunkSize);
+                if(scrollSession != null && sinceClear >= clearInterval) {
+                    scrollSession.clear();
+                    sinceClear = 0;
+                }
+            }
+        }
+        return chunk.isEmpty() || entityChunkCallback.apply(chunk);
     }
 
     /**
@@ -480,124 +1499,113 @@ public class DatabaseUtils {
         if(sql == null) {
             throw new RuntimeException("No sql set");
         }
-        if(!nocache && cache.containsKey(sql)) {
-            Tuple4<Long, Long, TimeUnit, Object> result = cache.get(sql);
-            if (result.getValue1() >= new Date().getTime()) {
-                //noinspection unchecked
-                return (List<Object[]>) result.getValue4();
-            }
-        }
-        try (Session hibernateSession = session()) {
-            return hibernateSession.doReturningWork(connection -> {
-                PreparedStatement statement = connection.prepareStatement(sql);
-                bindVariables(bindVars, statement);
-                ResultSet resultSet = statement.executeQuery();
+        return cached(() -> cacheKey(QueryCacheKey.Shape.ROWS), DatabaseUtils::loadRows);
+    }
+
+    /**
+     * Run the query and read every row as an array of objects.
+     * @return An list of arrays of objects.
+     */
+    private List<Object[]> loadRows() {
+        Session hibernateSession = session();
+        try {
+            return hibernateSession.doReturningWork(connection -> statementCache.query(connection, sql, bindVars, resultSet -> {
+                RowSchema rowSchema = RowSchema.of(resultSet.getMetaData());
                 List<Object[]> rows = new ArrayList<>();
                 while (resultSet.next()) {
-                    int columnCount = resultSet.getMetaData().getColumnCount();
-                    Object[] row = new Object[columnCount];
-                    for (int i = 0; i < columnCount; i++) {
-                        row[i] = resultSet.getObject(i + 1);
-                    }
-                    rows.add(row);
-                }
-                if(cacheTime > 0 && cacheTimeUnit != null) {
-                    cache.put(sql, new Tuple4<>(new Date().getTime() + cacheTimeUnit.toMillis(cacheTime), cacheTime, cacheTimeUnit, rows));
+                    rows.add(rowSchema.readArray(resultSet));
                 }
                 return rows;
-            });
+            }));
+        } finally {
+            releaseSession();
         }
     }
 
     /**
-     * Select an object of type T from the database.
+     * Select an object of type T from the database.  Entities are loaded through Hibernate, scalar types from the
+     * first column, and any other class is mapped as a bean by {@link BeanRowMapper}.
      * @param type The type class.
      * @param <T> The type.
      * @return An optional object of type T.
      */
     public <T> Optional<T> select(Class<T> type) {
-        if(!nocache && cache.containsKey(sql)) {
-            Tuple4<Long, Long, TimeUnit, Object> result = cache.get(sql);
-            if (result.getValue1() >= new Date().getTime()) {
-                //noinspection unchecked
-                return result == null ? Optional.empty() : Optional.of((T) result.getValue4());
-            }
-        }
-        try (Session hibernateSession = session()) {
-            T result;
+        T result = cached(() -> cacheKey(QueryCacheKey.Shape.OBJECT, type), databaseUtils -> databaseUtils.loadObject(type));
+        return result == null ? Optional.empty() : Optional.of(result);
+    }
+
+    /**
+     * Run the query and read a single object of type T.
+     * @param type The type class.
+     * @param <T> The type.
+     * @return The object, or null if there were no results.
+     */
+    private <T> T loadObject(Class<T> type) {
+        Session hibernateSession = session();
+        try {
             if(!type.isAnnotationPresent(Entity.class) ) {
-                result = hibernateSession.doReturningWork(connection -> {
-                    PreparedStatement preparedStatement = connection.prepareStatement(sql);
-                    bindVariables(bindVars, preparedStatement);
-                    try(ResultSet resultSet = preparedStatement.executeQuery()) {
-                        T t = null;
-                        if (resultSet.next()) {
-                            //noinspection unchecked
-                            t = (T) resultSet.getObject(1);
-                        }
-                        if (resultSet.next()) {
-                            throw new RuntimeException("Expected 1 result but multiple results returned");
-                        }
-                        return t;
+                return hibernateSession.doReturningWork(connection -> statementCache.query(connection, sql, bindVars, resultSet -> {
+                    T t = null;
+                    if (resultSet.next()) {
+                        t = rowMapper(type, RowSchema.of(resultSet.getMetaData())).apply(resultSet);
+                    }
+                    if (resultSet.next()) {
+                        throw new RuntimeException("Expected 1 result but multiple results returned");
                     }
-                });
+                    return t;
+                }));
             } else {
                 Query query = hibernateSession.createNativeQuery(sql, type);
                 for (int i = 0; i < bindVars.size(); i++) {
                     query.setParameter(i + 1, bindVars.get(i));
                 }
                 //noinspection unchecked
-                result = (T) query.getSingleResult();
+                return (T) query.getSingleResult();
             }
-            //noinspection unchecked
-            if(cacheTime > 0 && cacheTimeUnit != null) {
-                cache.put(sql, new Tuple4<>(new Date().getTime() + cacheTimeUnit.toMillis(cacheTime), cacheTime, cacheTimeUnit, result));
-            }
-            return result == null ? Optional.empty() : Optional.of(result);
+        } finally {
+            releaseSession();
         }
     }
 
     /**
-     * Select a list of objects of type T from the database.
+     * Select a list of objects of type T from the database.  Entities are loaded through Hibernate, scalar types from
+     * the first column, and any other class is mapped as a bean by {@link BeanRowMapper}.
      * @param type The type class.
      * @param <T> The type.
      * @return A List of objects of type T.
      */
     public <T> List<T> selectList(Class<T> type) {
-        if(!nocache && cache.containsKey(sql)) {
-            Tuple4<Long, Long, TimeUnit, Object> result = cache.get(sql);
-            if (result.getValue1() >= new Date().getTime()) {
-                //noinspection unchecked
-                return (List<T>) result.getValue4();
-            }
-        }
-        try (Session hibernateSession = session()) {
-            List<T> result;
+        return cached(() -> cacheKey(QueryCacheKey.Shape.OBJECT_LIST, type), databaseUtils -> databaseUtils.loadObjectList(type));
+    }
+
+    /**
+     * Run the query and read every row as an object of type T.
+     * @param type The type class.
+     * @param <T> The type.
+     * @return A List of objects of type T.
+     */
+    private <T> List<T> loadObjectList(Class<T> type) {
+        Session hibernateSession = session();
+        try {
             if(!type.isAnnotationPresent(Entity.class) ) {
-                result = hibernateSession.doReturningWork(connection -> {
+                return hibernateSession.doReturningWork(connection -> statementCache.query(connection, sql, bindVars, resultSet -> {
                     List<T> results = new ArrayList<>();
-                    PreparedStatement preparedStatement = connection.prepareStatement(sql);
-                    bindVariables(bindVars, preparedStatement);
-                    try(ResultSet resultSet = preparedStatement.executeQuery()) {
-                        while(resultSet.next()) {
-                            //noinspection unchecked
-                            results.add((T) resultSet.getObject(1));
-                        }
-                        return results;
+                    RowMapper<T> rowMapper = rowMapper(type, RowSchema.of(resultSet.getMetaData()));
+                    while(resultSet.next()) {
+                        results.add(rowMapper.apply(resultSet));
                     }
-                });
+                    return results;
+                }));
             } else {
                 Query query = hibernateSession.createNativeQuery(sql, type);
                 for (int i = 0; i < bindVars.size(); i++) {
                     query.setParameter(i + 1, bindVars.get(i));
                 }
                 //noinspection unchecked
-                result = query.getResultList();
+                return query.getResultList();
             }
-            if(cacheTime > 0 && cacheTimeUnit != null) {
-                cache.put(sql, new Tuple4<>(new Date().getTime() + cacheTimeUnit.toMillis(cacheTime), cacheTime, cacheTimeUnit, result));
-            }
-            return result;
+        } finally {
+            releaseSession();
         }
     }
 
@@ -618,34 +1626,26 @@ public class DatabaseUtils {
      * @return A list of maps of column name to object values.
      */
     public List<Map<String,Object>> selectMapList() {
-        if(!nocache && cache.containsKey(sql)) {
-            Tuple4<Long, Long, TimeUnit, Object> result = cache.get(sql);
-            if (result.getValue1() >= new Date().getTime()) {
-                //noinspection unchecked
-                return (List<Map<String,Object>>) result.getValue4();
-            }
-        }
-        try (Session hibernateSession = session()) {
-            return hibernateSession.doReturningWork(connection -> {
-                PreparedStatement statement = connection.prepareStatement(sql);
-                bindVariables(bindVars, statement);
-                ResultSet resultSet = statement.executeQuery();
+        return cached(() -> cacheKey(QueryCacheKey.Shape.MAPS), DatabaseUtils::loadMaps);
+    }
+
+    /**
+     * Run the query and read every row as a map of column name to object values.
+     * @return A list of maps of column name to object values.
+     */
+    private List<Map<String,Object>> loadMaps() {
+        Session hibernateSession = session();
+        try {
+            return hibernateSession.doReturningWork(connection -> statementCache.query(connection, sql, bindVars, resultSet -> {
+                RowSchema rowSchema = RowSchema.of(resultSet.getMetaData());
                 List<Map<String, Object>> rows = new ArrayList<>();
                 while (resultSet.next()) {
-                    Map<String, Object> map = new HashMap<>();
-                    int columnCount = resultSet.getMetaData().getColumnCount();
-                    for (int i = 0; i < columnCount; i++) {
-                        String colName = resultSet.getMetaData().getColumnName(i + 1);
-                        Object value = resultSet.getObject(i + 1);
-                        map.put(colName, value);
-                    }
-                    rows.add(map);
-                }
-                if(cacheTime > 0 && cacheTimeUnit != null) {
-                    cache.put(sql, new Tuple4<>(new Date().getTime() + cacheTimeUnit.toMillis(cacheTime), cacheTime, cacheTimeUnit, rows));
+                    rows.add(rowSchema.readMap(resultSet));
                 }
                 return rows;
-            });
+            }));
+        } finally {
+            releaseSession();
         }
     }
 
@@ -659,18 +1659,8 @@ public class DatabaseUtils {
      * @return An Optional Tuple2<U,V>.
      */
     public <T,U> Optional<Tuple2<T,U>> selectTuple(Class<T> class1, Class<U> class2) {
-        if(!nocache && cache.containsKey(sql)) {
-            Tuple4<Long, Long, TimeUnit, Object> result = cache.get(sql);
-            if (result.getValue1() >= new Date().getTime()) {
-                //noinspection unchecked
-                return (Optional<Tuple2<T,U>>) result.getValue4();
-            }
-        }
-        Optional<Tuple2<T,U>> result = resultSetCallback(resultSet -> TupleQuery.select(resultSet, class1, class2));
-        if(cacheTime > 0 && cacheTimeUnit != null) {
-            cache.put(sql, new Tuple4<>(new Date().getTime() + cacheTimeUnit.toMillis(cacheTime), cacheTime, cacheTimeUnit, result));
-        }
-        return result;
+        return cached(() -> cacheKey(QueryCacheKey.Shape.TUPLE, class1, class2), databaseUtils ->
+                databaseUtils.resultSetCallback(resultSet -> TupleQuery.select(resultSet, class1, class2)));
     }
 
     /**
@@ -682,18 +1672,8 @@ public class DatabaseUtils {
      * @return A List of  Tuple2<T,U> objects.
      */
     public <T,U> List<Tuple2<T,U>> selectTupleList(Class<T> class1, Class<U> class2) {
-        if(!nocache && cache.containsKey(sql)) {
-            Tuple4<Long, Long, TimeUnit, Object> result = cache.get(sql);
-            if (result.getValue1() >= new Date().getTime()) {
-                //noinspection unchecked
-                return (List<Tuple2<T,U>>) result.getValue4();
-            }
-        }
-        List<Tuple2<T,U>> result = resultSetCallback(resultSet -> TupleQuery.selectList(resultSet, class1, class2));
-        if(cacheTime > 0 && cacheTimeUnit != null) {
-            cache.put(sql, new Tuple4<>(new Date().getTime() + cacheTimeUnit.toMillis(cacheTime), cacheTime, cacheTimeUnit, result));
-        }
-        return result;
+        return cached(() -> cacheKey(QueryCacheKey.Shape.TUPLE_LIST, class1, class2), databaseUtils ->
+                databaseUtils.resultSetCallback(resultSet -> TupleQuery.selectList(resultSet, class1, class2)));
     }
 
     /**
@@ -707,18 +1687,8 @@ public class DatabaseUtils {
      * @return An Optional Tuple3<T,U,V> object.
      */
     public <T,U,V> Optional<Tuple3<T,U,V>> selectTuple(Class<T> class1, Class<U> class2, Class<V> class3) {
-        if(!nocache && cache.containsKey(sql)) {
-            Tuple4<Long, Long, TimeUnit, Object> result = cache.get(sql);
-            if (result.getValue1() >= new Date().getTime()) {
-                //noinspection unchecked
-                return (Optional<Tuple3<T,U,V>>) result.getValue4();
-            }
-        }
-        Optional<Tuple3<T,U,V>> result = resultSetCallback(resultSet -> TupleQuery.select(resultSet, class1, class2, class3));
-        if(cacheTime > 0 && cacheTimeUnit != null) {
-            cache.put(sql, new Tuple4<>(new Date().getTime() + cacheTimeUnit.toMillis(cacheTime), cacheTime, cacheTimeUnit, result));
-        }
-        return result;
+        return cached(() -> cacheKey(QueryCacheKey.Shape.TUPLE, class1, class2, class3), databaseUtils ->
+                databaseUtils.resultSetCallback(resultSet -> TupleQuery.select(resultSet, class1, class2, class3)));
     }
 
     /**
@@ -732,18 +1702,8 @@ public class DatabaseUtils {
      * @return A List of  Tuple3<T,U,V> objects.
      */
     public <T,U,V> List<Tuple3<T,U,V>> selectTupleList(Class<T> class1, Class<U> class2, Class<V> class3) {
-        if(!nocache && cache.containsKey(sql)) {
-            Tuple4<Long, Long, TimeUnit, Object> result = cache.get(sql);
-            if (result.getValue1() >= new Date().getTime()) {
-                //noinspection unchecked
-                return (List<Tuple3<T,U,V>>) result.getValue4();
-            }
-        }
-        List<Tuple3<T,U,V>> result = resultSetCallback(resultSet -> TupleQuery.selectList(resultSet, class1, class2, class3));
-        if(cacheTime > 0 && cacheTimeUnit != null) {
-            cache.put(sql, new Tuple4<>(new Date().getTime() + cacheTimeUnit.toMillis(cacheTime), cacheTime, cacheTimeUnit, result));
-        }
-        return result;
+        return cached(() -> cacheKey(QueryCacheKey.Shape.TUPLE_LIST, class1, class2, class3), databaseUtils ->
+                databaseUtils.resultSetCallback(resultSet -> TupleQuery.selectList(resultSet, class1, class2, class3)));
     }
 
     /**
@@ -761,13 +1721,12 @@ public class DatabaseUtils {
      * @return An Optional Tuple4<T,U,V,W> object.
      */
     public <T,U,V,W> Optional<Tuple4<T,U,V,W>> selectTuple(String query, List<Object> bindVars, Class<T> class1, Class<U> class2, Class<V> class3, Class<W> class4) {
-        try (Session hibernateSession = session()) {
-            return hibernateSession.doReturningWork(connection -> {
-                PreparedStatement preparedStatement = connection.prepareStatement(query);
-                bindVariables(bindVars, preparedStatement);
-                ResultSet resultSet = preparedStatement.executeQuery();
-                return TupleQuery.select(resultSet, class1, class2, class3, class4);
-            });
+        Session hibernateSession = session();
+        try {
+            return hibernateSession.doReturningWork(connection -> statementCache.query(connection, query, bindVars, resultSet ->
+                        TupleQuery.select(resultSet, class1, class2, class3, class4)));
+        } finally {
+            releaseSession();
         }
     }
 
@@ -804,13 +1763,12 @@ public class DatabaseUtils {
      * @return A List of  Tuple4<T,U,V,W> objects.
      */
     public <T,U,V,W> List<Tuple4<T,U,V,W>> selectTupleList(String query, List<Object> bindVars, Class<T> class1, Class<U> class2, Class<V> class3, Class<W> class4) {
-        try (Session hibernateSession = session()) {
-            return hibernateSession.doReturningWork(connection -> {
-                PreparedStatement preparedStatement = connection.prepareStatement(query);
-                bindVariables(bindVars, preparedStatement);
-                ResultSet resultSet = preparedStatement.executeQuery();
-                return TupleQuery.selectList(resultSet, class1, class2, class3, class4);
-            });
+        Session hibernateSession = session();
+        try {
+            return hibernateSession.doReturningWork(connection -> statementCache.query(connection, query, bindVars, resultSet ->
+                        TupleQuery.selectList(resultSet, class1, class2, class3, class4)));
+        } finally {
+            releaseSession();
         }
     }
 
@@ -850,13 +1808,12 @@ public class DatabaseUtils {
      * @return An Optional Tuple5<T,U,V,W,X> object.
      */
     public <T,U,V,W,X> Optional<Tuple5<T,U,V,W,X>> selectTuple(String query, List<Object> bindVars, Class<T> class1, Class<U> class2, Class<V> class3, Class<W> class4, Class<X> class5) {
-        try (Session hibernateSession = session()) {
-            return hibernateSession.doReturningWork(connection -> {
-                PreparedStatement preparedStatement = connection.prepareStatement(query);
-                bindVariables(bindVars, preparedStatement);
-                ResultSet resultSet = preparedStatement.executeQuery();
-                return TupleQuery.select(resultSet, class1, class2, class3, class4, class5);
-            });
+        Session hibernateSession = session();
+        try {
+            return hibernateSession.doReturningWork(connection -> statementCache.query(connection, query, bindVars, resultSet ->
+                        TupleQuery.select(resultSet, class1, class2, class3, class4, class5)));
+        } finally {
+            releaseSession();
         }
     }
 
@@ -898,13 +1855,12 @@ public class DatabaseUtils {
      * @return A List of  Tuple4<T,U,V,W,X> objects.
      */
     public <T,U,V,W,X> List<Tuple5<T,U,V,W,X>> selectTupleList(String query, List<Object> bindVars, Class<T> class1, Class<U> class2, Class<V> class3, Class<W> class4, Class<X> class5) {
-        try (Session hibernateSession = session()) {
-            return hibernateSession.doReturningWork(connection -> {
-                PreparedStatement preparedStatement = connection.prepareStatement(query);
-                bindVariables(bindVars, preparedStatement);
-                ResultSet resultSet = preparedStatement.executeQuery();
-                return TupleQuery.selectList(resultSet, class1, class2, class3, class4, class5);
-            });
+        Session hibernateSession = session();
+        try {
+            return hibernateSession.doReturningWork(connection -> statementCache.query(connection, query, bindVars, resultSet ->
+                        TupleQuery.selectList(resultSet, class1, class2, class3, class4, class5)));
+        } finally {
+            releaseSession();
         }
     }
 
@@ -948,13 +1904,12 @@ public class DatabaseUtils {
      * @return An Optional Tuple6<T,U,V,W,X,Y> object.
      */
     public <T,U,V,W,X,Y> Optional<Tuple6<T,U,V,W,X,Y>> selectTuple(String query, List<Object> bindVars, Class<T> class1, Class<U> class2, Class<V> class3, Class<W> class4, Class<X> class5, Class<Y> class6) {
-        try (Session hibernateSession = session()) {
-            return hibernateSession.doReturningWork(connection -> {
-                PreparedStatement preparedStatement = connection.prepareStatement(query);
-                bindVariables(bindVars, preparedStatement);
-                ResultSet resultSet = preparedStatement.executeQuery();
-                return TupleQuery.select(resultSet, class1, class2, class3, class4, class5, class6);
-            });
+        Session hibernateSession = session();
+        try {
+            return hibernateSession.doReturningWork(connection -> statementCache.query(connection, query, bindVars, resultSet ->
+                        TupleQuery.select(resultSet, class1, class2, class3, class4, class5, class6)));
+        } finally {
+            releaseSession();
         }
     }
 
@@ -1000,13 +1955,12 @@ public class DatabaseUtils {
      * @return A List of  Tuple6<T,U,V,W,X,Y> objects.
      */
     public <T,U,V,W,X,Y> List<Tuple6<T,U,V,W,X,Y>> selectTupleList(String query, List<Object> bindVars, Class<T> class1, Class<U> class2, Class<V> class3, Class<W> class4, Class<X> class5, Class<Y> class6) {
-        try (Session hibernateSession = session()) {
-            return hibernateSession.doReturningWork(connection -> {
-                PreparedStatement preparedStatement = connection.prepareStatement(query);
-                bindVariables(bindVars, preparedStatement);
-                ResultSet resultSet = preparedStatement.executeQuery();
-                return TupleQuery.selectList(resultSet, class1, class2, class3, class4, class5, class6);
-            });
+        Session hibernateSession = session();
+        try {
+            return hibernateSession.doReturningWork(connection -> statementCache.query(connection, query, bindVars, resultSet ->
+                        TupleQuery.selectList(resultSet, class1, class2, class3, class4, class5, class6)));
+        } finally {
+            releaseSession();
         }
     }
 
@@ -1054,13 +2008,12 @@ public class DatabaseUtils {
      * @return An Optional Tuple7<T,U,V,W,X,Y,Z> object.
      */
     public <T,U,V,W,X,Y,Z> Optional<Tuple7<T,U,V,W,X,Y,Z>> selectTuple(String query, List<Object> bindVars, Class<T> class1, Class<U> class2, Class<V> class3, Class<W> class4, Class<X> class5, Class<Y> class6, Class<Z> class7) {
-        try (Session hibernateSession = session()) {
-            return hibernateSession.doReturningWork(connection -> {
-                PreparedStatement preparedStatement = connection.prepareStatement(query);
-                bindVariables(bindVars, preparedStatement);
-                ResultSet resultSet = preparedStatement.executeQuery();
-                return TupleQuery.select(resultSet, class1, class2, class3, class4, class5, class6, class7);
-            });
+        Session hibernateSession = session();
+        try {
+            return hibernateSession.doReturningWork(connection -> statementCache.query(connection, query, bindVars, resultSet ->
+                        TupleQuery.select(resultSet, class1, class2, class3, class4, class5, class6, class7)));
+        } finally {
+            releaseSession();
         }
     }
 
@@ -1110,13 +2063,12 @@ public class DatabaseUtils {
      * @return A List of  Tuple7<T,U,V,W,X,Y,Z> objects.
      */
     public <T,U,V,W,X,Y,Z> List<Tuple7<T,U,V,W,X,Y,Z>> selectTupleList(String query, List<Object> bindVars, Class<T> class1, Class<U> class2, Class<V> class3, Class<W> class4, Class<X> class5, Class<Y> class6, Class<Z> class7) {
-        try (Session hibernateSession = session()) {
-            return hibernateSession.doReturningWork(connection -> {
-                PreparedStatement preparedStatement = connection.prepareStatement(query);
-                bindVariables(bindVars, preparedStatement);
-                ResultSet resultSet = preparedStatement.executeQuery();
-                return TupleQuery.selectList(resultSet, class1, class2, class3, class4, class5, class6, class7);
-            });
+        Session hibernateSession = session();
+        try {
+            return hibernateSession.doReturningWork(connection -> statementCache.query(connection, query, bindVars, resultSet ->
+                        TupleQuery.selectList(resultSet, class1, class2, class3, class4, class5, class6, class7)));
+        } finally {
+            releaseSession();
         }
     }
 
@@ -1144,6 +2096,144 @@ public class DatabaseUtils {
         return selectTupleList(query, bindVars == null ? Collections.emptyList() : Arrays.asList(bindVars), class1, class2, class3, class4, class5, class6, class7);
     }
 
+    /**
+     * Create a cache key for the current config, sql and bind variables.
+     * @param shape The shape of the result.
+     * @param types The classes the result is mapped to, if any.
+     * @return A cache key.
+     */
+    private QueryCacheKey cacheKey(QueryCacheKey.Shape shape, Class<?>... types) {
+        Set<String> tables = SqlTables.tables(sql);
+        for(Class<?> type : types) {
+            if(!tables.isEmpty() && type.isAnnotationPresent(Entity.class)) {
+                tables = new HashSet<>(tables);
+                tables.addAll(entityTables(type));
+            }
+        }
+        return new QueryCacheKey(config, sql, bindVars, tables, shape, types);
+    }
+
+    /**
+     * Get the tables an entity is loaded from, including the tables of the entities and collections it is
+     * associated with, since those are fetched along with it.
+     * @param type The entity class.
+     * @return The lower case table names, or an empty set if they can't be determined.
+     */
+    private Set<String> entityTables(Class<?> type) {
+        return entityTables.computeIfAbsent(type, t -> {
+            Set<String> tables = new HashSet<>();
+            try {
+                SessionFactoryImplementor factory = (SessionFactoryImplementor) sessionFactory(config);
+                addEntityTables(factory, factory.getMetamodel().entityPersister(t), tables, new HashSet<>());
+            } catch (RuntimeException e) {
+                return Collections.emptySet();
+            }
+            return Collections.unmodifiableSet(tables);
+        });
+    }
+
+    /**
+     * Add the tables for an entity and, recursively, its associations.
+     * @param factory The session factory.
+     * @param persister The entity persister.
+     * @param tables The table names to add to.
+     * @param visited The names of the entities already visited.
+     */
+    private static void addEntityTables(SessionFactoryImplementor factory, EntityPersister persister, Set<String> tables,
+                                        Set<String> visited) {
+        if(!visited.add(persister.getEntityName()))
+            return;
+        for(Object querySpace : persister.getQuerySpaces())
+            tables.add(SqlTables.normalize(querySpace.toString()));
+        for(Type type : persister.getPropertyTypes()) {
+            if(!type.isAssociationType())
+                continue;
+            Joinable joinable = ((AssociationType) type).getAssociatedJoinable(factory);
+            tables.add(SqlTables.normalize(joinable.getTableName()));
+            Type elementType = type.isCollectionType() ? ((CollectionType) type).getElementType(factory) : type;
+            if(elementType.isEntityType()) {
+                String entityName = ((EntityType) elementType).getAssociatedEntityName(factory);
+                addEntityTables(factory, factory.getMetamodel().entityPersister(entityName), tables, visited);
+            }
+        }
+    }
+
+    /**
+     * Record that tables were written, so their cached results are invalidated when the transaction ends.
+     * @param tables The lower case table names, or an empty set if they aren't known.
+     */
+    private void tablesWritten(Set<String> tables) {
+        SessionState state = state();
+        if(tables.isEmpty())
+            state.wroteUnknownTables = true;
+        else
+            state.writtenTables.addAll(tables);
+    }
+
+    /**
+     * Invalidate cached results for the tables written since the last commit or rollback.  Results for the tables
+     * are invalidated after a rollback too, since they may have been cached from inside the transaction.
+     */
+    private void invalidateWrittenTables() {
+        SessionState state = state();
+        if(state.wroteUnknownTables)
+            resultCache.invalidateAll();
+        else if(!state.writtenTables.isEmpty())
+            resultCache.invalidateTables(state.writtenTables);
+        state.writtenTables.clear();
+        state.wroteUnknownTables = false;
+    }
+
+    /**
+     * Get a result through the query cache.  Concurrent callers that miss on the same key share a single load, and
+     * if a stale time was given to {@link #cache(long, long, TimeUnit)} an expired result is served for that long
+     * while one background load refreshes it, on the async executor and within the config's cap on async calls.
+     * Queries that aren't cached (no {@link #cache(long, TimeUnit)}, or {@link #nocache()}) go straight to the
+     * database, without building a key or touching the cache or its statistics.  So do queries inside a
+     * transaction, since the cache is shared and they may read rows that aren't committed yet.
+     * @param key Creates the cache key.
+     * @param loader Runs the query against the given DatabaseUtils.
+     * @param <T> The type of the result.
+     * @return The result.
+     */
+    private <T> T cached(Supplier<QueryCacheKey> key, Function<DatabaseUtils,T> loader) {
+        if(nocache || cacheTime <= 0 || cacheTimeUnit == null || inTransaction())
+            return loader.apply(this);
+        DatabaseUtils detached = detached();
+        return resultCache.get(key.get(), cacheTime, staleTime, cacheTimeUnit, () -> loader.apply(detached),
+                task -> cappedExecutor(config).execute(task));
+    }
+
+    /**
+     * Create a copy of this object with its own session, so that a cache load can run on another thread.
+     * @return A new DatabaseUtils object with the same config, sql and bind variables.
+     */
+    private DatabaseUtils detached() {
+        DatabaseUtils detached = new DatabaseUtils(config);
+        detached.sql = sql;
+        detached.bindVars = new ArrayList<>(bindVars);
+        detached.nocache = true;
+        return detached;
+    }
+
+    /**
+     * Create a copy of this object with its own per call session and the same query settings, so that a call can
+     * run on another thread.
+     * @return A new DatabaseUtils object with the same config, sql, bind variables, caching and sizes.
+     */
+    private DatabaseUtils copy() {
+        DatabaseUtils copy = new DatabaseUtils(config);
+        copy.sql = sql;
+        copy.bindVars = new ArrayList<>(bindVars);
+        copy.nocache = nocache;
+        copy.cacheTime = cacheTime;
+        copy.staleTime = staleTime;
+        copy.cacheTimeUnit = cacheTimeUnit;
+        copy.fetchSize = fetchSize;
+        copy.batchSize = batchSize;
+        return copy;
+    }
+
     /**
      * Bind the variables to the prepared statement.
      * @param bindVars The variables to bind.
@@ -0,0 +1,13 @@
+package net.tralfamadore.dbUtils;
+
+import java.util.List;
+
+/**
+ * Class: EntityChunkCallback
+ * Receives entities a chunk at a time.  Return false to stop.
+ * @author wreh
+ */
+@FunctionalInterface
+public interface EntityChunkCallback<T> {
+    boolean apply(List<T> entities);
+}
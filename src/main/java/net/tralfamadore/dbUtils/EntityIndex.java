@@ -0,0 +1,269 @@
+package net.tralfamadore.dbUtils;
+
+import com.google.common.reflect.ClassPath;
+
+import javax.persistence.Entity;
+import javax.persistence.MappedSuperclass;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Finds the hibernate annotated classes to register with a session factory.
+ *
+ * Classes are read from the entity index files ({@link #RESOURCE}) written at compile time by
+ * {@link EntityIndexProcessor}, one per jar or classes directory, so only the entity classes themselves are loaded.
+ * The classpath is only scanned as a fallback, when there is no index at all.  Jars and classes directories that
+ * have classes in the package but no index, for example because they were compiled with annotation processing turned
+ * off, are ignored unless scanning them is asked for, since each scan loads every class in the package in the root.
+ *
+ * @author wreh
+ */
+final class EntityIndex {
+    /** The index resource */
+    static final String RESOURCE = "META-INF/dbUtils/entities";
+    /** The logger, for falling back to a classpath scan */
+    private static final Logger logger = Logger.getLogger(EntityIndex.class.getName());
+
+    /**
+     * Static methods only.
+     */
+    private EntityIndex() {
+    }
+
+    /**
+     * Get the hibernate annotated classes in a package and its sub packages, from the indexes only.
+     * @param packageName The package name.
+     * @param classLoader The class loader to read the index from and load the classes with.
+     * @return The <code>@Entity</code> and <code>@MappedSuperclass</code> classes.
+     */
+    static List<Class<?>> hibernateAnnotatedClasses(String packageName, ClassLoader classLoader) {
+        return hibernateAnnotatedClasses(packageName, classLoader, false);
+    }
+
+    /**
+     * Get the hibernate annotated classes in a package and its sub packages.
+     * @param packageName The package name.
+     * @param classLoader The class loader to read the index from and load the classes with.
+     * @param scanUnindexedRoots True to also scan the jars and classes directories that have classes in the package
+     * but no index.  Only plain jars and directories can be scanned on their own; other roots are skipped.
+     * @return The <code>@Entity</code> and <code>@MappedSuperclass</code> classes.
+     */
+    static List<Class<?>> hibernateAnnotatedClasses(String packageName, ClassLoader classLoader,
+                                                    boolean scanUnindexedRoots) {
+        Map<String,Set<String>> indexes;
+        try {
+            indexes = readIndexes(classLoader);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if(indexes.isEmpty()) {
+            logger.warning("No " + RESOURCE + " on the classpath, scanning it for entities in " + packageName);
+            return scan(packageName, classLoader);
+        }
+
+        Set<Class<?>> hibernateAnnotatedClasses = new LinkedHashSet<>();
+        for(Set<String> classNames : indexes.values()) {
+            for(String className : classNames) {
+                if(!className.startsWith(packageName + "."))
+                    continue;
+                try {
+                    Class<?> clazz = Class.forName(className, false, classLoader);
+                    if(isHibernateAnnotated(clazz))
+                        hibernateAnnotatedClasses.add(clazz);
+                } catch (ClassNotFoundException e) {
+                    logger.warning("Ignoring " + className + " from " + RESOURCE + ": class not found");
+                }
+            }
+        }
+
+        if(scanUnindexedRoots)
+            hibernateAnnotatedClasses.addAll(scanUnindexedRoots(packageName, classLoader, indexes.keySet()));
+        if(hibernateAnnotatedClasses.isEmpty())
+            logger.warning("No hibernate annotated classes in " + packageName);
+        return new ArrayList<>(hibernateAnnotatedClasses);
+    }
+
+    /**
+     * Scan the jars and classes directories that have classes in a package but no index.
+     * @param packageName The package name.
+     * @param classLoader The class loader to search and load the classes with.
+     * @param indexedRoots The roots with an index (see {@link #root(URL, String)}).
+     * @return The <code>@Entity</code> and <code>@MappedSuperclass</code> classes.
+     */
+    private static List<Class<?>> scanUnindexedRoots(String packageName, ClassLoader classLoader,
+                                                     Set<String> indexedRoots) {
+        List<Class<?>> hibernateAnnotatedClasses = new ArrayList<>();
+        Set<String> packageRoots;
+        try {
+            packageRoots = roots(classLoader, packageName.replace('.', '/'));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for(String root : packageRoots) {
+            if(indexedRoots.contains(root))
+                continue;
+            URL url = fileUrl(root);
+            if(url == null) {
+                logger.warning("No " + RESOURCE + " in " + root + " and it can't be scanned on its own, skipping it");
+                continue;
+            }
+            logger.info("No " + RESOURCE + " in " + root + ", scanning it for entities in " + packageName);
+            hibernateAnnotatedClasses.addAll(scan(packageName, url, classLoader));
+        }
+        return hibernateAnnotatedClasses;
+    }
+
+    /**
+     * Read every index on the classpath.
+     * @param classLoader The class loader to read the index from.
+     * @return The class names in the indexes, in classpath order.
+     * @throws IOException When an index can't be read.
+     */
+    static Set<String> readIndex(ClassLoader classLoader) throws IOException {
+        Set<String> classNames = new LinkedHashSet<>();
+        readIndexes(classLoader).values().forEach(classNames::addAll);
+        return classNames;
+    }
+
+    /**
+     * Read every index on the classpath, by the jar or classes directory it's in.
+     * @param classLoader The class loader to read the index from.
+     * @return The class names in each index, by root (see {@link #root(URL, String)}), in classpath order.
+     * @throws IOException When an index can't be read.
+     */
+    private static Map<String,Set<String>> readIndexes(ClassLoader classLoader) throws IOException {
+        Map<String,Set<String>> indexes = new LinkedHashMap<>();
+        for(URL index : Collections.list(classLoader.getResources(RESOURCE))) {
+            Set<String> classNames = indexes.computeIfAbsent(root(index, RESOURCE), root -> new LinkedHashSet<>());
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(),
+                    StandardCharsets.UTF_8))) {
+                reader.lines().map(String::trim).filter(EntityIndex::isClassName).forEach(classNames::add);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Find the jars and classes directories that have a resource.  Jars built without directory entries don't list
+     * their packages, so they are only found through their index.
+     * @param classLoader The class loader.
+     * @param path The resource path.
+     * @return The roots (see {@link #root(URL, String)}).
+     * @throws IOException When the class loader can't be searched.
+     */
+    private static Set<String> roots(ClassLoader classLoader, String path) throws IOException {
+        Set<String> roots = new LinkedHashSet<>();
+        for(URL url : Collections.list(classLoader.getResources(path)))
+            roots.add(root(url, path));
+        return roots;
+    }
+
+    /**
+     * Get the jar or classes directory a resource was found in, as a url string: the resource url minus the
+     * resource path, e.g. <code>jar:file:/app/lib/entities.jar!/</code> or <code>file:/app/classes/</code>.
+     * @param url The resource url.
+     * @param path The resource path.
+     * @return The root.
+     */
+    private static String root(URL url, String path) {
+        String root = url.toString();
+        if(root.endsWith("/"))
+            root = root.substring(0, root.length() - 1);
+        return root.endsWith(path) ? root.substring(0, root.length() - path.length()) : root;
+    }
+
+    /**
+     * Get the file url of a root that's a plain jar or directory.
+     * @param root The root.
+     * @return The url, or null if the root isn't a file, for example a jar nested in another jar.
+     */
+    private static URL fileUrl(String root) {
+        String file = root.startsWith("jar:file:") && root.endsWith("!/") && root.indexOf("!/") == root.length() - 2 ?
+                root.substring("jar:".length(), root.length() - 2) : root;
+        if(!file.startsWith("file:"))
+            return null;
+        try {
+            return new URL(file);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check whether a line of an index is a class name rather than a blank line or a comment.
+     * @param line The line, trimmed.
+     * @return True if the line is a class name.
+     */
+    static boolean isClassName(String line) {
+        return !line.isEmpty() && !line.startsWith("#");
+    }
+
+    /**
+     * Scan the classpath for the hibernate annotated top level classes in a package and its sub packages.  Every top
+     * level class in the package is loaded.
+     * @param packageName The package name.
+     * @param classLoader The class loader to scan.
+     * @return The <code>@Entity</code> and <code>@MappedSuperclass</code> classes.
+     */
+    static List<Class<?>> scan(String packageName, ClassLoader classLoader) {
+        List<Class<?>> hibernateAnnotatedClasses = new ArrayList<>();
+
+        ClassPath cp;
+        try {
+            cp = ClassPath.from(classLoader);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for(ClassPath.ClassInfo info : cp.getTopLevelClassesRecursive(packageName)) {
+            Class<?> clazz = info.load();
+            if(isHibernateAnnotated(clazz))
+                hibernateAnnotatedClasses.add(clazz);
+        }
+
+        return hibernateAnnotatedClasses;
+    }
+
+    /**
+     * Scan one jar or classes directory for the hibernate annotated top level classes in a package and its sub
+     * packages.  Every top level class in the package in that root is loaded.
+     * @param packageName The package name.
+     * @param root The file url of the jar or classes directory.
+     * @param classLoader The class loader to load the classes with.
+     * @return The <code>@Entity</code> and <code>@MappedSuperclass</code> classes.
+     */
+    private static List<Class<?>> scan(String packageName, URL root, ClassLoader classLoader) {
+        List<Class<?>> hibernateAnnotatedClasses = new ArrayList<>();
+        try(URLClassLoader rootLoader = new URLClassLoader(new URL[] { root }, null)) {
+            for(ClassPath.ClassInfo info : ClassPath.from(rootLoader).getTopLevelClassesRecursive(packageName)) {
+                Class<?> clazz = Class.forName(info.getName(), false, classLoader);
+                if(isHibernateAnnotated(clazz))
+                    hibernateAnnotatedClasses.add(clazz);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        return hibernateAnnotatedClasses;
+    }
+
+    /**
+     * Check whether a class is annotated with <code>@Entity</code> or <code>@MappedSuperclass</code>.
+     * @param clazz The class.
+     * @return True if the class is hibernate annotated.
+     */
+    private static boolean isHibernateAnnotated(Class<?> clazz) {
+        return clazz.isAnnotationPresent(Entity.class) || clazz.isAnnotationPresent(MappedSuperclass.class);
+    }
+}
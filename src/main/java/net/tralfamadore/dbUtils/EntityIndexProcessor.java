@@ -0,0 +1,126 @@
+package net.tralfamadore.dbUtils;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An annotation processor that writes the names of the top level <code>@Entity</code> and
+ * <code>@MappedSuperclass</code> classes being compiled to {@link EntityIndex#RESOURCE}, so
+ * {@link DatabaseUtils} can find them at startup without scanning the classpath.
+ *
+ * The processor is registered as a service, so it runs for any project that compiles entities with dbUtils on the
+ * classpath.  An index left by an earlier build is merged with the classes of an incremental build, less any class
+ * that no longer exists or is no longer an entity.
+ *
+ * @author wreh
+ */
+@SupportedAnnotationTypes({EntityIndexProcessor.ENTITY, EntityIndexProcessor.MAPPED_SUPERCLASS})
+public class EntityIndexProcessor extends AbstractProcessor {
+    /** The entity annotation */
+    static final String ENTITY = "javax.persistence.Entity";
+    /** The mapped superclass annotation */
+    static final String MAPPED_SUPERCLASS = "javax.persistence.MappedSuperclass";
+    /** The names of the indexed classes */
+    private final Set<String> classNames = new TreeSet<>();
+
+    /**
+     * See {@link AbstractProcessor#init(ProcessingEnvironment)}.  Reads the index left by an earlier build.
+     * @param processingEnv The processing environment.
+     */
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        try {
+            FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "",
+                    EntityIndex.RESOURCE);
+            try(BufferedReader reader = new BufferedReader(existing.openReader(true))) {
+                reader.lines().map(String::trim).filter(EntityIndex::isClassName).forEach(className -> {
+                    TypeElement typeElement = processingEnv.getElementUtils().getTypeElement(className);
+                    if(typeElement != null && isIndexed(typeElement))
+                        classNames.add(className);
+                });
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // no index from an earlier build
+        }
+    }
+
+    /**
+     * See {@link AbstractProcessor#getSupportedSourceVersion()}.
+     * @return The latest supported source version.
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /**
+     * Collect the annotated classes of a round, and write the index after the last round.
+     * @param annotations The annotations present in the round.
+     * @param roundEnv The round environment.
+     * @return False, so other processors still see the annotations.
+     */
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for(TypeElement annotation : annotations) {
+            for(Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if(element.getKind() == ElementKind.CLASS && isIndexed((TypeElement) element))
+                    classNames.add(((TypeElement) element).getQualifiedName().toString());
+            }
+        }
+        if(roundEnv.processingOver())
+            writeIndex();
+        return false;
+    }
+
+    /**
+     * Check whether a class belongs in the index: a top level class annotated with <code>@Entity</code> or
+     * <code>@MappedSuperclass</code>.
+     * @param typeElement The class.
+     * @return True if the class belongs in the index.
+     */
+    private static boolean isIndexed(TypeElement typeElement) {
+        if(typeElement.getNestingKind() != NestingKind.TOP_LEVEL)
+            return false;
+        for(AnnotationMirror annotationMirror : typeElement.getAnnotationMirrors()) {
+            String name = ((TypeElement) annotationMirror.getAnnotationType().asElement()).getQualifiedName().toString();
+            if(name.equals(ENTITY) || name.equals(MAPPED_SUPERCLASS))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write the index, one class name per line.
+     */
+    private void writeIndex() {
+        try {
+            FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    EntityIndex.RESOURCE);
+            try(Writer writer = index.openWriter()) {
+                writer.write("# Generated by " + EntityIndexProcessor.class.getName() + "\n");
+                for(String className : classNames)
+                    writer.write(className + "\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Can't write " + EntityIndex.RESOURCE + ": " + e.getMessage());
+        }
+    }
+}
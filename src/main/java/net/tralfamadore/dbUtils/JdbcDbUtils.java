@@ -10,6 +10,7 @@ import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -54,6 +55,11 @@ public class JdbcDbUtils {
 
     @Transactional
     public List<IDbUtils.ColumnDescription> describeTable(String tableName) {
+        return DatabaseUtils.getMetadataCache().get(em.getEntityManagerFactory(), null, tableName,
+                ColumnDescriptions.class, () -> new ColumnDescriptions(readColumnDescriptions(tableName))).copy();
+    }
+
+    private List<IDbUtils.ColumnDescription> readColumnDescriptions(String tableName) {
         List<IDbUtils.ColumnDescription> columnDescriptions = new ArrayList<>();
         Session hibernateSession = em.unwrap(Session.class);
 
@@ -144,4 +150,34 @@ public class JdbcDbUtils {
         });
 
     }
+
+    /**
+     * The cached column descriptions of a table, typed so they don't collide with other metadata in the
+     * {@link MetadataCache}.  The cached descriptions are never handed out, only copies, since they're mutable.
+     */
+    private static final class ColumnDescriptions {
+        /** The column descriptions */
+        private final List<IDbUtils.ColumnDescription> columnDescriptions;
+
+        /**
+         * Create a new ColumnDescriptions.
+         * @param columnDescriptions The column descriptions.
+         */
+        ColumnDescriptions(List<IDbUtils.ColumnDescription> columnDescriptions) {
+            this.columnDescriptions = Collections.unmodifiableList(new ArrayList<>(columnDescriptions));
+        }
+
+        /**
+         * Copy the column descriptions.
+         * @return A new list of new column descriptions.
+         */
+        List<IDbUtils.ColumnDescription> copy() {
+            List<IDbUtils.ColumnDescription> copy = new ArrayList<>(columnDescriptions.size());
+            for(IDbUtils.ColumnDescription columnDescription : columnDescriptions)
+                copy.add(new IDbUtils.ColumnDescription(columnDescription.getName(), columnDescription.getType(),
+                        columnDescription.isNullable(), columnDescription.isPk(), columnDescription.getDefaultValue(),
+                        columnDescription.getAdditionalArguments()));
+            return copy;
+        }
+    }
 }
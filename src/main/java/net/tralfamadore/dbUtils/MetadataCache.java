@@ -0,0 +1,146 @@
+package net.tralfamadore.dbUtils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A cache of table metadata, such as {@link TableDescription}s, keyed by (source, schema, table).  The source
+ * identifies the database the metadata was read from: the config name for {@link DatabaseUtils}, or the entity
+ * manager factory for the spring repositories.
+ *
+ * Jdbc metadata queries are slow (on MySQL each one is an information_schema query), so descriptions are kept for a
+ * time to live, {@link #DEFAULT_TIME_TO_LIVE_MINUTES} minutes by default.  {@link MysqlDbUtils} invalidates a table
+ * when it creates or drops it; DDL run any other way is picked up when the entry expires, or after a call to
+ * {@link #invalidateTable(String)} or {@link #invalidateAll()}.
+ *
+ * Cached values are shared between callers and must not be modified.
+ *
+ * @author wreh
+ */
+public class MetadataCache {
+    /** The default time to live, in minutes */
+    public static final long DEFAULT_TIME_TO_LIVE_MINUTES = 10;
+    /** The default maximum number of cached tables */
+    public static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+    /** The underlying cache */
+    private final Cache<Key,Object> cache;
+
+    /**
+     * Create a new MetadataCache with the default time to live and maximum size.
+     */
+    public MetadataCache() {
+        this(DEFAULT_TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Create a new MetadataCache.
+     * @param timeToLive How long to keep an entry.
+     * @param timeUnit The time unit of the time to live.
+     * @param maximumSize The maximum number of entries.
+     */
+    public MetadataCache(long timeToLive, TimeUnit timeUnit, long maximumSize) {
+        cache = Caffeine.newBuilder()
+                .expireAfterWrite(timeToLive, timeUnit)
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    /**
+     * Get a table's metadata, loading it on a miss.  Concurrent misses for the same key load it once.
+     * @param source The database the metadata is read from.
+     * @param schemaName The schema name.  Can be null.
+     * @param tableName The table name.
+     * @param type The type of metadata, so different descriptions of one table are cached separately.
+     * @param loader Reads the metadata from the database.
+     * @param <T> The type of metadata.
+     * @return The metadata.
+     */
+    public <T> T get(Object source, String schemaName, String tableName, Class<T> type, Supplier<T> loader) {
+        return type.cast(cache.get(new Key(source, schemaName, tableName, type), key -> loader.get()));
+    }
+
+    /**
+     * Add or replace a table's metadata.
+     * @param source The database the metadata is read from.
+     * @param schemaName The schema name.  Can be null.
+     * @param tableName The table name.
+     * @param type The type of metadata.
+     * @param value The metadata.
+     * @param <T> The type of metadata.
+     */
+    public <T> void put(Object source, String schemaName, String tableName, Class<T> type, T value) {
+        cache.put(new Key(source, schemaName, tableName, type), value);
+    }
+
+    /**
+     * Change the time to live of new and existing entries.
+     * @param timeToLive How long to keep an entry.
+     * @param timeUnit The time unit of the time to live.
+     */
+    public void setTimeToLive(long timeToLive, TimeUnit timeUnit) {
+        cache.policy().expireAfterWrite().ifPresent(expiration -> expiration.setExpiresAfter(timeToLive, timeUnit));
+    }
+
+    /**
+     * Remove a table's metadata, for every source and schema.  Table names are compared ignoring case.
+     * @param tableName The table name.
+     */
+    public void invalidateTable(String tableName) {
+        cache.asMap().keySet().removeIf(key -> key.tableName != null && key.tableName.equalsIgnoreCase(tableName));
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * A cache key.
+     */
+    private static final class Key {
+        /** The database the metadata is read from */
+        private final Object source;
+        /** The schema name */
+        private final String schemaName;
+        /** The table name */
+        private final String tableName;
+        /** The type of metadata */
+        private final Class<?> type;
+
+        /**
+         * Create a new Key.
+         * @param source The database the metadata is read from.
+         * @param schemaName The schema name.
+         * @param tableName The table name.
+         * @param type The type of metadata.
+         */
+        Key(Object source, String schemaName, String tableName, Class<?> type) {
+            this.source = source;
+            this.schemaName = schemaName;
+            this.tableName = tableName;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+            if(!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return Objects.equals(source, key.source) && Objects.equals(schemaName, key.schemaName) &&
+                    Objects.equals(tableName, key.tableName) && type == key.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, schemaName, tableName, type);
+        }
+    }
+}
@@ -100,13 +100,17 @@ public class MysqlDbUtils implements IDbUtils {
         sql.append(String.join(",\n", columns));
         sql.append("\n);\n");
 
-        if(generate)
+        if(generate) {
             em.createNativeQuery(sql.toString()).executeUpdate();
+            DatabaseUtils.getMetadataCache().invalidateTable(tableName);
+        }
 
         List<String> alterStatements = getAlterForeignKeys(entityClass);
 
-        if(generate)
+        if(generate) {
             alterStatements.forEach(s -> em.createNativeQuery(s).executeUpdate());
+            getOneToManyTables(entityClass).forEach(DatabaseUtils.getMetadataCache()::invalidateTable);
+        }
 
         alterStatements.forEach(s -> sql.append(s).append(";\n"));
 
@@ -228,8 +232,10 @@ public class MysqlDbUtils implements IDbUtils {
 
         String sql = "DROP TABLE " + getTableName(entityClass);
 
-        if(generate)
+        if(generate) {
             em.createNativeQuery(sql).executeUpdate();
+            DatabaseUtils.getMetadataCache().invalidateTable(getTableName(entityClass));
+        }
 
         return sql + ";";
     }
@@ -337,6 +343,17 @@ public class MysqlDbUtils implements IDbUtils {
         return alterStatements;
     }
 
+    private List<String> getOneToManyTables(Class entityClass) {
+        List<String> tableNames = new ArrayList<>();
+
+        for(Field field : entityClass.getDeclaredFields()) {
+            if(field.isAnnotationPresent(OneToMany.class))
+                tableNames.add(getTableName(field.getAnnotation(OneToMany.class).targetEntity()));
+        }
+
+        return tableNames;
+    }
+
     private Field getIdColumn(Class entityClass) {
         if(entityClass.getDeclaredFields() == null || entityClass.getDeclaredFields().length == 0)
             return null;
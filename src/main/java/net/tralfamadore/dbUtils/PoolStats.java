@@ -0,0 +1,104 @@
+package net.tralfamadore.dbUtils;
+
+/**
+ * A point in time view of a config's connection pool.  See {@link DatabaseUtils#getPoolStats(String)}.
+ *
+ * @author wreh
+ */
+public class PoolStats {
+    /** The pool name */
+    private final String poolName;
+    /** The number of connections in use */
+    private final int activeConnections;
+    /** The number of idle connections */
+    private final int idleConnections;
+    /** The total number of connections */
+    private final int totalConnections;
+    /** The number of threads waiting for a connection */
+    private final int threadsAwaitingConnection;
+    /** The maximum number of connections */
+    private final int maximumPoolSize;
+
+    /**
+     * Create a new PoolStats.
+     * @param poolName The pool name.
+     * @param activeConnections The number of connections in use.
+     * @param idleConnections The number of idle connections.
+     * @param totalConnections The total number of connections.
+     * @param threadsAwaitingConnection The number of threads waiting for a connection.
+     * @param maximumPoolSize The maximum number of connections.
+     */
+    public PoolStats(String poolName, int activeConnections, int idleConnections, int totalConnections,
+                     int threadsAwaitingConnection, int maximumPoolSize) {
+        this.poolName = poolName;
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.totalConnections = totalConnections;
+        this.threadsAwaitingConnection = threadsAwaitingConnection;
+        this.maximumPoolSize = maximumPoolSize;
+    }
+
+    /**
+     * Get the pool name.
+     * @return The pool name.
+     */
+    public String getPoolName() {
+        return poolName;
+    }
+
+    /**
+     * Get the number of connections in use.
+     * @return The active connection count.
+     */
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    /**
+     * Get the number of idle connections.
+     * @return The idle connection count.
+     */
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    /**
+     * Get the total number of connections.
+     * @return The total connection count.
+     */
+    public int getTotalConnections() {
+        return totalConnections;
+    }
+
+    /**
+     * Get the number of threads waiting for a connection.
+     * @return The waiting thread count.
+     */
+    public int getThreadsAwaitingConnection() {
+        return threadsAwaitingConnection;
+    }
+
+    /**
+     * Get the maximum number of connections.
+     * @return The maximum pool size.
+     */
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    /**
+     * See {@link Object#toString()}
+     * @return String representation of the pool stats.
+     */
+    @Override
+    public String toString() {
+        return "PoolStats{" +
+                "poolName='" + poolName + '\'' +
+                ", activeConnections=" + activeConnections +
+                ", idleConnections=" + idleConnections +
+                ", totalConnections=" + totalConnections +
+                ", threadsAwaitingConnection=" + threadsAwaitingConnection +
+                ", maximumPoolSize=" + maximumPoolSize +
+                '}';
+    }
+}
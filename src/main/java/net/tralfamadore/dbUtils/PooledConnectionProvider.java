@@ -0,0 +1,30 @@
+package net.tralfamadore.dbUtils;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.hikaricp.internal.HikariCPConnectionProvider;
+
+/**
+ * The connection provider {@link DatabaseUtils} sets up for pooled configs: Hibernate's HikariCP provider, with a
+ * <code>stop()</code> that works with the HikariCP version dbUtils ships.
+ *
+ * hibernate-hikaricp 5.2 was built against HikariCP 2.5 and stops the pool with
+ * <code>HikariDataSource.shutdown()</code>, which HikariCP 3 removed, so closing a session factory with the stock
+ * provider fails with a <code>NoSuchMethodError</code>.  Configuring, borrowing and unwrapping only use methods
+ * HikariCP still has.
+ *
+ * @author wreh
+ */
+public class PooledConnectionProvider extends HikariCPConnectionProvider {
+    /** The serial version */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Close the pool.  See {@link org.hibernate.service.spi.Stoppable#stop()}
+     */
+    @Override
+    public void stop() {
+        HikariDataSource dataSource = unwrap(HikariDataSource.class);
+        if(dataSource != null)
+            dataSource.close();
+    }
+}
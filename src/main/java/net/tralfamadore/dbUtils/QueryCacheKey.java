@@ -0,0 +1,181 @@
+package net.tralfamadore.dbUtils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A key into the {@link ResultCache}.
+ *
+ * Two queries share a cache entry only if they run against the same config with the same sql, the same bind
+ * variable values and the same result shape (rows, maps, single object, tuples...) and target classes.  The hash
+ * code is computed once when the key is created.
+ *
+ * A key also records the tables the query reads, so that writes can invalidate only the entries they affect.  The
+ * tables are not part of the key's identity.
+ *
+ * @author wreh
+ */
+public final class QueryCacheKey {
+    /**
+     * The shape of a cached result.
+     */
+    public enum Shape {
+        /** A list of Object[] rows */
+        ROWS,
+        /** A list of column name to value maps */
+        MAPS,
+        /** A single object of the target class */
+        OBJECT,
+        /** A list of objects of the target class */
+        OBJECT_LIST,
+        /** A single tuple of the target classes */
+        TUPLE,
+        /** A list of tuples of the target classes */
+        TUPLE_LIST
+    }
+
+    /** The config name */
+    private final String config;
+    /** The sql */
+    private final String sql;
+    /** The bind variable values */
+    private final Object[] bindVars;
+    /** The result shape */
+    private final Shape shape;
+    /** The target classes */
+    private final Class<?>[] types;
+    /** The tables the query reads, empty if unknown */
+    private final Set<String> tables;
+    /** The precomputed hash code */
+    private final int hashCode;
+
+    /**
+     * Create a new QueryCacheKey.
+     * @param config The config name.
+     * @param sql The sql.
+     * @param bindVars The bind variables.  They are copied, so later changes to the list don't affect the key.
+     * @param shape The result shape.
+     * @param types The target classes, if any.
+     */
+    public QueryCacheKey(String config, String sql, List<Object> bindVars, Shape shape, Class<?>... types) {
+        this(config, sql, bindVars, SqlTables.tables(sql), shape, types);
+    }
+
+    /**
+     * Create a new QueryCacheKey.
+     * @param config The config name.
+     * @param sql The sql.
+     * @param bindVars The bind variables.  They are copied, so later changes to the list don't affect the key.
+     * @param tables The lower case names of the tables the query reads, or an empty set if they aren't known.
+     * @param shape The result shape.
+     * @param types The target classes, if any.
+     */
+    public QueryCacheKey(String config, String sql, List<Object> bindVars, Set<String> tables, Shape shape, Class<?>... types) {
+        this.config = config;
+        this.sql = sql;
+        this.bindVars = bindVars == null ? new Object[0] : bindVars.toArray();
+        this.shape = shape;
+        this.types = types == null ? new Class<?>[0] : types;
+        this.tables = tables;
+
+        int hash = config == null ? 0 : config.hashCode();
+        hash = 31 * hash + (sql == null ? 0 : sql.hashCode());
+        hash = 31 * hash + Arrays.deepHashCode(this.bindVars);
+        hash = 31 * hash + shape.hashCode();
+        hash = 31 * hash + Arrays.hashCode(this.types);
+        this.hashCode = hash;
+    }
+
+    /**
+     * Get the sql.
+     * @return The sql.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Get the config name.
+     * @return The config name.
+     */
+    public String getConfig() {
+        return config;
+    }
+
+    /**
+     * Get the result shape.
+     * @return The result shape.
+     */
+    public Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * Get the tables the query reads.
+     * @return The lower case table names, or an empty set if they aren't known.
+     */
+    public Set<String> getTables() {
+        return tables;
+    }
+
+    /**
+     * Check whether a write to any of the given tables could change the result for this key.
+     * @param tableNames The lower case names of the written tables.
+     * @return True if the query reads one of the tables, or if the tables it reads aren't known.
+     */
+    public boolean readsAny(Collection<String> tableNames) {
+        if(tables.isEmpty())
+            return true;
+        for(String tableName : tableNames) {
+            if(tables.contains(tableName))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * See {@link Object#equals(Object)}
+     * @param o The object to compare to.
+     * @return True if o is a QueryCacheKey for the same query and result shape.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if(this == o)
+            return true;
+        if(!(o instanceof QueryCacheKey))
+            return false;
+        QueryCacheKey that = (QueryCacheKey) o;
+        return hashCode == that.hashCode &&
+                shape == that.shape &&
+                (sql == null ? that.sql == null : sql.equals(that.sql)) &&
+                (config == null ? that.config == null : config.equals(that.config)) &&
+                Arrays.equals(types, that.types) &&
+                Arrays.deepEquals(bindVars, that.bindVars);
+    }
+
+    /**
+     * See {@link Object#hashCode()}
+     * @return The precomputed hash code.
+     */
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * See {@link Object#toString()}
+     * @return String representation of a cache key.
+     */
+    @Override
+    public String toString() {
+        return "QueryCacheKey{" +
+                "config='" + config + '\'' +
+                ", sql='" + sql + '\'' +
+                ", bindVars=" + Arrays.deepToString(bindVars) +
+                ", shape=" + shape +
+                ", types=" + Arrays.toString(types) +
+                '}';
+    }
+}
@@ -0,0 +1,174 @@
+package net.tralfamadore.dbUtils;
+
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A cache for query results used by {@link DatabaseUtils#cache(long, TimeUnit)}.
+ *
+ * Implementations must be safe for use by concurrent callers.  The default implementation is
+ * {@link CaffeineResultCache}; a different implementation can be plugged in with
+ * {@link DatabaseUtils#setResultCache(ResultCache)}.
+ *
+ * @author wreh
+ */
+public interface ResultCache {
+    /**
+     * Get a cached result.
+     * @param key The cache key.
+     * @return The cached result, or null if there is no live entry for the key.
+     */
+    CachedResult get(Object key);
+
+    /**
+     * Cache a result.
+     * @param key The cache key.
+     * @param value The value to cache.  May be null.
+     * @param cacheTime The amount of time units to cache for.
+     * @param cacheTimeUnit The time unit (millis, seconds, etc) to use.
+     */
+    void put(Object key, Object value, long cacheTime, TimeUnit cacheTimeUnit);
+
+    /**
+     * Get a cached result, loading and caching it if there is no live entry.  Implementations should make concurrent
+     * callers that miss on the same key wait for a single load, and should return an entry that expired less than
+     * <code>staleTime</code> ago while refreshing it in the background.  The default implementation does neither.
+     * @param key The cache key.
+     * @param cacheTime The amount of time units to cache for.
+     * @param staleTime The amount of time units to serve an expired result for while it is refreshed.
+     * @param cacheTimeUnit The time unit (millis, seconds, etc) to use.
+     * @param loader Loads the result.  May be called from a background thread.
+     * @param <T> The type of the result.
+     * @return The cached or loaded result.
+     */
+    default <T> T get(Object key, long cacheTime, long staleTime, TimeUnit cacheTimeUnit, Supplier<T> loader) {
+        CachedResult cached = get(key);
+        if(cached != null)
+            return cached.getValue();
+        T value = loader.get();
+        put(key, value, cacheTime, cacheTimeUnit);
+        return value;
+    }
+
+    /**
+     * Get a cached result as {@link #get(Object, long, long, TimeUnit, Supplier)} does, refreshing stale entries on
+     * the given executor.  {@link DatabaseUtils} passes one that counts refreshes against the config's cap on queries
+     * running at once.  The default implementation ignores the executor.
+     * @param key The cache key.
+     * @param cacheTime The amount of time units to cache for.
+     * @param staleTime The amount of time units to serve an expired result for while it is refreshed.
+     * @param cacheTimeUnit The time unit (millis, seconds, etc) to use.
+     * @param loader Loads the result.  May be called from a background thread.
+     * @param refreshExecutor Runs the background refreshes.
+     * @param <T> The type of the result.
+     * @return The cached or loaded result.
+     */
+    default <T> T get(Object key, long cacheTime, long staleTime, TimeUnit cacheTimeUnit, Supplier<T> loader,
+                      Executor refreshExecutor) {
+        return get(key, cacheTime, staleTime, cacheTimeUnit, loader);
+    }
+
+    /**
+     * Remove the entry for a key.
+     * @param key The cache key.
+     */
+    void invalidate(Object key);
+
+    /**
+     * Remove every entry that may depend on one of the given tables.  Entries are matched with
+     * {@link QueryCacheKey#readsAny(Collection)}; the default implementation removes all entries.
+     * @param tableNames The lower case names of the tables that were written.
+     */
+    default void invalidateTables(Collection<String> tableNames) {
+        invalidateAll();
+    }
+
+    /**
+     * Remove all entries.
+     */
+    void invalidateAll();
+
+    /**
+     * Get the approximate number of entries in the cache.
+     * @return The approximate number of entries in the cache.
+     */
+    long size();
+
+    /**
+     * Get the hit/miss/eviction counters for the cache.
+     * @return A snapshot of the cache statistics.
+     */
+    CacheStats stats();
+
+    /**
+     * A cached value.  Wraps the value so that null results can be cached.
+     */
+    class CachedResult {
+        /** The cached value */
+        private final Object value;
+        /** The time to live, in nanoseconds */
+        private final long timeToLiveNanos;
+        /** How long the value may be served after it expires while it is refreshed, in nanoseconds */
+        private final long staleNanos;
+        /** When the value was cached, from {@link System#nanoTime()} */
+        private final long createdNanos;
+
+        /**
+         * Create a new CachedResult.
+         * @param value The cached value.
+         * @param timeToLiveNanos The time to live, in nanoseconds.
+         */
+        public CachedResult(Object value, long timeToLiveNanos) {
+            this(value, timeToLiveNanos, 0);
+        }
+
+        /**
+         * Create a new CachedResult.
+         * @param value The cached value.
+         * @param timeToLiveNanos The time to live, in nanoseconds.
+         * @param staleNanos How long the value may be served after it expires while it is refreshed, in nanoseconds.
+         */
+        public CachedResult(Object value, long timeToLiveNanos, long staleNanos) {
+            this.value = value;
+            this.timeToLiveNanos = timeToLiveNanos;
+            this.staleNanos = staleNanos;
+            this.createdNanos = System.nanoTime();
+        }
+
+        /**
+         * Get the cached value.
+         * @param <T> The type of the cached value.
+         * @return The cached value.
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T getValue() {
+            return (T) value;
+        }
+
+        /**
+         * Get the time to live.
+         * @return The time to live, in nanoseconds.
+         */
+        public long getTimeToLiveNanos() {
+            return timeToLiveNanos;
+        }
+
+        /**
+         * Get how long the value may be served after it expires while it is refreshed.
+         * @return The stale time, in nanoseconds.
+         */
+        public long getStaleNanos() {
+            return staleNanos;
+        }
+
+        /**
+         * Check whether the time to live has passed.
+         * @return True if the value has expired and should be refreshed.
+         */
+        public boolean isStale() {
+            return System.nanoTime() - createdNanos > timeToLiveNanos;
+        }
+    }
+}
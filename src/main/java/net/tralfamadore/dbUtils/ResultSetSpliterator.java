@@ -0,0 +1,48 @@
+package net.tralfamadore.dbUtils;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A {@link Spliterator} that reads a {@link ResultSet} one row at a time, so a stream over it never holds more than
+ * the rows the driver has fetched.
+ *
+ * @author wreh
+ */
+class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+    /** The result set */
+    private final ResultSet resultSet;
+    /** Creates the row mapper from the result's {@link RowSchema} */
+    private final Function<RowSchema,RowMapper<T>> rowMapperFactory;
+    /** Maps each row, created when the first row is read */
+    private RowMapper<T> rowMapper;
+
+    /**
+     * Create a new ResultSetSpliterator.
+     * @param resultSet The result set.  It is not closed when the rows run out.
+     * @param rowMapperFactory Creates the row mapper from the result's {@link RowSchema}.
+     */
+    ResultSetSpliterator(ResultSet resultSet, Function<RowSchema,RowMapper<T>> rowMapperFactory) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED);
+        this.resultSet = resultSet;
+        this.rowMapperFactory = rowMapperFactory;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        try {
+            if(!resultSet.next())
+                return false;
+            if(rowMapper == null)
+                rowMapper = rowMapperFactory.apply(RowSchema.of(resultSet.getMetaData()));
+            action.accept(rowMapper.apply(resultSet));
+            return true;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
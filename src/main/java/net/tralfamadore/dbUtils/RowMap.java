@@ -0,0 +1,157 @@
+package net.tralfamadore.dbUtils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A row of a query result as a map of column name to value.
+ *
+ * The column names and their positions come from a shared {@link RowSchema}; the row itself is just an array of
+ * values.  The map can still be modified like a {@link HashMap}: values of existing columns are replaced in place,
+ * and any keys that aren't columns go into a small overflow map created on first use.
+ *
+ * @author wreh
+ */
+final class RowMap extends AbstractMap<String,Object> {
+    /** Marks a column that has been removed from the map */
+    private static final Object REMOVED = new Object();
+    /** The schema shared by every row of the result */
+    private final RowSchema schema;
+    /** The column values, indexed like the schema's labels */
+    private final Object[] values;
+    /** Entries for keys that aren't columns */
+    private Map<String,Object> overflow;
+
+    /**
+     * Create a new RowMap.
+     * @param schema The schema shared by every row of the result.
+     * @param values The column values, indexed like the schema's labels.
+     */
+    RowMap(RowSchema schema, Object[] values) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = schema.indexOf(key);
+        if(index >= 0)
+            return values[index] == REMOVED ? null : values[index];
+        return overflow == null ? null : overflow.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int index = schema.indexOf(key);
+        if(index >= 0)
+            return values[index] != REMOVED;
+        return overflow != null && overflow.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = schema.indexOf(key);
+        if(index >= 0) {
+            Object old = values[index];
+            values[index] = value;
+            return old == REMOVED ? null : old;
+        }
+        if(overflow == null)
+            overflow = new HashMap<>();
+        return overflow.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = schema.indexOf(key);
+        if(index >= 0) {
+            Object old = values[index];
+            values[index] = REMOVED;
+            return old == REMOVED ? null : old;
+        }
+        return overflow == null ? null : overflow.remove(key);
+    }
+
+    @Override
+    public int size() {
+        int size = overflow == null ? 0 : overflow.size();
+        for(Object value : values) {
+            if(value != REMOVED)
+                size++;
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String,Object>> entrySet() {
+        return new AbstractSet<Entry<String,Object>>() {
+            @Override
+            public Iterator<Entry<String,Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return RowMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Iterates over the columns that haven't been removed, then the overflow entries.
+     */
+    private class EntryIterator implements Iterator<Entry<String,Object>> {
+        /** The index of the next column to look at */
+        private int next = 0;
+        /** The index of the last column returned, or -1 */
+        private int last = -1;
+        /** The overflow iterator, once the columns are exhausted */
+        private Iterator<Entry<String,Object>> overflowIterator;
+
+        @Override
+        public boolean hasNext() {
+            while(next < values.length && values[next] == REMOVED)
+                next++;
+            if(next < values.length)
+                return true;
+            if(overflowIterator == null && overflow != null)
+                overflowIterator = overflow.entrySet().iterator();
+            return overflowIterator != null && overflowIterator.hasNext();
+        }
+
+        @Override
+        public Entry<String,Object> next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            if(next < values.length) {
+                int index = last = next++;
+                return new SimpleEntry<String,Object>(schema.label(index), values[index]) {
+                    @Override
+                    public Object setValue(Object value) {
+                        values[index] = value;
+                        return super.setValue(value);
+                    }
+                };
+            }
+            last = -1;
+            return overflowIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if(last >= 0) {
+                values[last] = REMOVED;
+                last = -1;
+            } else if(overflowIterator != null) {
+                overflowIterator.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+}
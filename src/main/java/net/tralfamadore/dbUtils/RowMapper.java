@@ -0,0 +1,14 @@
+package net.tralfamadore.dbUtils;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Class: RowMapper
+ * Maps the current row of a {@link ResultSet} to an object.
+ * @author wreh
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    T apply(ResultSet resultSet) throws SQLException;
+}
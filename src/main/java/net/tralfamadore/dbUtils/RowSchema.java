@@ -0,0 +1,141 @@
+package net.tralfamadore.dbUtils;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The columns of a query result, read from the {@link ResultSetMetaData} once per query.
+ *
+ * Rows read as maps share the schema's label to index table and hold only an array of values, instead of each row
+ * building a {@link HashMap} of its own.  Columns are keyed, for maps and beans alike, by their label: the
+ * <code>as</code> alias if they have one, otherwise the column name.  Labels are interned, so queries with the same
+ * columns share the label strings.  As with a map built column by column, if two columns have the same label the
+ * last one wins.
+ *
+ * @author wreh
+ */
+public class RowSchema {
+    /** Interns column labels across queries */
+    private static final Interner<String> labels = Interners.newWeakInterner();
+    /** The number of columns in the result set */
+    private final int columnCount;
+    /** The distinct column labels, in column order */
+    private final String[] columnLabels;
+    /** The jdbc column index for each distinct column label */
+    private final int[] columnIndexes;
+    /** Column label to index into {@link #columnLabels} */
+    private final Map<String,Integer> labelIndexes;
+
+    /**
+     * Create a new RowSchema.
+     * @param metaData The result set meta data.
+     * @throws SQLException When the meta data can't be read.
+     */
+    private RowSchema(ResultSetMetaData metaData) throws SQLException {
+        columnCount = metaData.getColumnCount();
+        Map<String,Integer> lastIndexes = new LinkedHashMap<>();
+        for(int i = 1; i <= columnCount; i++) {
+            String label = labels.intern(metaData.getColumnLabel(i));
+            lastIndexes.remove(label);
+            lastIndexes.put(label, i);
+        }
+        columnLabels = new String[lastIndexes.size()];
+        columnIndexes = new int[lastIndexes.size()];
+        labelIndexes = new HashMap<>(lastIndexes.size() * 2);
+        int i = 0;
+        for(Map.Entry<String,Integer> entry : lastIndexes.entrySet()) {
+            columnLabels[i] = entry.getKey();
+            columnIndexes[i] = entry.getValue();
+            labelIndexes.put(entry.getKey(), i++);
+        }
+    }
+
+    /**
+     * Create a new RowSchema for a result set.
+     * @param metaData The result set meta data.
+     * @return A new RowSchema.
+     * @throws SQLException When the meta data can't be read.
+     */
+    public static RowSchema of(ResultSetMetaData metaData) throws SQLException {
+        return new RowSchema(metaData);
+    }
+
+    /**
+     * Get the number of columns in the result set.
+     * @return The number of columns.
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Read the current row as an array of objects, one per column.
+     * @param resultSet The result set, positioned on a row.
+     * @return An array of objects.
+     * @throws SQLException When a value can't be read.
+     */
+    public Object[] readArray(ResultSet resultSet) throws SQLException {
+        Object[] row = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            row[i] = resultSet.getObject(i + 1);
+        }
+        return row;
+    }
+
+    /**
+     * Read the current row as a map of column name to object values.
+     * @param resultSet The result set, positioned on a row.
+     * @return A map of column name to object values backed by this schema.
+     * @throws SQLException When a value can't be read.
+     */
+    public Map<String,Object> readMap(ResultSet resultSet) throws SQLException {
+        Object[] values = new Object[columnLabels.length];
+        for (int i = 0; i < columnLabels.length; i++) {
+            values[i] = resultSet.getObject(columnIndexes[i]);
+        }
+        return new RowMap(this, values);
+    }
+
+    /**
+     * Get the number of distinct column labels.
+     * @return The number of distinct column labels.
+     */
+    int size() {
+        return columnLabels.length;
+    }
+
+    /**
+     * Get a distinct column label.
+     * @param index The index of the label, from 0 to {@link #size()} - 1.
+     * @return The column label.
+     */
+    String label(int index) {
+        return columnLabels[index];
+    }
+
+    /**
+     * Get the jdbc column index of a distinct column label.
+     * @param index The index of the label, from 0 to {@link #size()} - 1.
+     * @return The jdbc column index, starting at 1.
+     */
+    int columnIndex(int index) {
+        return columnIndexes[index];
+    }
+
+    /**
+     * Get the index of a column label.
+     * @param label The column label.
+     * @return The index of the label, or -1 if there is no such column.
+     */
+    int indexOf(Object label) {
+        Integer index = labelIndexes.get(label);
+        return index == null ? -1 : index;
+    }
+}
@@ -0,0 +1,336 @@
+package net.tralfamadore.dbUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A snapshot of the {@link TableDescription}s of a schema, saved to a file so a new process doesn't have to read all
+ * of the metadata from the database again.
+ *
+ * Each table is saved with a fingerprint of its definition, covering its columns and primary and foreign keys.
+ * {@link #load(Connection, String, File)} reads the snapshot, fetches the current fingerprints with two
+ * information_schema queries, and only re-describes the tables that were added or whose fingerprint changed.
+ *
+ * Snapshots are for MySQL.  Other databases have no cheap per-table signal (a fingerprint would need the full
+ * <code>getColumns</code> pass that describing the schema costs anyway), so there
+ * {@link #load(Connection, String, File)} describes the whole schema in one pass and doesn't touch the file.
+ *
+ * The file is a gzipped binary format with a version number.  A file with another version, for another schema, or
+ * that can't be read is ignored and replaced.
+ *
+ * @author wreh
+ */
+public class SchemaSnapshot {
+    /** The logger, for unreadable snapshot files */
+    private static final Logger logger = Logger.getLogger(SchemaSnapshot.class.getName());
+    /** Identifies a snapshot file */
+    private static final int MAGIC = 0x44425353;
+    /** The file format version */
+    static final int VERSION = 1;
+    /** The schema name, or null for the connection's default schema */
+    private final String schemaName;
+    /** The table descriptions, by table name */
+    private final Map<String,TableDescription> tableDescriptions;
+    /** The fingerprints of the tables' definitions, by table name */
+    private final Map<String,String> fingerprints;
+    /** The tables described from the database rather than the file */
+    private final List<String> refreshedTables;
+
+    /**
+     * Create a new SchemaSnapshot.
+     * @param schemaName The schema name.
+     * @param tableDescriptions The table descriptions, by table name.
+     * @param fingerprints The fingerprints of the tables' definitions, by table name.
+     * @param refreshedTables The tables described from the database rather than the file.
+     */
+    private SchemaSnapshot(String schemaName, Map<String,TableDescription> tableDescriptions,
+                           Map<String,String> fingerprints, List<String> refreshedTables) {
+        this.schemaName = schemaName;
+        this.tableDescriptions = Collections.unmodifiableMap(tableDescriptions);
+        this.fingerprints = fingerprints;
+        this.refreshedTables = Collections.unmodifiableList(refreshedTables);
+    }
+
+    /**
+     * Get the schema name.
+     * @return The schema name.  Can be null.
+     */
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    /**
+     * Get the table descriptions.
+     * @return The {@link TableDescription}s by table name.
+     */
+    public Map<String,TableDescription> getTableDescriptions() {
+        return tableDescriptions;
+    }
+
+    /**
+     * Get the tables that were described from the database because they were new or had changed.
+     * @return The refreshed table names.  Every table if there was no usable snapshot file.
+     */
+    public List<String> getRefreshedTables() {
+        return refreshedTables;
+    }
+
+    /**
+     * Load a schema's table descriptions from a snapshot file, re-describing the tables that changed since the file
+     * was written, and save the file again if anything changed.  On databases other than MySQL the whole schema is
+     * described and the file isn't read or written.
+     * @param connection The database {@link Connection}
+     * @param schemaName The schema name.  Can be null.
+     * @param file The snapshot file.  Doesn't have to exist.
+     * @return The up to date snapshot.
+     */
+    public static SchemaSnapshot load(Connection connection, String schemaName, File file) {
+        Map<String,String> currentFingerprints = fingerprints(connection, schemaName);
+        if(currentFingerprints == null) {
+            Map<String,TableDescription> tableDescriptions =
+                    TableDescription.getTableDescriptions(connection, schemaName);
+            return new SchemaSnapshot(schemaName, tableDescriptions, Collections.emptyMap(),
+                    new ArrayList<>(tableDescriptions.keySet()));
+        }
+        SchemaSnapshot read = file.exists() ? read(file) : null;
+        SchemaSnapshot saved = read != null && Objects.equals(read.schemaName, schemaName) ? read : null;
+
+        Set<String> changed = new HashSet<>();
+        currentFingerprints.forEach((tableName, fingerprint) -> {
+            if(saved == null || !fingerprint.equals(saved.fingerprints.get(tableName)))
+                changed.add(tableName);
+        });
+
+        Map<String,TableDescription> tableDescriptions = new LinkedHashMap<>();
+        List<String> refreshed = new ArrayList<>();
+        if(saved == null || changed.size() * 4 > currentFingerprints.size()) {
+            tableDescriptions.putAll(TableDescription.getTableDescriptions(connection, schemaName));
+            tableDescriptions.keySet().retainAll(currentFingerprints.keySet());
+            refreshed.addAll(tableDescriptions.keySet());
+        } else {
+            for(String tableName : currentFingerprints.keySet()) {
+                if(changed.contains(tableName)) {
+                    tableDescriptions.put(tableName,
+                            TableDescription.getTableDescription(connection, tableName, schemaName));
+                    refreshed.add(tableName);
+                } else {
+                    tableDescriptions.put(tableName, saved.tableDescriptions.get(tableName));
+                }
+            }
+        }
+
+        Map<String,String> fingerprints = new HashMap<>(currentFingerprints);
+        fingerprints.keySet().retainAll(tableDescriptions.keySet());
+        SchemaSnapshot snapshot = new SchemaSnapshot(schemaName, tableDescriptions, fingerprints, refreshed);
+        if(saved == null || !refreshed.isEmpty() || saved.tableDescriptions.size() != tableDescriptions.size())
+            snapshot.write(file);
+        return snapshot;
+    }
+
+    /**
+     * Get a fingerprint of each table's definition.
+     * @param connection The database {@link Connection}
+     * @param schemaName The schema name.  Can be null.
+     * @return The fingerprints by table name, or null if the database isn't MySQL.
+     */
+    static Map<String,String> fingerprints(Connection connection, String schemaName) {
+        try {
+            if(!"MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName()))
+                return null;
+            return mysqlFingerprints(connection, schemaName);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get a fingerprint of each table's columns and keys from information_schema.
+     * @param connection The database {@link Connection}
+     * @param schemaName The database name, or null for the connection's current database.
+     * @return The fingerprints by table name.
+     * @throws SQLException On a jdbc error.
+     */
+    private static Map<String,String> mysqlFingerprints(Connection connection, String schemaName) throws SQLException {
+        Map<String,String> fingerprints = new LinkedHashMap<>();
+        String columns = "select table_name, sum(crc32(concat_ws('|', ordinal_position, column_name, column_type, " +
+                "is_nullable, column_default, column_key, column_comment))) from information_schema.columns " +
+                "where table_schema = coalesce(?, database()) group by table_name order by table_name";
+        String keys = "select table_name, sum(crc32(concat_ws('|', constraint_name, column_name, " +
+                "referenced_table_name, referenced_column_name))) from information_schema.key_column_usage " +
+                "where table_schema = coalesce(?, database()) group by table_name";
+        try(PreparedStatement statement = connection.prepareStatement(columns)) {
+            statement.setString(1, schemaName);
+            try(ResultSet resultSet = statement.executeQuery()) {
+                while(resultSet.next())
+                    fingerprints.put(resultSet.getString(1), resultSet.getString(2));
+            }
+        }
+        try(PreparedStatement statement = connection.prepareStatement(keys)) {
+            statement.setString(1, schemaName);
+            try(ResultSet resultSet = statement.executeQuery()) {
+                while(resultSet.next()) {
+                    String fingerprint = fingerprints.get(resultSet.getString(1));
+                    if(fingerprint != null)
+                        fingerprints.put(resultSet.getString(1), fingerprint + ':' + resultSet.getString(2));
+                }
+            }
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Write the snapshot to a file.  The file is written beside the target and moved into place, so a reader never
+     * sees a partly written snapshot.
+     * @param file The snapshot file.
+     */
+    public void write(File file) {
+        Path target = file.toPath().toAbsolutePath();
+        try {
+            Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+            try {
+                try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    writeString(out, schemaName);
+                    out.writeInt(tableDescriptions.size());
+                    for(TableDescription tableDescription : tableDescriptions.values()) {
+                        out.writeUTF(tableDescription.getTableName());
+                        writeString(out, fingerprints.get(tableDescription.getTableName()));
+                        writeString(out, tableDescription.getSchemaName());
+                        writeString(out, tableDescription.getComments());
+                        out.writeInt(tableDescription.getColumnDescriptions().size());
+                        for(ColumnDescription columnDescription : tableDescription.getColumnDescriptions())
+                            writeColumnDescription(out, columnDescription);
+                    }
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Read a snapshot file.
+     * @param file The snapshot file.
+     * @return The snapshot, or null if the file isn't a snapshot of the current version or can't be read.
+     */
+    static SchemaSnapshot read(File file) {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file.toPath()))))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+            String schemaName = readString(in);
+            int tableCount = in.readInt();
+            Map<String,TableDescription> tableDescriptions = new LinkedHashMap<>();
+            Map<String,String> fingerprints = new HashMap<>();
+            for(int i = 0; i < tableCount; i++) {
+                String tableName = in.readUTF();
+                fingerprints.put(tableName, readString(in));
+                String tableSchemaName = readString(in);
+                String comments = readString(in);
+                int columnCount = in.readInt();
+                List<ColumnDescription> columnDescriptions = new ArrayList<>(columnCount);
+                for(int column = 0; column < columnCount; column++)
+                    columnDescriptions.add(readColumnDescription(in));
+                tableDescriptions.put(tableName,
+                        new TableDescription(columnDescriptions, tableName, tableSchemaName, comments));
+            }
+            return new SchemaSnapshot(schemaName, tableDescriptions, fingerprints, Collections.emptyList());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Ignoring unreadable schema snapshot " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Write a {@link ColumnDescription}.
+     * @param out The output.
+     * @param columnDescription The {@link ColumnDescription}.
+     * @throws IOException On a write error.
+     */
+    private static void writeColumnDescription(DataOutputStream out, ColumnDescription columnDescription)
+            throws IOException {
+        out.writeUTF(columnDescription.getColumnName());
+        writeString(out, columnDescription.getColumnType());
+        out.writeBoolean(columnDescription.isNullable());
+        writeString(out, columnDescription.getDefaultValue());
+        out.writeInt(columnDescription.getColumnSize());
+        writeString(out, columnDescription.getComments());
+        out.writeBoolean(columnDescription.isPrimaryKey());
+        out.writeBoolean(columnDescription.isForeignKey());
+        writeString(out, columnDescription.getReferencedTable());
+        writeString(out, columnDescription.getReferencedColumn());
+    }
+
+    /**
+     * Read a {@link ColumnDescription}.
+     * @param in The input.
+     * @return The {@link ColumnDescription}.
+     * @throws IOException On a read error.
+     */
+    private static ColumnDescription readColumnDescription(DataInputStream in) throws IOException {
+        String columnName = in.readUTF();
+        String columnType = readString(in);
+        boolean nullable = in.readBoolean();
+        String defaultValue = readString(in);
+        int columnSize = in.readInt();
+        String comments = readString(in);
+        ColumnDescription columnDescription
+                = new ColumnDescription(columnName, columnType, nullable, defaultValue, columnSize, comments);
+        columnDescription.setPrimaryKey(in.readBoolean());
+        columnDescription.setForeignKey(in.readBoolean());
+        columnDescription.setReferencedTable(readString(in));
+        columnDescription.setReferencedColumn(readString(in));
+        return columnDescription;
+    }
+
+    /**
+     * Write a string that may be null.
+     * @param out The output.
+     * @param value The string.
+     * @throws IOException On a write error.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null)
+            out.writeUTF(value);
+    }
+
+    /**
+     * Read a string that may be null.
+     * @param in The input.
+     * @return The string.
+     * @throws IOException On a read error.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
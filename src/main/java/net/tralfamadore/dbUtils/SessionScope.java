@@ -0,0 +1,29 @@
+package net.tralfamadore.dbUtils;
+
+/**
+ * How long a {@link DatabaseUtils} object keeps its Hibernate session, and with it its pooled connection.
+ *
+ * @author wreh
+ */
+public enum SessionScope {
+    /**
+     * A session is opened for each query or update and closed when it's done, so the connection goes back to the
+     * pool between calls.  Safe for short lived objects that are never closed.
+     */
+    PER_CALL,
+    /**
+     * The object opens one session on first use and keeps it, and its connection, until
+     * {@link DatabaseUtils#close()}, so many queries run over one connection without going back to the pool.  The
+     * session is cleared after each call outside a transaction, so returned entities are detached as they are with
+     * {@link #PER_CALL}.
+     */
+    PER_INSTANCE,
+    /**
+     * Every object for the same config on the same thread shares one session and connection, kept until
+     * {@link DatabaseUtils#closeThreadSessions()}, for example at the end of a request.  Objects can be created per
+     * query without paying for a session each time.  They share the session's transaction too: calls on any of
+     * them inside {@link DatabaseUtils#transactionCallback(TransactionCallback)} join it, and only the callback that
+     * began it commits or rolls back.
+     */
+    THREAD_BOUND
+}
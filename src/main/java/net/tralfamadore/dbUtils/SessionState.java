@@ -0,0 +1,25 @@
+package net.tralfamadore.dbUtils;
+
+import org.hibernate.Session;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A {@link DatabaseUtils} session and the transaction running on it.  Each object has its own, except that
+ * {@link SessionScope#THREAD_BOUND} objects share the one their thread holds for the config, so a transaction begun
+ * by one of them is joined by the others, and only the object that began it commits, rolls back or closes the
+ * session.
+ *
+ * @author wreh
+ */
+class SessionState {
+    /** The session, or null if none is open */
+    Session session;
+    /** Whether or not we're in a transaction */
+    boolean inTransaction;
+    /** Tables written since the last commit or rollback, to invalidate in the result cache */
+    final Set<String> writtenTables = new HashSet<>();
+    /** True if something was written since the last commit or rollback and we couldn't tell which tables */
+    boolean wroteUnknownTables;
+}
@@ -0,0 +1,77 @@
+package net.tralfamadore.dbUtils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the tables a sql statement reads or writes, for result cache invalidation.
+ *
+ * This is a scan for table names following FROM, JOIN, INTO, UPDATE and TABLE, not a sql parser.  It handles the
+ * statements this library generates and the usual hand written selects and dml; if it finds no tables the caller
+ * should assume the statement can touch any table.  Table names are returned in lower case without schema or quotes.
+ *
+ * @author wreh
+ */
+public class SqlTables {
+    /** A possibly quoted, possibly schema qualified identifier */
+    private static final String IDENTIFIER = "[`\"\\[]?[\\w$]+[`\"\\]]?(?:\\s*\\.\\s*[`\"\\[]?[\\w$]+[`\"\\]]?)?";
+    /** An optional table alias that isn't the next keyword */
+    private static final String ALIAS = "(?:\\s+(?:as\\s+)?(?!(?:where|join|inner|left|right|outer|cross|natural|full|" +
+            "straight_join|on|using|group|order|limit|union|having|set|values|select|for|lock|window)\\b)\\w+)?";
+    /** The table name references */
+    private static final Pattern TABLE_REFERENCE = Pattern.compile(
+            "\\b(?:from|join|into|update|table(?:\\s+if\\s+(?:not\\s+)?exists)?)\\s+(" + IDENTIFIER + ALIAS +
+                    "(?:\\s*,\\s*" + IDENTIFIER + ALIAS + ")*)",
+            Pattern.CASE_INSENSITIVE);
+    /** String literals, which are removed before scanning */
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    /** Previously scanned statements */
+    private static final Cache<String,Set<String>> scanned = Caffeine.newBuilder().maximumSize(10_000).build();
+
+    /**
+     * Get the tables a sql statement references.
+     * @param sql The sql.
+     * @return The lower case table names, or an empty set if none could be found.
+     */
+    public static Set<String> tables(String sql) {
+        if(sql == null)
+            return Collections.emptySet();
+        return scanned.get(sql, SqlTables::scan);
+    }
+
+    /**
+     * Scan a sql statement for table names.
+     * @param sql The sql.
+     * @return The lower case table names.
+     */
+    private static Set<String> scan(String sql) {
+        Set<String> tables = new LinkedHashSet<>();
+        Matcher matcher = TABLE_REFERENCE.matcher(STRING_LITERAL.matcher(sql).replaceAll("''"));
+        while(matcher.find()) {
+            for(String reference : matcher.group(1).split(",")) {
+                String table = normalize(reference.trim().replaceAll("\\s*\\.\\s*", ".").split("\\s+")[0]);
+                if(!table.isEmpty())
+                    tables.add(table);
+            }
+        }
+        return Collections.unmodifiableSet(tables);
+    }
+
+    /**
+     * Normalize a table name by removing any schema and quotes and converting it to lower case.
+     * @param table The table name.
+     * @return The normalized table name.
+     */
+    static String normalize(String table) {
+        int dot = table.lastIndexOf('.');
+        if(dot >= 0)
+            table = table.substring(dot + 1);
+        return table.replaceAll("[`\"\\[\\]\\s]", "").toLowerCase();
+    }
+}
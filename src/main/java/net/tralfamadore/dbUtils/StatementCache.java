@@ -0,0 +1,237 @@
+package net.tralfamadore.dbUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of prepared statements, keyed by physical connection and sql.  Each connection keeps up to a maximum number
+ * of statements, evicting (and closing) the least recently used, so a query run again on the same connection binds
+ * new values to the statement it already has instead of preparing it again.
+ *
+ * A pool hands out a new wrapper for each borrow of a connection and closes the statements made through it when the
+ * connection is returned, so statements are keyed by, and prepared on, the driver's connection underneath, found with
+ * {@link Connection#unwrap(Class)}.  That way they outlive the borrow and are reused by the next caller that gets the
+ * same connection from the pool.  They are closed when the pool closes the connection, and the cache forgets closed
+ * connections the next time it sees a new one.
+ *
+ * Statements are never shared: a statement is taken out of the cache while it runs and put back once its result set
+ * has been read and closed, so a query that runs the same sql again from inside its own result set reader gets a
+ * statement of its own.  Statements that fail are closed rather than put back.
+ *
+ * This saves the driver's statement setup; on MySQL the parse on the server is saved by the driver's own server side
+ * statement cache, which {@link DatabaseUtils} turns on for pooled configs.
+ *
+ * @author wreh
+ */
+public class StatementCache {
+    /** The default maximum number of statements per connection */
+    public static final int DEFAULT_MAXIMUM_SIZE = 64;
+    /** The maximum number of statements per connection */
+    private final int maximumSize;
+    /** The cached statements by physical connection */
+    private final ConcurrentMap<Connection,Statements> statements = new ConcurrentHashMap<>();
+    /** The number of statements found in the cache */
+    private final LongAdder hitCount = new LongAdder();
+    /** The number of statements that had to be prepared */
+    private final LongAdder missCount = new LongAdder();
+    /** The number of statements closed to make room for others */
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Create a new StatementCache with the default maximum size.
+     */
+    public StatementCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Create a new StatementCache.
+     * @param maximumSize The maximum number of statements per connection.  0 turns caching off, so every statement is
+     * closed as soon as it has run.
+     */
+    public StatementCache(int maximumSize) {
+        if(maximumSize < 0)
+            throw new IllegalArgumentException("maximumSize must not be negative");
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Run a query with a cached statement.
+     * @param connection The connection.
+     * @param sql The sql.
+     * @param bindVars The bind variables.
+     * @param reader Reads the result set, which is closed once it returns.
+     * @param <T> The type read.
+     * @return The return of reader.
+     * @throws SQLException When the statement can't be prepared or run.
+     */
+    public <T> T query(Connection connection, String sql, List<Object> bindVars, ResultSetReader<T> reader)
+            throws SQLException {
+        if(maximumSize > 0)
+            connection = physical(connection);
+        PreparedStatement statement = take(connection, sql);
+        boolean reusable = false;
+        try {
+            int i = 1;
+            for(Object bindVar : bindVars)
+                statement.setObject(i++, bindVar);
+            T result;
+            try(ResultSet resultSet = statement.executeQuery()) {
+                result = reader.read(resultSet);
+            }
+            reusable = true;
+            return result;
+        } finally {
+            release(connection, sql, statement, reusable);
+        }
+    }
+
+    /**
+     * Get the driver's connection underneath a pool's wrapper.
+     * @param connection The connection, as handed out by the pool.
+     * @return The wrapped connection, or the connection itself if it doesn't wrap one.
+     * @throws SQLException On a jdbc error.
+     */
+    static Connection physical(Connection connection) throws SQLException {
+        return connection.isWrapperFor(Connection.class) ? connection.unwrap(Connection.class) : connection;
+    }
+
+    /**
+     * Get the statement for some sql from the cache, or prepare it.
+     * @param connection The physical connection.
+     * @param sql The sql.
+     * @return The statement.
+     * @throws SQLException When the statement can't be prepared.
+     */
+    private PreparedStatement take(Connection connection, String sql) throws SQLException {
+        if(maximumSize > 0) {
+            Statements cached = statements.get(connection);
+            if(cached == null) {
+                statements.keySet().removeIf(StatementCache::isClosed);
+                cached = statements.computeIfAbsent(connection, key -> new Statements());
+            }
+            PreparedStatement statement = cached.take(sql);
+            if(statement != null && !statement.isClosed()) {
+                hitCount.increment();
+                return statement;
+            }
+        }
+        missCount.increment();
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Put a statement back in the cache, or close it.
+     * @param connection The physical connection.
+     * @param sql The sql.
+     * @param statement The statement.
+     * @param reusable False if the statement failed and mustn't be used again.
+     * @throws SQLException When the statement can't be closed.
+     */
+    private void release(Connection connection, String sql, PreparedStatement statement, boolean reusable)
+            throws SQLException {
+        Statements cached = maximumSize > 0 ? statements.get(connection) : null;
+        if(cached == null || !reusable || statement.isClosed()) {
+            statement.close();
+            return;
+        }
+        statement.clearParameters();
+        PreparedStatement displaced = cached.put(sql, statement);
+        if(displaced != null)
+            displaced.close();
+    }
+
+    /**
+     * Check whether a connection is closed.
+     * @param connection The connection.
+     * @return True if the connection is closed, or its state can't be read.
+     */
+    private static boolean isClosed(Connection connection) {
+        try {
+            return connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Get the number of physical connections with cached statements.
+     * @return The number of connections.
+     */
+    public int getConnectionCount() {
+        return statements.size();
+    }
+
+    /**
+     * Get a snapshot of the cache counters.
+     * @return The statement cache statistics.
+     */
+    public CacheStats stats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), evictionCount.sum());
+    }
+
+    /**
+     * Reads a result set.
+     * @param <T> The type read.
+     */
+    @FunctionalInterface
+    public interface ResultSetReader<T> {
+        /**
+         * Read a result set.
+         * @param resultSet The result set.
+         * @return The value read.
+         * @throws SQLException When the result set can't be read.
+         */
+        T read(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * The statements of one connection, least recently used first.  A connection is used by one thread at a time, so
+     * the lock is uncontended.
+     */
+    private final class Statements {
+        /** The statements by sql */
+        private final LinkedHashMap<String,PreparedStatement> bySql =
+                new LinkedHashMap<String,PreparedStatement>() {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String,PreparedStatement> eldest) {
+                        if(size() <= maximumSize)
+                            return false;
+                        evictionCount.increment();
+                        try {
+                            eldest.getValue().close();
+                        } catch (SQLException e) {
+                            // the statement is gone either way
+                        }
+                        return true;
+                    }
+                };
+
+        /**
+         * Take a statement out of the cache.
+         * @param sql The sql.
+         * @return The statement, or null if there isn't one.
+         */
+        synchronized PreparedStatement take(String sql) {
+            return bySql.remove(sql);
+        }
+
+        /**
+         * Put a statement in the cache.
+         * @param sql The sql.
+         * @param statement The statement.
+         * @return The statement it replaced, or null.
+         */
+        synchronized PreparedStatement put(String sql, PreparedStatement statement) {
+            return bySql.put(sql, statement);
+        }
+    }
+}
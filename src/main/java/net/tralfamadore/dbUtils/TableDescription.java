@@ -2,10 +2,16 @@ package net.tralfamadore.dbUtils;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -26,6 +32,8 @@ public class TableDescription {
     private String comments;
     /** List of {@link net.tralfamadore.dbUtils.ColumnDescription} */
     private List<ColumnDescription> columnDescriptions = new ArrayList<>();
+    /** The {@link ColumnDescription}s by column name */
+    private Map<String,ColumnDescription> columnDescriptionsByName;
 
     /**
      * Create a new TableDescription.  See {@link TableDescription#getTableDescription(Connection, String, String)} for
@@ -35,8 +43,9 @@ public class TableDescription {
      * @param schemaName The schema name.
      * @param comments The table comments.
      */
-    private TableDescription(List<ColumnDescription> columnDescriptions, String tableName, String schemaName, String comments) {
-        this.columnDescriptions = columnDescriptions;
+    TableDescription(List<ColumnDescription> columnDescriptions, String tableName, String schemaName, String comments) {
+        this.columnDescriptions = Collections.unmodifiableList(columnDescriptions);
+        this.columnDescriptionsByName = byColumnName(columnDescriptions);
         this.tableName = tableName;
         this.schemaName = schemaName;
         this.comments = comments;
@@ -81,7 +90,7 @@ public class TableDescription {
      * no column found with that name.
      */
     public Optional<ColumnDescription> getColumnDescription(String columnName) {
-        return columnDescriptions.stream().filter(cd -> cd.getColumnName().equals(columnName)).findFirst();
+        return Optional.ofNullable(columnDescriptionsByName.get(columnName));
     }
 
     /**
@@ -123,7 +132,8 @@ public class TableDescription {
     }
 
     /**
-     * Create a new {@link TableDescription} object.  Uses jdbc meta data from the {@link Connection}.
+     * Create a new {@link TableDescription} object.  Uses jdbc meta data from the {@link Connection}.  On MySQL the
+     * schema name is the database name, which the driver takes as the catalog.
      *
      * @param connection The database {@link Connection}
      * @param tableName The table name.
@@ -132,70 +142,363 @@ public class TableDescription {
      */
     public static TableDescription getTableDescription(Connection connection, String tableName, String schemaName) {
         try {
-            ResultSet resultSet = connection.getMetaData().getTables(null, schemaName, tableName, null);
+            boolean mysql = "MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName());
+            String catalog = mysql ? schemaName : null;
+            String schemaPattern = mysql ? null : schemaName;
+            ResultSet resultSet = connection.getMetaData().getTables(catalog, schemaPattern, tableName, null);
             String realSchemaName = null;
             String comments = null;
             if(resultSet.next()) {
                 realSchemaName = resultSet.getString("TABLE_SCHEM");
                 comments = resultSet.getString("REMARKS");
             }
-            return new TableDescription(getColumnDescriptions(connection, tableName, schemaName), tableName, realSchemaName, comments);
+            return new TableDescription(getColumnDescriptions(connection, tableName, catalog, schemaPattern), tableName,
+                    realSchemaName, comments);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Create {@link TableDescription}s for every table and view in a schema, in one pass over the meta data: one
+     * query for the tables, one for the columns and one primary and foreign key lookup for the whole schema, grouped
+     * by table in memory.  On MySQL the schema name is the database name, and the tables, columns and keys are read
+     * with one information_schema query each (the driver's <code>getColumns</code> runs one query per table).  Other
+     * databases use the jdbc meta data; drivers that can't list keys for a whole schema fall back to one primary and
+     * foreign key lookup per table.
+     *
+     * @param connection The database {@link Connection}
+     * @param schemaName The schema name.  Can be null for the connection's current schema (or database, on MySQL).
+     * @return The {@link TableDescription}s by table name, in the order the driver lists the tables.
+     * @throws IllegalArgumentException When no schema is given, the connection has no current schema, and tables in
+     * different schemas have the same name.
+     */
+    public static Map<String,TableDescription> getTableDescriptions(Connection connection, String schemaName) {
+        try {
+            Map<String,String[]> tables = new LinkedHashMap<>();
+            Map<String,List<ColumnDescription>> columnDescriptions = new HashMap<>();
+            Map<String,Map<String,ColumnDescription>> columnDescriptionsByTable = new HashMap<>();
+            if("MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName())) {
+                readMysqlTables(connection, schemaName, tables, columnDescriptions, columnDescriptionsByTable);
+                addMysqlKeys(connection, schemaName, columnDescriptionsByTable);
+            } else {
+                String schemaPattern = schemaName != null ? schemaName : currentSchema(connection);
+                readTables(connection, schemaPattern, tables, columnDescriptions, columnDescriptionsByTable);
+                addKeys(connection, schemaPattern, columnDescriptionsByTable);
+            }
+
+            Map<String,TableDescription> tableDescriptions = new LinkedHashMap<>();
+            tables.forEach((tableName, table) -> tableDescriptions.put(tableName,
+                    new TableDescription(columnDescriptions.get(tableName), tableName, table[0], table[1])));
+            return tableDescriptions;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Read the tables and columns of a MySQL database, with one information_schema query for each.  The columns are
+     * read as the driver's <code>getColumns</code> would describe them.
+     * @param connection The database {@link Connection}
+     * @param schemaName The database name, or null for the connection's current database.
+     * @param tables The schema name and comments by table name, filled in here.
+     * @param columnDescriptions The {@link ColumnDescription}s by table name, filled in here.
+     * @param columnDescriptionsByTable The {@link ColumnDescription}s by table and column name, filled in here.
+     * @throws SQLException On a jdbc error.
+     */
+    private static void readMysqlTables(Connection connection, String schemaName, Map<String,String[]> tables,
+                                        Map<String,List<ColumnDescription>> columnDescriptions,
+                                        Map<String,Map<String,ColumnDescription>> columnDescriptionsByTable)
+            throws SQLException {
+        String tablesSql = "select table_name, table_comment from information_schema.tables " +
+                "where table_schema = coalesce(?, database()) and table_type in ('BASE TABLE', 'VIEW') " +
+                "order by table_type, table_name";
+        try(PreparedStatement statement = connection.prepareStatement(tablesSql)) {
+            statement.setString(1, schemaName);
+            try(ResultSet resultSet = statement.executeQuery()) {
+                while(resultSet.next())
+                    addTable(resultSet.getString(1), null, resultSet.getString(2), tables, columnDescriptions,
+                            columnDescriptionsByTable);
+            }
+        }
+
+        String columnsSql = "select table_name as TABLE_NAME, column_name as COLUMN_NAME, " +
+                "upper(case when locate('unsigned', column_type) != 0 and locate('unsigned', data_type) = 0 " +
+                "and locate('set', data_type) <> 1 and locate('enum', data_type) <> 1 " +
+                "then concat(data_type, ' unsigned') else data_type end) as TYPE_NAME, " +
+                "case when is_nullable = 'NO' then " + DatabaseMetaData.columnNoNulls + " else " +
+                DatabaseMetaData.columnNullable + " end as NULLABLE, column_default as COLUMN_DEF, " +
+                "case when lcase(data_type) = 'date' then 10 when lcase(data_type) = 'time' then 8 " +
+                "when lcase(data_type) in ('datetime', 'timestamp') then 19 " +
+                "when character_maximum_length is null then numeric_precision " +
+                "when character_maximum_length > 2147483647 then 2147483647 " +
+                "else character_maximum_length end as COLUMN_SIZE, column_comment as REMARKS " +
+                "from information_schema.columns where table_schema = coalesce(?, database()) " +
+                "order by table_name, ordinal_position";
+        try(PreparedStatement statement = connection.prepareStatement(columnsSql)) {
+            statement.setString(1, schemaName);
+            try(ResultSet resultSet = statement.executeQuery()) {
+                while(resultSet.next())
+                    addColumn(resultSet, columnDescriptions, columnDescriptionsByTable);
+            }
+        }
+    }
+
+    /**
+     * Read the tables and columns of a schema from the jdbc meta data, with one <code>getTables</code> and one
+     * <code>getColumns</code> call.
+     * @param connection The database {@link Connection}
+     * @param schemaName The schema name.  Can be null.
+     * @param tables The schema name and comments by table name, filled in here.
+     * @param columnDescriptions The {@link ColumnDescription}s by table name, filled in here.
+     * @param columnDescriptionsByTable The {@link ColumnDescription}s by table and column name, filled in here.
+     * @throws SQLException On a jdbc error.
+     */
+    private static void readTables(Connection connection, String schemaName, Map<String,String[]> tables,
+                                   Map<String,List<ColumnDescription>> columnDescriptions,
+                                   Map<String,Map<String,ColumnDescription>> columnDescriptionsByTable)
+            throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        try(ResultSet resultSet = metaData.getTables(null, schemaName, "%", new String[] {"TABLE", "VIEW"})) {
+            while(resultSet.next())
+                addTable(resultSet.getString("TABLE_NAME"), resultSet.getString("TABLE_SCHEM"),
+                        resultSet.getString("REMARKS"), tables, columnDescriptions, columnDescriptionsByTable);
+        }
+        try(ResultSet resultSet = metaData.getColumns(null, schemaName, "%", "%")) {
+            while(resultSet.next())
+                addColumn(resultSet, columnDescriptions, columnDescriptionsByTable);
+        }
+    }
+
+    /**
+     * Get a connection's current schema.
+     * @param connection The database {@link Connection}
+     * @return The current schema, or null if the driver doesn't have one.
+     */
+    private static String currentSchema(Connection connection) {
+        try {
+            return connection.getSchema();
+        } catch (SQLException | AbstractMethodError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Add a table to the grouped tables and columns.
+     * @param tableName The table name.
+     * @param schemaName The schema name.  Can be null.
+     * @param comments The table comments.
+     * @param tables The schema name and comments by table name.
+     * @param columnDescriptions The {@link ColumnDescription}s by table name.
+     * @param columnDescriptionsByTable The {@link ColumnDescription}s by table and column name.
+     * @throws IllegalArgumentException When a table with the same name was added from another schema.
+     */
+    private static void addTable(String tableName, String schemaName, String comments, Map<String,String[]> tables,
+                                 Map<String,List<ColumnDescription>> columnDescriptions,
+                                 Map<String,Map<String,ColumnDescription>> columnDescriptionsByTable) {
+        String[] previous = tables.putIfAbsent(tableName, new String[] {schemaName, comments});
+        if(previous != null) {
+            if(!Objects.equals(previous[0], schemaName))
+                throw new IllegalArgumentException("Table " + tableName + " is in schemas " + previous[0] + " and " +
+                        schemaName + "; pass a schema name");
+            return;
+        }
+        columnDescriptions.put(tableName, new ArrayList<>());
+        columnDescriptionsByTable.put(tableName, new HashMap<>());
+    }
+
+    /**
+     * Add the column in the current row of a <code>getColumns</code> style result to its table, unless the table
+     * wasn't listed or already has a column with that name.
+     * @param resultSet The column meta data.
+     * @param columnDescriptions The {@link ColumnDescription}s by table name.
+     * @param columnDescriptionsByTable The {@link ColumnDescription}s by table and column name.
+     * @throws SQLException On a jdbc error.
+     */
+    private static void addColumn(ResultSet resultSet, Map<String,List<ColumnDescription>> columnDescriptions,
+                                  Map<String,Map<String,ColumnDescription>> columnDescriptionsByTable)
+            throws SQLException {
+        String tableName = resultSet.getString("TABLE_NAME");
+        Map<String,ColumnDescription> byName = columnDescriptionsByTable.get(tableName);
+        if(byName == null)
+            return;
+        ColumnDescription columnDescription = readColumnDescription(resultSet);
+        if(byName.putIfAbsent(columnDescription.getColumnName(), columnDescription) == null)
+            columnDescriptions.get(tableName).add(columnDescription);
+    }
+
+    /**
+     * Add primary and foreign key data for every table in a MySQL database, from one information_schema query.
+     * @param connection The database {@link Connection}
+     * @param schemaName The database name, or null for the connection's current database.
+     * @param columnDescriptionsByTable The {@link ColumnDescription}s by table and column name.
+     * @throws SQLException On a jdbc error.
+     */
+    private static void addMysqlKeys(Connection connection, String schemaName,
+                                     Map<String,Map<String,ColumnDescription>> columnDescriptionsByTable)
+            throws SQLException {
+        String sql = "select table_name, column_name, constraint_name, referenced_table_name, referenced_column_name " +
+                "from information_schema.key_column_usage where table_schema = coalesce(?, database()) " +
+                "and (constraint_name = 'PRIMARY' or referenced_table_name is not null)";
+        try(PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, schemaName);
+            try(ResultSet resultSet = statement.executeQuery()) {
+                while(resultSet.next()) {
+                    ColumnDescription columnDescription = columnDescription(columnDescriptionsByTable,
+                            resultSet.getString(1), resultSet.getString(2));
+                    if(columnDescription == null)
+                        continue;
+                    if("PRIMARY".equals(resultSet.getString(3))) {
+                        columnDescription.setPrimaryKey(true);
+                    } else {
+                        columnDescription.setForeignKey(true);
+                        columnDescription.setReferencedTable(resultSet.getString(4));
+                        columnDescription.setReferencedColumn(resultSet.getString(5));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add primary and foreign key data for every table in a schema, with one <code>getPrimaryKeys</code> and one
+     * <code>getImportedKeys</code> call if the driver accepts a null table name, or one of each per table if it
+     * doesn't.
+     * @param connection The database {@link Connection}
+     * @param schemaName The schema name.  Can be null.
+     * @param columnDescriptionsByTable The {@link ColumnDescription}s by table and column name.
+     * @throws SQLException On a jdbc error.
+     */
+    private static void addKeys(Connection connection, String schemaName,
+                                Map<String,Map<String,ColumnDescription>> columnDescriptionsByTable)
+            throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        try(ResultSet primaryKeys = metaData.getPrimaryKeys(null, schemaName, null);
+            ResultSet importedKeys = metaData.getImportedKeys(null, schemaName, null)) {
+            addKeys(primaryKeys, importedKeys, columnDescriptionsByTable);
+        } catch (SQLException e) {
+            for(String tableName : columnDescriptionsByTable.keySet()) {
+                try(ResultSet primaryKeys = metaData.getPrimaryKeys(null, schemaName, tableName);
+                    ResultSet importedKeys = metaData.getImportedKeys(null, schemaName, tableName)) {
+                    addKeys(primaryKeys, importedKeys, columnDescriptionsByTable);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add primary and foreign key data from <code>getPrimaryKeys</code> and <code>getImportedKeys</code> results.
+     * @param primaryKeys The primary key meta data.
+     * @param importedKeys The foreign key meta data.
+     * @param columnDescriptionsByTable The {@link ColumnDescription}s by table and column name.
+     * @throws SQLException On a jdbc error.
+     */
+    private static void addKeys(ResultSet primaryKeys, ResultSet importedKeys,
+                                Map<String,Map<String,ColumnDescription>> columnDescriptionsByTable)
+            throws SQLException {
+        while(primaryKeys.next()) {
+            ColumnDescription columnDescription = columnDescription(columnDescriptionsByTable,
+                    primaryKeys.getString("TABLE_NAME"), primaryKeys.getString("COLUMN_NAME"));
+            if(columnDescription != null)
+                columnDescription.setPrimaryKey(true);
+        }
+        while(importedKeys.next()) {
+            ColumnDescription columnDescription = columnDescription(columnDescriptionsByTable,
+                    importedKeys.getString("FKTABLE_NAME"), importedKeys.getString("FKCOLUMN_NAME"));
+            if(columnDescription != null) {
+                columnDescription.setForeignKey(true);
+                columnDescription.setReferencedTable(importedKeys.getString("PKTABLE_NAME"));
+                columnDescription.setReferencedColumn(importedKeys.getString("PKCOLUMN_NAME"));
+            }
+        }
+    }
+
+    /**
+     * Look up a column in the grouped {@link ColumnDescription}s.
+     * @param columnDescriptionsByTable The {@link ColumnDescription}s by table and column name.
+     * @param tableName The table name.
+     * @param columnName The column name.
+     * @return The {@link ColumnDescription}, or null if the table or column isn't there.
+     */
+    private static ColumnDescription columnDescription(Map<String,Map<String,ColumnDescription>> columnDescriptionsByTable,
+                                                       String tableName, String columnName) {
+        Map<String,ColumnDescription> byName = columnDescriptionsByTable.get(tableName);
+        return byName == null ? null : byName.get(columnName);
+    }
+
     /**
      * Get a list of {@link ColumnDescription}s for all of the columns of a table.
      * @param connection The database {@link Connection}
      * @param tableName The table name.
+     * @param catalog The catalog name.  Can be null.
      * @param schemaName The schema name.
      * @return A list of {@link ColumnDescription}s for all of the columns of a table.
      */
-    private static List<ColumnDescription> getColumnDescriptions(Connection connection, String tableName, String schemaName) {
+    private static List<ColumnDescription> getColumnDescriptions(Connection connection, String tableName, String catalog,
+                                                                 String schemaName) {
         List<ColumnDescription> columnDescriptions = new ArrayList<>();
         try {
-            ResultSet resultSet = connection.getMetaData().getColumns(null, schemaName, tableName, "%");
-            while (resultSet.next()) {
-                String name = resultSet.getString("COLUMN_NAME");
-                String type = resultSet.getString("TYPE_NAME");
-                boolean nullable = resultSet.getInt("NULLABLE") == DatabaseMetaData.columnNullable;
-                String defaultValue = resultSet.getString("COLUMN_DEF");
-                int columnSize = resultSet.getInt("COLUMN_SIZE");
-                String comments = resultSet.getString("REMARKS");
-
-                ColumnDescription columnDescription
-                        = new ColumnDescription(name, type, nullable, defaultValue, columnSize, comments);
-                columnDescriptions.add(columnDescription);
-            }
+            ResultSet resultSet = connection.getMetaData().getColumns(catalog, schemaName, tableName, "%");
+            while (resultSet.next())
+                columnDescriptions.add(readColumnDescription(resultSet));
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        addPrimaryKeys(connection, tableName, schemaName, columnDescriptions);
-        addForeignKeys(connection, tableName, schemaName, columnDescriptions);
+        Map<String,ColumnDescription> columnDescriptionsByName = byColumnName(columnDescriptions);
+        addPrimaryKeys(connection, tableName, catalog, schemaName, columnDescriptionsByName);
+        addForeignKeys(connection, tableName, catalog, schemaName, columnDescriptionsByName);
         return columnDescriptions;
     }
 
+    /**
+     * Read a {@link ColumnDescription} from the current row of a {@link DatabaseMetaData#getColumns} result.
+     * @param resultSet The column meta data.
+     * @return A {@link ColumnDescription}.
+     * @throws SQLException On a jdbc error.
+     */
+    private static ColumnDescription readColumnDescription(ResultSet resultSet) throws SQLException {
+        String name = resultSet.getString("COLUMN_NAME");
+        String type = resultSet.getString("TYPE_NAME");
+        boolean nullable = resultSet.getInt("NULLABLE") == DatabaseMetaData.columnNullable;
+        String defaultValue = resultSet.getString("COLUMN_DEF");
+        int columnSize = resultSet.getInt("COLUMN_SIZE");
+        String comments = resultSet.getString("REMARKS");
+
+        return new ColumnDescription(name, type, nullable, defaultValue, columnSize, comments);
+    }
+
+    /**
+     * Index a list of {@link ColumnDescription}s by column name.
+     * @param columnDescriptions A list of {@link ColumnDescription}s.
+     * @return The {@link ColumnDescription}s by column name.  If two columns have the same name the first one wins.
+     */
+    private static Map<String,ColumnDescription> byColumnName(List<ColumnDescription> columnDescriptions) {
+        Map<String,ColumnDescription> columnDescriptionsByName = new HashMap<>();
+        for(ColumnDescription columnDescription : columnDescriptions)
+            columnDescriptionsByName.putIfAbsent(columnDescription.getColumnName(), columnDescription);
+        return columnDescriptionsByName;
+    }
+
     /**
      * Go through a list of {@link ColumnDescription}s and add foreign key data.
      * @param connection The database {@link Connection}
      * @param tableName The table name.
+     * @param catalog The catalog name.  Can be null.
      * @param schemaName The schema name.
-     * @param columnDescriptions A list of {@link ColumnDescription}s.
+     * @param columnDescriptions The {@link ColumnDescription}s by column name.
      */
-    private static void addForeignKeys(Connection connection, String tableName, String schemaName, List<ColumnDescription> columnDescriptions) {
+    private static void addForeignKeys(Connection connection, String tableName, String catalog, String schemaName,
+                                       Map<String,ColumnDescription> columnDescriptions) {
         try {
-            ResultSet resultSet = connection.getMetaData().getImportedKeys(null, schemaName, tableName);
+            ResultSet resultSet = connection.getMetaData().getImportedKeys(catalog, schemaName, tableName);
             while(resultSet.next()) {
                 String pkColumnName = resultSet.getString("PKCOLUMN_NAME");
                 String pkTableName = resultSet.getString("PKTABLE_NAME");
-                String fkColumnName = resultSet.getString("FKCOLUMN_NAME");
-                for(ColumnDescription columnDescription : columnDescriptions) {
-                    if(columnDescription.getColumnName().equals(fkColumnName)) {
-                        columnDescription.setForeignKey(true);
-                        columnDescription.setReferencedColumn(pkColumnName);
-                        columnDescription.setReferencedTable(pkTableName);
-                    }
+                ColumnDescription columnDescription = columnDescriptions.get(resultSet.getString("FKCOLUMN_NAME"));
+                if(columnDescription != null) {
+                    columnDescription.setForeignKey(true);
+                    columnDescription.setReferencedColumn(pkColumnName);
+                    columnDescription.setReferencedTable(pkTableName);
                 }
             }
         } catch (SQLException e) {
@@ -207,19 +510,18 @@ public class TableDescription {
      * Go through a list of {@link ColumnDescription}s and add primary key data.
      * @param connection The database {@link Connection}
      * @param tableName The table name.
+     * @param catalog The catalog name.  Can be null.
      * @param schemaName The schema name.
-     * @param columnDescriptions A list of {@link ColumnDescription}s.
+     * @param columnDescriptions The {@link ColumnDescription}s by column name.
      */
-    private static void addPrimaryKeys(Connection connection, String tableName, String schemaName, List<ColumnDescription> columnDescriptions) {
+    private static void addPrimaryKeys(Connection connection, String tableName, String catalog, String schemaName,
+                                       Map<String,ColumnDescription> columnDescriptions) {
         try {
-            ResultSet resultSet = connection.getMetaData().getPrimaryKeys(null, schemaName, tableName);
+            ResultSet resultSet = connection.getMetaData().getPrimaryKeys(catalog, schemaName, tableName);
             while(resultSet.next()) {
-                String pkName = resultSet.getString("COLUMN_NAME");
-                for(ColumnDescription columnDescription : columnDescriptions) {
-                    if(columnDescription.getColumnName().equals(pkName)) {
-                        columnDescription.setPrimaryKey(true);
-                    }
-                }
+                ColumnDescription columnDescription = columnDescriptions.get(resultSet.getString("COLUMN_NAME"));
+                if(columnDescription != null)
+                    columnDescription.setPrimaryKey(true);
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
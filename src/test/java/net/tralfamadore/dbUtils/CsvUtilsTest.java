@@ -1,16 +1,51 @@
 package net.tralfamadore.dbUtils;
 
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
 import net.tralfamadore.StringUtils;
 import net.tralfamadore.config.AppConfig;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.util.ByteArrayReadableSeekableByteChannel;
+import org.hibernate.JDBCException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.ReturningWork;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Class: CsvUtilsTest
@@ -85,4 +120,278 @@ public class CsvUtilsTest {
         File file = new File("/Users/billreh/Desktop/addressIn.csv");
         csvUtils.insertFromCsv("address", file, processors);
     }
+
+    @Test
+    public void testInsertSql() {
+        List<String> columns = Arrays.asList("street", "city");
+        assertEquals("insert into address(street, city) values (?,?)", CsvInserter.insertSql("address", columns, 1));
+        assertEquals("insert into address(street, city) values (?,?), (?,?), (?,?)",
+                CsvInserter.insertSql("address", columns, 3));
+    }
+
+    @Test
+    public void testSkippedBatchSavepoints() throws Exception {
+        List<String> calls = new ArrayList<>();
+        Connection connection = fakeConnection(false, sql -> false, calls);
+        CsvImportSettings settings = new CsvImportSettings().batchSize(5).rowsPerStatement(2)
+                .failurePolicy(CsvImportSettings.FailurePolicy.SKIP_BATCH);
+        try(CsvInserter inserter = new CsvInserter(connection, "address", Arrays.asList("street", "city"), settings)) {
+            for(int i = 0; i < 5; i++)
+                inserter.add(new Object[] { "street" + i, "city" + i });
+            assertEquals(5, inserter.result(0).getRowCount());
+        }
+        assertEquals(Arrays.asList("setSavepoint", "releaseSavepoint"), calls);
+    }
+
+    @Test
+    public void testSkippedBatchInAutoCommit() throws Exception {
+        List<String> calls = new ArrayList<>();
+        Connection connection = fakeConnection(true, sql -> sql.startsWith("insert") && !sql.contains("), ("),
+                calls);
+        CsvImportSettings settings = new CsvImportSettings().batchSize(5).rowsPerStatement(2)
+                .failurePolicy(CsvImportSettings.FailurePolicy.SKIP_BATCH);
+        try(CsvInserter inserter = new CsvInserter(connection, "address", Arrays.asList("street", "city"), settings)) {
+            for(int i = 0; i < 5; i++)
+                inserter.add(new Object[] { "street" + i, "city" + i });
+            CsvImportResult result = inserter.result(0);
+            assertEquals(4, result.getRowCount());
+            assertEquals(1, result.getBatchErrors().size());
+            assertEquals(5, result.getBatchErrors().get(0).getFirstRow());
+            assertEquals(1, result.getBatchErrors().get(0).getRowCount());
+        }
+        assertEquals(Collections.emptyList(), calls);
+    }
+
+    @Test(timeout = 10000)
+    public void testParallelInsertAbortsOnFailedBatch() throws Exception {
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        SessionFactory sessionFactory = fakeSessionFactory(() -> fakeConnection(false, "row7"::equals, calls), false,
+                calls);
+        try {
+            parallelInsert(sessionFactory, 20);
+            fail("The import should have failed");
+        } catch (RuntimeException e) {
+            assertEquals(Collections.emptyList(), calls.stream().filter("commit"::equals).collect(Collectors.toList()));
+            assertEquals(2, calls.stream().filter("rollbackTransaction"::equals).count());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testParallelInsertAbortsOnFailedCommit() throws Exception {
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        SessionFactory sessionFactory = fakeSessionFactory(() -> fakeConnection(false, value -> false, calls), true,
+                calls);
+        try {
+            parallelInsert(sessionFactory, 20);
+            fail("The import should have failed");
+        } catch (RuntimeException e) {
+            assertTrue(calls.contains("commit"));
+        }
+    }
+
+    /**
+     * Import rows "row1" to "row[rowCount]" in batches of 2 with 2 writers, aborting on failure.
+     */
+    private static CsvImportResult parallelInsert(SessionFactory sessionFactory, int rowCount) {
+        StringBuilder csv = new StringBuilder();
+        for(int i = 1; i <= rowCount; i++)
+            csv.append("row").append(i).append('\n');
+        CsvParser csvParser = new CsvParser(new CsvParserSettings());
+        csvParser.beginParsing(new StringReader(csv.toString()));
+        CsvImportSettings settings = new CsvImportSettings().batchSize(2).writerThreads(2)
+                .failurePolicy(CsvImportSettings.FailurePolicy.ABORT);
+        return new CsvImportPipeline(sessionFactory, "address", Collections.singletonList("street"), settings)
+                .run(csvParser.parseNext(), csvParser, System.nanoTime());
+    }
+
+    /**
+     * A session factory whose sessions run their work on a fake connection and record their transaction's commits
+     * and rollbacks.
+     */
+    static SessionFactory fakeSessionFactory(Supplier<Connection> connections, boolean failCommit, List<String> calls) {
+        return (SessionFactory) Proxy.newProxyInstance(CsvUtilsTest.class.getClassLoader(),
+                new Class<?>[] { SessionFactory.class }, (proxy, method, args) -> {
+                    if(!method.getName().equals("openSession"))
+                        return null;
+                    Connection connection = connections.get();
+                    boolean[] active = { false };
+                    Transaction transaction = (Transaction) Proxy.newProxyInstance(
+                            CsvUtilsTest.class.getClassLoader(), new Class<?>[] { Transaction.class }, (p, m, a) -> {
+                                switch(m.getName()) {
+                                    case "isActive":
+                                        return active[0];
+                                    case "commit":
+                                        calls.add("commit");
+                                        if(failCommit)
+                                            throw new JDBCException("Commit failed", new SQLException());
+                                        active[0] = false;
+                                        return null;
+                                    case "rollback":
+                                        calls.add("rollbackTransaction");
+                                        active[0] = false;
+                                        return null;
+                                    default:
+                                        return null;
+                                }
+                            });
+                    return Proxy.newProxyInstance(CsvUtilsTest.class.getClassLoader(),
+                            new Class<?>[] { Session.class }, (p, m, a) -> {
+                                switch(m.getName()) {
+                                    case "beginTransaction":
+                                        active[0] = true;
+                                        return transaction;
+                                    case "getTransaction":
+                                        return transaction;
+                                    case "doReturningWork":
+                                        try {
+                                            return ((ReturningWork<?>) a[0]).execute(connection);
+                                        } catch (SQLException e) {
+                                            throw new JDBCException("Work failed", e);
+                                        }
+                                    default:
+                                        return null;
+                                }
+                            });
+                });
+    }
+
+    /**
+     * A connection that records its savepoint calls and whose statements fail to execute when their sql or one of
+     * their values matches.
+     */
+    static Connection fakeConnection(boolean autoCommit, Predicate<String> failing, List<String> calls) {
+        return (Connection) Proxy.newProxyInstance(CsvUtilsTest.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    switch(method.getName()) {
+                        case "getAutoCommit":
+                            return autoCommit;
+                        case "setSavepoint":
+                            calls.add(method.getName());
+                            return Proxy.newProxyInstance(CsvUtilsTest.class.getClassLoader(),
+                                    new Class<?>[] { Savepoint.class }, (p, m, a) -> null);
+                        case "releaseSavepoint":
+                        case "rollback":
+                            calls.add(method.getName());
+                            return null;
+                        case "prepareStatement":
+                            String sql = (String) args[0];
+                            List<Object> values = new ArrayList<>();
+                            return Proxy.newProxyInstance(CsvUtilsTest.class.getClassLoader(),
+                                    new Class<?>[] { PreparedStatement.class }, (p, m, a) -> {
+                                        switch(m.getName()) {
+                                            case "setObject":
+                                                values.add(a[1]);
+                                                return null;
+                                            case "executeBatch":
+                                                boolean failed = failing.test(sql) ||
+                                                        values.stream().anyMatch(v -> failing.test(String.valueOf(v)));
+                                                values.clear();
+                                                if(failed)
+                                                    throw new SQLException("Failed: " + sql);
+                                                return new int[0];
+                                            default:
+                                                return m.getReturnType() == boolean.class ? false : null;
+                                        }
+                                    });
+                        default:
+                            return method.getReturnType() == boolean.class ? false : null;
+                    }
+                });
+    }
+
+    @Ignore
+    @Test
+    public void testBatchedInsertFromCsv() {
+        List<ColumnNameProcessor> processors = new ArrayList<>();
+        processors.add(zipCodeUnprocessor);
+        processors.add(String::toLowerCase);
+        processors.add(spaceToUnderscore);
+        File file = new File("/Users/billreh/Desktop/addressIn.csv");
+        CsvImportResult result = csvUtils.insertFromCsv("address", file, processors,
+                new CsvImportSettings().batchSize(500).rowsPerStatement(50).commitInterval(5000)
+                        .failurePolicy(CsvImportSettings.FailurePolicy.SKIP_BATCH));
+        System.out.println(result);
+        result.getBatchErrors().forEach(System.out::println);
+    }
+
+    @Ignore
+    @Test
+    public void testParallelInsertFromCsv() {
+        List<ColumnNameProcessor> processors = new ArrayList<>();
+        processors.add(zipCodeUnprocessor);
+        processors.add(String::toLowerCase);
+        processors.add(spaceToUnderscore);
+        File file = new File("/Users/billreh/Desktop/addressIn.csv");
+        CsvImportResult result = csvUtils.insertFromCsvParallel("address", file, processors,
+                new CsvImportSettings().batchSize(500).writerThreads(4));
+        System.out.println(result);
+    }
+
+    @Test
+    public void testLoadDataSql() {
+        assertEquals("load data local infile 'csv' into table address character set utf8mb4 fields terminated by ',' " +
+                        "optionally enclosed by '\"' escaped by '' lines terminated by '\\r\\n' ignore 1 lines (@v0, @v1) " +
+                        "set street = nullif(@v0, ''), city = nullif(@v1, '')",
+                CsvUtils.loadDataSql("address", Arrays.asList("street", "city"), "\r\n"));
+    }
+
+    @Ignore
+    @Test
+    public void testLoadFromCsv() {
+        List<ColumnNameProcessor> processors = new ArrayList<>();
+        processors.add(zipCodeUnprocessor);
+        processors.add(String::toLowerCase);
+        processors.add(spaceToUnderscore);
+        File file = new File("/Users/billreh/Desktop/addressIn.csv");
+        System.out.println(csvUtils.loadFromCsv("address", file, processors, new CsvImportSettings()));
+    }
+
+    @Test
+    public void testCsvFromQueryGzip() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long rows = csvUtils.csvFromQuery("select street, city from address", new ArrayList<>(), outputStream,
+                Collections.singletonList(toLower), new CsvExportSettings().fetchSize(100)
+                        .compression(CsvExportSettings.Compression.GZIP));
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(outputStream.toByteArray())), StandardCharsets.UTF_8))) {
+            assertEquals("street,city", reader.readLine());
+            assertEquals(rows, reader.lines().count());
+        }
+    }
+
+    @Test
+    public void testCsvFromTableParallel() throws Exception {
+        File file = File.createTempFile("address", ".csv");
+        try {
+            List<File> files = csvUtils.csvFromTableParallel("address", "id", file.getPath(),
+                    Collections.singletonList(toLower), new CsvExportSettings().partitions(3));
+            assertEquals(Collections.singletonList(file), files);
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            assertEquals(1, lines.stream().filter(lines.get(0)::equals).count());
+            assertEquals(((Number) csvUtils.getEm().createNativeQuery("select count(*) from address")
+                    .getSingleResult()).longValue(), lines.size() - 1);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testArrowFromQuery() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long rows = csvUtils.arrowFromQuery("select id, street from address", new ArrayList<>(),
+                Channels.newChannel(outputStream), Collections.singletonList(toLower),
+                new CsvExportSettings().recordBatchSize(10));
+        try(BufferAllocator allocator = new RootAllocator();
+            ArrowFileReader reader = new ArrowFileReader(new ByteArrayReadableSeekableByteChannel(
+                    outputStream.toByteArray()), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            assertEquals(Arrays.asList("id", "street"), root.getSchema().getFields().stream()
+                    .map(Field::getName).collect(Collectors.toList()));
+            long readRows = 0;
+            while(reader.loadNextBatch())
+                readRows += root.getRowCount();
+            assertEquals(rows, readRows);
+        }
+    }
 }
@@ -6,21 +6,46 @@ import net.tralfamadore.config.AppConfig;
 import net.tralfamadore.dbUtils.entity.Address;
 import net.tralfamadore.dbUtils.entity.Listing;
 import net.tralfamadore.dbUtils.entity.Testme;
+import net.tralfamadore.dbUtils.entity.generated.TestmeBase;
 import net.tralfamadore.domain.*;
 import org.junit.AfterClass;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Class: net.tralfamadore.dbUtils.DbUtilsTest
@@ -132,6 +157,279 @@ public class DbUtilsTest {
         }
     }
 
+    @Test
+    public void testTableDescriptionCache() {
+        TableDescription tableDescription = new DatabaseUtils().getTableDescription("listing");
+        assertTrue(tableDescription == new DatabaseUtils().getTableDescription("listing"));
+        assertEquals("address_id", tableDescription.getColumnDescription("address_id")
+                .map(ColumnDescription::getColumnName).orElse(null));
+        assertFalse(tableDescription.getColumnDescription("not_there").isPresent());
+
+        DatabaseUtils.getMetadataCache().invalidateTable("LISTING");
+        assertFalse(tableDescription == new DatabaseUtils().getTableDescription("listing"));
+    }
+
+    @Test
+    public void testGetTableDescriptions() {
+        Map<String,TableDescription> tableDescriptions = new DatabaseUtils().getTableDescriptions();
+        TableDescription listing = tableDescriptions.get("listing");
+        TableDescription single = new DatabaseUtils().connectionCallback(connection ->
+                TableDescription.getTableDescription(connection, "listing", null));
+        assertEquals(single.getColumnNames(), listing.getColumnNames());
+        assertEquals(single.getPrimaryKeys().toString(), listing.getPrimaryKeys().toString());
+        assertEquals(single.getForeignKeys().toString(), listing.getForeignKeys().toString());
+        assertTrue(listing == new DatabaseUtils().getTableDescription("listing"));
+    }
+
+    @Test
+    public void testSchemaSnapshot() throws Exception {
+        File file = File.createTempFile("schema", ".snapshot");
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            SchemaSnapshot snapshot = new DatabaseUtils().loadSchemaSnapshot(null, file);
+            assertTrue(file.exists());
+            assertEquals(snapshot.getTableDescriptions().keySet(), new HashSet<>(snapshot.getRefreshedTables()));
+
+            SchemaSnapshot reloaded = new DatabaseUtils().loadSchemaSnapshot(null, file);
+            assertTrue(reloaded.getRefreshedTables().isEmpty());
+            assertEquals(snapshot.getTableDescriptions().keySet(), reloaded.getTableDescriptions().keySet());
+            assertEquals(snapshot.getTableDescriptions().get("listing").toString(),
+                    reloaded.getTableDescriptions().get("listing").toString());
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEntityIndex() throws Exception {
+        Set<String> classNames = EntityIndex.readIndex(Thread.currentThread().getContextClassLoader());
+        assertTrue(classNames.contains(Listing.class.getName()));
+        assertTrue(classNames.contains(TestmeBase.class.getName()));
+        assertEquals(new HashSet<>(EntityIndex.scan("net.tralfamadore", Thread.currentThread().getContextClassLoader())),
+                new HashSet<>(EntityIndex.hibernateAnnotatedClasses("net.tralfamadore",
+                        Thread.currentThread().getContextClassLoader())));
+    }
+
+    @Test
+    public void testEntityIndexScansUnindexedRoots() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        Path root = Files.createTempDirectory("unindexed");
+        Path source = root.resolve("Unindexed.java");
+        Files.write(source, Arrays.asList("package net.tralfamadore.unindexed;",
+                "@javax.persistence.Entity public class Unindexed { @javax.persistence.Id private Long id; }"));
+        assertEquals(0, compiler.run(null, null, null, "-proc:none", "-d", root.toString(),
+                "-cp", System.getProperty("java.class.path"), source.toString()));
+        try(URLClassLoader classLoader = new URLClassLoader(new URL[] { root.toUri().toURL() },
+                Thread.currentThread().getContextClassLoader())) {
+            List<Class<?>> classes = EntityIndex.hibernateAnnotatedClasses("net.tralfamadore", classLoader, true);
+            assertTrue(classes.stream().anyMatch(c -> c.getName().equals("net.tralfamadore.unindexed.Unindexed")));
+            assertTrue(classes.contains(Listing.class));
+            classes = EntityIndex.hibernateAnnotatedClasses("net.tralfamadore", classLoader);
+            assertFalse(classes.stream().anyMatch(c -> c.getName().equals("net.tralfamadore.unindexed.Unindexed")));
+            assertTrue(classes.contains(Listing.class));
+        }
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        DatabaseUtils.warmUp("default");
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Object[]>>> results = new ArrayList<>();
+            for(int i = 0; i < 4; i++)
+                results.add(executorService.submit(() -> new DatabaseUtils().sql("select id from listing").selectList()));
+            for(Future<List<Object[]>> result : results)
+                assertEquals(results.get(0).get().size(), result.get().size());
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testWarmUpMissingConfig() {
+        DatabaseUtils.warmUp("not_there");
+    }
+
+    @Test
+    public void testReuseInstance() {
+        DatabaseUtils databaseUtils = new DatabaseUtils();
+        int first = databaseUtils.sql("select id from listing").nocache().selectList().size();
+        assertEquals(first, databaseUtils.sql("select id from listing").nocache().selectList().size());
+        assertEquals(first, databaseUtils.sql("select id from listing").nocache().selectMapList().size());
+    }
+
+    @Test
+    public void testPerInstanceSession() {
+        try(DatabaseUtils databaseUtils = new DatabaseUtils("default", SessionScope.PER_INSTANCE)) {
+            Connection connection = databaseUtils.connectionCallback(c -> c);
+            for(int i = 0; i < 10; i++)
+                databaseUtils.sql("select id from listing where id > ?").bindVars(i).nocache().selectList();
+            assertSame(connection, databaseUtils.connectionCallback(c -> c));
+        }
+    }
+
+    @Test
+    public void testThreadBoundSession() {
+        try {
+            Connection connection = new DatabaseUtils("default", SessionScope.THREAD_BOUND).connectionCallback(c -> c);
+            new DatabaseUtils("default", SessionScope.THREAD_BOUND).sql("select id from listing").nocache().selectList();
+            assertSame(connection, new DatabaseUtils("default", SessionScope.THREAD_BOUND).connectionCallback(c -> c));
+        } finally {
+            DatabaseUtils.closeThreadSessions();
+        }
+    }
+
+    @Test
+    public void testNestedThreadBoundTransactions() {
+        String insert = "insert into testme (stringVal, doubleVal, dateVal, timestameVal) VALUES(?, ?, ?, ?)";
+        long countBefore = new DatabaseUtils().sql("select count(*) from testme").select(long.class).orElse(0L);
+        try {
+            DatabaseUtils outer = new DatabaseUtils("default", SessionScope.THREAD_BOUND);
+            outer.transactionCallback(databaseUtils -> {
+                Connection connection = databaseUtils.connectionCallback(c -> c);
+                DatabaseUtils inner = new DatabaseUtils("default", SessionScope.THREAD_BOUND);
+                inner.sql(insert).bindVars("inner", 2.0, new Date(), new Date()).execute();
+                inner.transactionCallback(nested ->
+                        nested.sql(insert).bindVars("nested", 2.0, new Date(), new Date()).execute());
+                assertSame(connection, inner.connectionCallback(c -> c));
+                databaseUtils.sql(insert).bindVars("outer", 2.0, new Date(), new Date()).execute();
+                return null;
+            });
+            long countAfter = new DatabaseUtils().sql("select count(*) from testme").select(long.class).orElse(0L);
+            assertEquals(countBefore + 3, countAfter);
+
+            outer.transactionCallback(databaseUtils -> {
+                databaseUtils.sql(insert).bindVars("outer", 2.0, new Date(), new Date()).execute();
+                try {
+                    new DatabaseUtils("default", SessionScope.THREAD_BOUND).transactionCallback(inner ->
+                            inner.sql("insert into not_there values(1)").execute());
+                    fail();
+                } catch(RuntimeException e) {
+                    // the failed inner callback leaves the transaction to be rolled back
+                }
+                return null;
+            });
+            countAfter = new DatabaseUtils().sql("select count(*) from testme").select(long.class).orElse(0L);
+            assertEquals(countBefore + 3, countAfter);
+        } finally {
+            DatabaseUtils.closeThreadSessions();
+        }
+    }
+
+    @Test
+    public void testAsync() {
+        DatabaseUtils databaseUtils = new DatabaseUtils();
+        List<CompletableFuture<List<Object[]>>> futures = new ArrayList<>();
+        for(int i = 0; i < 20; i++)
+            futures.add(databaseUtils.sql("select id from listing where id > ?").bindVars(i).nocache().selectListAsync());
+        CompletableFuture<List<Map<String,Object>>> maps = databaseUtils.sql("select id from listing").bindVars()
+                .selectMapListAsync();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        for(int i = 1; i < futures.size(); i++)
+            assertTrue(futures.get(i).join().size() <= futures.get(i - 1).join().size());
+        assertEquals(maps.join().size(), new DatabaseUtils().sql("select id from listing").nocache().selectList().size());
+    }
+
+    @Test(expected = CompletionException.class)
+    public void testAsyncFailure() {
+        new DatabaseUtils().sql("select * from not_there").nocache().selectListAsync().join();
+    }
+
+    @Test
+    public void testStatementCache() {
+        StatementCache statementCache = new StatementCache(1);
+        long count = new DatabaseUtils().connectionCallback(connection -> {
+            try {
+                long rows = 0;
+                for(int i = 0; i < 3; i++)
+                    rows += statementCache.query(connection, "select id from listing where id > ?",
+                            Collections.singletonList(i), resultSet -> resultSet.next() ? 1 : 0);
+                statementCache.query(connection, "select id from address", Collections.emptyList(), ResultSet::next);
+                return rows;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(count >= 0);
+        assertEquals(2, statementCache.stats().getHitCount());
+        assertEquals(2, statementCache.stats().getMissCount());
+        assertEquals(1, statementCache.stats().getEvictionCount());
+
+        long hits = DatabaseUtils.getStatementCache().stats().getHitCount();
+        new DatabaseUtils().transactionCallback(databaseUtils -> databaseUtils.connectionCallback(connection -> {
+            try {
+                for(int i = 0; i < 2; i++)
+                    DatabaseUtils.getStatementCache().query(connection, "select id from listing",
+                            Collections.emptyList(), ResultSet::next);
+                return null;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        assertTrue(DatabaseUtils.getStatementCache().stats().getHitCount() > hits);
+    }
+
+    @Test
+    public void testStatementCacheUnwrapsPooledConnections() throws Exception {
+        AtomicInteger prepared = new AtomicInteger();
+        Connection physical = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    switch(method.getName()) {
+                        case "prepareStatement":
+                            prepared.incrementAndGet();
+                            return Proxy.newProxyInstance(getClass().getClassLoader(),
+                                    new Class<?>[] { PreparedStatement.class }, (p, m, a) ->
+                                            m.getName().equals("executeQuery") ? Proxy.newProxyInstance(
+                                                    getClass().getClassLoader(), new Class<?>[] { ResultSet.class },
+                                                    (r, rm, ra) -> rm.getReturnType() == boolean.class ? false : null)
+                                                    : m.getReturnType() == boolean.class ? false : null);
+                        case "isWrapperFor":
+                        case "isClosed":
+                            return false;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+        StatementCache statementCache = new StatementCache();
+        for(int borrow = 0; borrow < 3; borrow++) {
+            Connection pooled = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                        switch(method.getName()) {
+                            case "isWrapperFor":
+                                return true;
+                            case "unwrap":
+                                return physical;
+                            default:
+                                throw new AssertionError(method.getName() + " called on the pool's wrapper");
+                        }
+                    });
+            statementCache.query(pooled, "select id from listing", Collections.emptyList(), ResultSet::next);
+        }
+        assertEquals(1, prepared.get());
+        assertEquals(2, statementCache.stats().getHitCount());
+        assertEquals(1, statementCache.getConnectionCount());
+    }
+
+    @Test
+    public void testPoolStats() {
+        assertFalse(DatabaseUtils.getPoolStats("not_there").isPresent());
+        new DatabaseUtils().sql("select id from listing").selectList();
+        Optional<PoolStats> poolStats = DatabaseUtils.getPoolStats("default");
+        assertTrue(poolStats.isPresent());
+        assertEquals("dbUtils-default", poolStats.get().getPoolName());
+        assertEquals(DatabaseUtils.DEFAULT_POOL_SIZE, poolStats.get().getMaximumPoolSize());
+        assertTrue(poolStats.get().getTotalConnections() > 0);
+        assertTrue(poolStats.get().getTotalConnections() <= poolStats.get().getMaximumPoolSize());
+        System.out.println(poolStats.get());
+    }
+
     @Test
     public void testGetTheTableNames() {
         theDatabaseUtils.getTableNames(null, null).forEach(System.out::println);
@@ -303,14 +601,165 @@ public class DbUtilsTest {
         System.out.println(stopwatch.toString());
     }
 
-    @Test(expected = ClassCastException.class)
-    public void testBreakCache() throws Exception {
+    @Test
+    public void testUncachedQueriesSkipTheCache() {
+        ResultCache oldCache = DatabaseUtils.getResultCache();
+        ResultCache resultCache = new CaffeineResultCache();
+        DatabaseUtils.setResultCache(resultCache);
+        try {
+            new DatabaseUtils().sql("select id from listing").selectList();
+            new DatabaseUtils().sql("select id from listing").nocache().selectMapList();
+            assertEquals(0, resultCache.stats().getHitCount() + resultCache.stats().getMissCount());
+            new DatabaseUtils().sql("select id from listing").cache(1, TimeUnit.MINUTES).selectList();
+            assertEquals(1, resultCache.stats().getMissCount());
+        } finally {
+            DatabaseUtils.setResultCache(oldCache);
+        }
+    }
+
+    @Test
+    public void testInvalidateDuringLoad() throws Exception {
+        ResultCache resultCache = new CaffeineResultCache();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        CompletableFuture<String> slowLoad = CompletableFuture.supplyAsync(() ->
+                resultCache.get("rows", 1, 0, TimeUnit.MINUTES, () -> {
+                    loading.countDown();
+                    try {
+                        written.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return "before write";
+                }));
+        loading.await();
+        resultCache.invalidateTables(Collections.singleton("listing"));
+        assertEquals("after write", resultCache.get("rows", 1, 0, TimeUnit.MINUTES, () -> "after write"));
+        written.countDown();
+        assertEquals("before write", slowLoad.get());
+        assertEquals("after write", resultCache.get("rows").getValue());
+    }
+
+    @Test
+    public void testAsyncLimiterQueuesWithoutThreads() {
+        AsyncLimiter limiter = new AsyncLimiter(2);
+        List<Runnable> submitted = new ArrayList<>();
+        AtomicInteger ran = new AtomicInteger();
+        Executor executor = limiter.on(submitted::add);
+        for(int i = 0; i < 5; i++)
+            executor.execute(ran::incrementAndGet);
+        assertEquals(2, submitted.size());
+        assertEquals(3, limiter.getWaiting());
+        while(!submitted.isEmpty()) {
+            submitted.remove(0).run();
+            assertTrue(submitted.size() <= 2);
+        }
+        assertEquals(5, ran.get());
+        assertEquals(0, limiter.getWaiting());
+    }
+
+    @Test
+    public void testStaleRefreshUsesGivenExecutor() throws Exception {
+        ResultCache resultCache = new CaffeineResultCache();
+        List<Runnable> refreshes = new ArrayList<>();
+        resultCache.get("key", 10, 1000, TimeUnit.MILLISECONDS, () -> "old", refreshes::add);
+        Thread.sleep(50);
+        assertEquals("old", resultCache.get("key", 10, 1000, TimeUnit.MILLISECONDS, () -> "new", refreshes::add));
+        assertEquals(1, refreshes.size());
+        refreshes.get(0).run();
+        assertEquals("new", resultCache.get("key").getValue());
+    }
+
+    @Test
+    public void testResultCacheStats() throws Exception {
+        ResultCache resultCache = new CaffeineResultCache(10);
+        resultCache.put("one", Arrays.asList(1, 2, 3), 1, TimeUnit.MINUTES);
+        resultCache.put("two", null, 1, TimeUnit.MINUTES);
+        assertEquals(Arrays.asList(1, 2, 3), resultCache.get("one").getValue());
+        assertTrue(resultCache.get("two") != null);
+        assertTrue(resultCache.get("three") == null);
+        assertEquals(2, resultCache.stats().getHitCount());
+        assertEquals(1, resultCache.stats().getMissCount());
+
+        resultCache.put("short", "value", 10, TimeUnit.MILLISECONDS);
+        Thread.sleep(50);
+        assertTrue(resultCache.get("short") == null);
+    }
+
+    @Test
+    public void testResultCacheCoalescesLoads() throws Exception {
+        ResultCache resultCache = new CaffeineResultCache();
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<String>> futures = new ArrayList<>();
+        for(int i = 0; i < 8; i++) {
+            futures.add(executorService.submit(() -> resultCache.get("key", 1, 0, TimeUnit.MINUTES, () -> {
+                loads.incrementAndGet();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return "value";
+            })));
+        }
+        for(Future<String> future : futures)
+            assertEquals("value", future.get());
+        executorService.shutdown();
+        assertEquals(1, loads.get());
+
+        resultCache.get("swr", 10, 1000, TimeUnit.MILLISECONDS, () -> "old");
+        Thread.sleep(50);
+        assertEquals("old", resultCache.get("swr", 10, 1000, TimeUnit.MILLISECONDS, () -> "new"));
+        Thread.sleep(100);
+        assertEquals("new", resultCache.get("swr", 10, 1000, TimeUnit.MILLISECONDS, () -> "newer"));
+    }
+
+    @Test
+    public void testCacheKeys() throws Exception {
         Optional<Date> now = new DatabaseUtils().cache(1, TimeUnit.MINUTES).sql("select dateVal from testme limit 1").select(Date.class);
-        System.out.println(now.get().getTime());
-        now = new DatabaseUtils().sql("select dateVal from testme limit 1").select(Date.class);
-        System.out.println(now.get().getTime());
-        Optional<LocalDate> alsoNow = new DatabaseUtils().sql("select dateVal from testme limit 1").select(LocalDate.class);
-        System.out.println(alsoNow.get().atStartOfDay());
+        List<Date> nows = new DatabaseUtils().cache(1, TimeUnit.MINUTES).sql("select dateVal from testme limit 1").selectList(Date.class);
+        assertEquals(now.isPresent() ? 1 : 0, nows.size());
+        List<Object[]> rows = new DatabaseUtils().cache(1, TimeUnit.MINUTES).sql("select dateVal from testme limit 1").selectList();
+        assertEquals(nows.size(), rows.size());
+
+        long all = new DatabaseUtils().cache(1, TimeUnit.MINUTES).sql("select count(*) from testme where id > ?")
+                .bindVar(-1).select(long.class).orElse(0L);
+        long none = new DatabaseUtils().cache(1, TimeUnit.MINUTES).sql("select count(*) from testme where id > ?")
+                .bindVar(Long.MAX_VALUE).select(long.class).orElse(0L);
+        assertEquals(0L, none);
+        assertEquals(all, new DatabaseUtils().sql("select count(*) from testme").select(long.class).orElse(0L).longValue());
+
+        assertEquals(new QueryCacheKey("default", "select ?", Collections.singletonList(1), QueryCacheKey.Shape.ROWS),
+                new QueryCacheKey("default", "select ?", Collections.singletonList(1), QueryCacheKey.Shape.ROWS));
+        assertFalse(new QueryCacheKey("default", "select ?", Collections.singletonList(1), QueryCacheKey.Shape.ROWS).equals(
+                new QueryCacheKey("default", "select ?", Collections.singletonList(1), QueryCacheKey.Shape.MAPS)));
+    }
+
+    @Test
+    public void testCacheInvalidation() throws Exception {
+        long countBefore = new DatabaseUtils().cache(1, TimeUnit.HOURS).sql("select count(*) from testme").select(long.class).orElse(0L);
+        new DatabaseUtils().sql("insert into testme (stringVal, doubleVal, dateVal, timestameVal) VALUES(?, ?, ?, ?)")
+                .bindVars("hello", 2.0, new Date(), new Date()).execute();
+        long countAfter = new DatabaseUtils().cache(1, TimeUnit.HOURS).sql("select count(*) from testme").select(long.class).orElse(0L);
+        assertEquals(countBefore + 1, countAfter);
+
+        new DatabaseUtils().transactionCallback(databaseUtils -> {
+            Testme testme = new Testme();
+            testme.setDateval(LocalDate.now());
+            testme.setDoubleval(3.3);
+            testme.setStringval("moo");
+            testme.setTimestameval(LocalDateTime.now());
+            databaseUtils.store(testme);
+            return null;
+        });
+        countAfter = new DatabaseUtils().cache(1, TimeUnit.HOURS).sql("select count(*) from testme").select(long.class).orElse(0L);
+        assertEquals(countBefore + 2, countAfter);
+
+        QueryCacheKey key = new QueryCacheKey("default", "select * from listing l join address a on a.id = l.address_id",
+                Collections.emptyList(), QueryCacheKey.Shape.ROWS);
+        assertTrue(key.readsAny(Collections.singleton("address")));
+        assertFalse(key.readsAny(Collections.singleton("testme")));
     }
 
     @Test
@@ -338,6 +787,28 @@ public class DbUtilsTest {
         assertEquals(countBefore + 1, countAfter);
     }
 
+    @Test
+    public void testTransactionReadsSkipTheCache() {
+        String count = "select count(*) from testme where stringVal = 'uncommitted'";
+        long countBefore = new DatabaseUtils().sql(count).nocache().select(long.class).orElse(0L);
+        new DatabaseUtils().transactionCallback(databaseUtils -> {
+            databaseUtils.connectionCallback(connection -> {
+                try(Statement statement = connection.createStatement()) {
+                    return statement.executeUpdate("insert into testme (stringVal, doubleVal, dateVal, timestameVal) " +
+                            "VALUES('uncommitted', 2.0, now(), now())");
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertEquals(countBefore + 1,
+                    (long) databaseUtils.cache(1, TimeUnit.HOURS).sql(count).select(long.class).orElse(0L));
+            databaseUtils.rollback();
+            return null;
+        });
+        assertEquals(countBefore,
+                (long) new DatabaseUtils().cache(1, TimeUnit.HOURS).sql(count).select(long.class).orElse(0L));
+    }
+
     @Test
     public void testTransactionRollback() throws Exception {
         long countBefore = new DatabaseUtils().sql("select count(*) from testme").select(long.class).orElse(0L);
@@ -365,6 +836,29 @@ public class DbUtilsTest {
         assertEquals(countBefore, countAfter);
     }
 
+    @Test
+    public void testBulkStore() throws Exception {
+        long countBefore = new DatabaseUtils().sql("select count(*) from testme").select(long.class).orElse(0L);
+        List<Testme> entities = new ArrayList<>();
+        for(int i = 0; i < 25; i++) {
+            Testme testme = new Testme();
+            testme.setDateval(LocalDate.now());
+            testme.setDoubleval((double) i);
+            testme.setStringval("bulk" + i);
+            testme.setTimestameval(LocalDateTime.now());
+            entities.add(testme);
+        }
+        BulkResult stored = new DatabaseUtils().batchSize(10).bulkStore(entities.subList(0, 15));
+        assertEquals(15, stored.getEntityCount());
+        assertEquals(2, stored.getBatchCount());
+        BulkResult inserted = new DatabaseUtils().batchSize(10).bulkInsert(entities.subList(15, 25));
+        assertEquals(10, inserted.getEntityCount());
+        assertEquals(1, inserted.getBatchCount());
+        System.out.println(stored + " " + inserted);
+        long countAfter = new DatabaseUtils().sql("select count(*) from testme").select(long.class).orElse(0L);
+        assertEquals(countBefore + 25, countAfter);
+    }
+
     @Test
     public void testResultSet() throws Exception {
         new DatabaseUtils().sql("select * from testme").resultSetCallback(resultSet -> {
@@ -396,6 +890,75 @@ public class DbUtilsTest {
         System.out.println();
     }
 
+    @Test
+    public void testStream() throws Exception {
+        long count = new DatabaseUtils().sql("select count(*) from testme").select(long.class).orElse(0L);
+        try(Stream<Object[]> rows = new DatabaseUtils().sql("select * from testme").stream()) {
+            assertEquals(count, rows.count());
+        }
+        try(Stream<Map<String,Object>> rows = new DatabaseUtils().sql("select * from testme").fetchSize(10).streamMaps()) {
+            rows.limit(5).forEach(row -> assertTrue(row.containsKey("id")));
+        }
+        try(Stream<Listing> listings = new DatabaseUtils().sql("select * from listing").stream(Listing.class)) {
+            listings.forEach(listing -> System.out.println(listing.getId()));
+        }
+    }
+
+    @Test
+    public void testMapRows() throws Exception {
+        List<Map<String,Object>> rows = new DatabaseUtils().sql("select * from testme").nocache().selectMapList();
+        for(Map<String,Object> row : rows) {
+            Map<String,Object> copy = new HashMap<>(row);
+            assertEquals(copy, row);
+            assertEquals(copy.hashCode(), row.hashCode());
+            row.put("extra", 1);
+            row.remove("id");
+            assertFalse(row.containsKey("id"));
+            assertEquals(1, row.get("extra"));
+            assertEquals(copy.size(), row.size());
+        }
+    }
+
+    @Test
+    public void testBeanRowMapper() throws Exception {
+        List<Testme> entities = new DatabaseUtils().sql("select * from testme order by id").nocache().selectList(Testme.class);
+        List<TestmeBase> beans = new DatabaseUtils().sql("select * from testme order by id").nocache().selectList(TestmeBase.class);
+        assertEquals(entities.size(), beans.size());
+        for(int i = 0; i < beans.size(); i++) {
+            assertEquals(entities.get(i).getId(), beans.get(i).getId());
+            assertEquals(entities.get(i).getStringval(), beans.get(i).getStringval());
+            assertEquals(entities.get(i).getDateval(), beans.get(i).getDateval());
+        }
+        try(Stream<TestmeBase> stream = new DatabaseUtils().sql("select * from testme order by id").stream(TestmeBase.class)) {
+            assertEquals(beans.size(), stream.count());
+        }
+    }
+
+    @Test
+    public void testBeanRowMapperColumnIndexes() throws Exception {
+        List<TestmeBase> repeated = new DatabaseUtils().sql("select id, id, stringval from testme order by id").nocache()
+                .selectList(TestmeBase.class);
+        List<TestmeBase> plain = new DatabaseUtils().sql("select id, stringval from testme order by id").nocache()
+                .selectList(TestmeBase.class);
+        assertEquals(repeated.size(), plain.size());
+        for(int i = 0; i < plain.size(); i++) {
+            assertEquals(repeated.get(i).getId(), plain.get(i).getId());
+            assertEquals(repeated.get(i).getStringval(), plain.get(i).getStringval());
+        }
+    }
+
+    @Test
+    public void testColumnAliases() throws Exception {
+        List<TestmeBase> beans = new DatabaseUtils().sql("select id, id as stringval from testme order by id").nocache()
+                .selectList(TestmeBase.class);
+        for(TestmeBase bean : beans)
+            assertEquals(String.valueOf(bean.getId()), bean.getStringval());
+        List<Map<String,Object>> rows = new DatabaseUtils().sql("select id, id as other_id from testme").nocache()
+                .selectMapList();
+        for(Map<String,Object> row : rows)
+            assertEquals(row.get("id"), row.get("other_id"));
+    }
+
     @Test
     public void testMysqlConfig() throws Exception {
         Optional<Testme> testme = new DatabaseUtils("mysql").sql("select * from testme limit 1").select(Testme.class);
@@ -412,4 +975,21 @@ public class DbUtilsTest {
             return true;
         });
     }
+
+    @Test
+    public void testEntityChunkCallback() throws Exception {
+        long count = new DatabaseUtils().sql("select count(*) from address").select(long.class).orElse(0L);
+        AtomicInteger seen = new AtomicInteger();
+        assertTrue(new DatabaseUtils().sql("select * from address").entityCallback(Address.class, 2, addresses -> {
+            assertTrue(addresses.size() <= 2);
+            seen.addAndGet(addresses.size());
+            return true;
+        }));
+        assertEquals(count, seen.get());
+
+        seen.set(0);
+        boolean passed = new DatabaseUtils().sql("select * from address").entityCallback(Address.class, addr -> seen.incrementAndGet() < 1);
+        assertEquals(count > 0, !passed);
+        assertEquals(Math.min(1, count), seen.get());
+    }
 }